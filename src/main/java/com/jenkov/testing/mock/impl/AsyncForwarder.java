@@ -0,0 +1,570 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Forwards the invocations of a mock to its invocation target asynchronously, to simulate a collaborator that
+ * is decoupled from the caller. Set the forwarder with <code>Mock.setAsyncForwarder()</code>. Invocations of
+ * methods returning <code>void</code> return immediately. Invocations of methods returning a
+ * <code>Future</code>, <code>CompletionStage</code> or <code>CompletableFuture</code> immediately return a
+ * <code>CompletableFuture</code>, which is completed with the result of the invocation target. All other
+ * invocations are forwarded synchronously, as without a forwarder.
+ *
+ * <br/><br/>
+ * Queued invocations are kept in a bounded multi-producer, single-consumer ring buffer, in which callers claim
+ * a slot with a compare-and-set on the tail sequence, and publish the invocation by advancing the slot sequence.
+ * A single drainer thread, a platform thread or a virtual thread, takes the invocations off the queue in batches
+ * of up to <code>setBatchSize()</code> invocations, optionally waiting up to <code>setLinger()</code> for a batch
+ * to fill up, and runs them in queue order. When the queue is full, a caller is treated according to the policy:
+ *
+ * <ul>
+ *   <li><code>BLOCK</code>: the caller waits until there is room in the queue.</li>
+ *   <li><code>DROP</code>: the invocation is dropped. A returned future fails with a <code>RejectedExecutionException</code>.</li>
+ *   <li><code>REJECT</code>: the caller gets a <code>RejectedExecutionException</code>.</li>
+ *   <li><code>CALLER_RUNS</code>: the invocation is forwarded synchronously on the caller thread.</li>
+ * </ul>
+ *
+ * If the invocation target returns a plain <code>Future</code> which is not done yet, the drainer does not wait for
+ * it. A second thread polls such futures, and completes the futures returned to the callers when they are done.
+ *
+ * <br/><br/>
+ * The last <code>setHistorySize()</code> invocations run by the drainer are listed by
+ * <code>getQueuedInvocations()</code>, with the time they waited in the queue and the time the invocation target
+ * took to run them.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class AsyncForwarder {
+
+    /** Callers wait until there is room in the queue. */
+    public static final int BLOCK       = 0;
+
+    /** Invocations are dropped when the queue is full. */
+    public static final int DROP        = 1;
+
+    /** Callers are rejected when the queue is full. */
+    public static final int REJECT      = 2;
+
+    /** Callers forward the invocation themselves when the queue is full. */
+    public static final int CALLER_RUNS = 3;
+
+    protected final int policy;
+    protected int       batchSize     = 1;
+    protected int       historySize   = 1024;
+    protected long      lingerNanos   = 0;
+    protected boolean   virtualThread = false;
+
+    private final AtomicReferenceArray slots;
+    private final AtomicLongArray      sequences;
+    private final int                  mask;
+    private final AtomicLong           tail = new AtomicLong();
+    private final AtomicInteger        submitting = new AtomicInteger();
+    private volatile long              head = 0;
+
+    private volatile Thread  drainer        = null;
+    private volatile Thread  completer      = null;
+    private volatile boolean drainerWaiting = false;
+    private volatile boolean closed         = false;
+    private volatile boolean drained        = false;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    protected final AtomicLong      enqueued     = new AtomicLong();
+    protected final AtomicLong      completed    = new AtomicLong();
+    protected final LongAdder       dropped      = new LongAdder();
+    protected final LongAdder       waitNanos    = new LongAdder();
+    protected final LongAccumulator maxWaitNanos = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+    protected final ArrayDeque      queuedInvocations = new ArrayDeque();
+    protected final ConcurrentLinkedQueue pendingFutures = new ConcurrentLinkedQueue();
+
+    /**
+     * Creates a forwarder with a queue of the given capacity.
+     * @param capacity The number of invocations the queue can hold. Rounded up to a power of two, and at least 2.
+     * @param policy   <code>BLOCK</code>, <code>DROP</code>, <code>REJECT</code> or <code>CALLER_RUNS</code>.
+     */
+    public AsyncForwarder(int capacity, int policy) {
+        if(capacity < 1){
+            throw new IllegalArgumentException("Parameter capacity must be 1 or larger, was " + capacity);
+        }
+        if(policy < BLOCK || policy > CALLER_RUNS){
+            throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) size <<= 1;
+        if(size < 2) size = 2;
+
+        this.policy    = policy;
+        this.slots     = new AtomicReferenceArray(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask      = size - 1;
+        for(int i=0; i<size; i++){
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Sets the maximum number of invocations the drainer takes off the queue and runs as one batch. Default is 1.
+     * @param batchSize The maximum batch size.
+     */
+    public void setBatchSize(int batchSize){
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Parameter batchSize must be 1 or larger, was " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how many of the invocations run by the drainer are listed by <code>getQueuedInvocations()</code>.
+     * When more invocations have been run, the oldest ones are removed from the list. Default is 1024.
+     * @param historySize The maximum number of invocations listed. 0 lists none.
+     */
+    public void setHistorySize(int historySize){
+        if(historySize < 0){
+            throw new IllegalArgumentException("Parameter historySize must be 0 or larger, was " + historySize);
+        }
+        this.lock.lock();
+        try{
+            this.historySize = historySize;
+            trimHistory();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void trimHistory() {
+        while(this.queuedInvocations.size() > this.historySize){
+            this.queuedInvocations.removeFirst();
+        }
+    }
+
+    /**
+     * Sets how long the drainer waits for a batch to fill up after taking its first invocation off the queue.
+     * Default is 0, meaning a batch holds the invocations queued when the drainer gets to it.
+     * @param linger The maximum time to wait for a batch to fill up.
+     * @param unit   The time unit of the linger time.
+     */
+    public void setLinger(long linger, TimeUnit unit){
+        this.lingerNanos = unit.toNanos(linger);
+    }
+
+    /**
+     * Makes the drainer a virtual thread instead of a platform daemon thread. Ignored on JVMs without virtual
+     * threads. Must be set before the first invocation is queued.
+     * @param virtualThread True to drain the queue on a virtual thread. False if not.
+     */
+    public void setVirtualThread(boolean virtualThread){
+        this.virtualThread = virtualThread;
+    }
+
+    /**
+     * Returns true if invocations of the given method are queued: methods returning <code>void</code> or a type
+     * a <code>CompletableFuture</code> can be returned as, except <code>Object</code>.
+     * @param method The method to check.
+     * @return True if invocations of the method are queued. False if not.
+     */
+    public boolean isQueued(Method method){
+        Class returnType = method.getReturnType();
+        return returnType == void.class
+                || (returnType != Object.class && returnType.isAssignableFrom(CompletableFuture.class));
+    }
+
+    /**
+     * Queues an invocation of the given mock, or forwards it synchronously if the queue is full and the policy
+     * is <code>CALLER_RUNS</code>. Called by the mock. A caller interrupted while waiting for room in the queue
+     * gets an <code>InterruptedException</code>, with its interrupt status still set.
+     * @return The value to return to the caller: null for <code>void</code> methods, and a future otherwise.
+     */
+    public Object submit(Mock mock, Object proxy, MethodDescriptor descriptor, Object[] parameters) throws Throwable {
+        CompletableFuture future = descriptor.getReturnType() == void.class ? null : new CompletableFuture();
+        QueuedInvocation invocation = new QueuedInvocation(mock, proxy, descriptor, parameters, future);
+
+        /* The drainer only ends after no caller is between the closed check and the offer, see take() */
+        this.submitting.incrementAndGet();
+        try{
+            if(this.closed){
+                throw new RejectedExecutionException("Forwarder is closed");
+            }
+            startDrainer();
+            boolean callerRuns = false;
+            while(!callerRuns && !offer(invocation)){
+                switch(this.policy){
+                    case BLOCK:
+                        LockSupport.parkNanos(10000);
+                        if(Thread.currentThread().isInterrupted()){
+                            throw new InterruptedException();
+                        }
+                        if(this.closed){
+                            throw new RejectedExecutionException("Forwarder is closed");
+                        }
+                        continue;
+                    case DROP:
+                        this.dropped.increment();
+                        if(future != null){
+                            future.completeExceptionally(new RejectedExecutionException("Queue full, invocation dropped"));
+                        }
+                        return future;
+                    case REJECT:
+                        this.dropped.increment();
+                        throw new RejectedExecutionException("Queue full: " + descriptor.toMethodInvocation(parameters));
+                    default:
+                        callerRuns = true;
+                }
+            }
+            if(!callerRuns){
+                this.enqueued.incrementAndGet();
+                if(this.drainerWaiting){
+                    this.drainerWaiting = false;
+                    LockSupport.unpark(this.drainer);
+                }
+                return future;
+            }
+        } finally {
+            this.submitting.decrementAndGet();
+        }
+
+        long start = System.nanoTime();
+        try{
+            return mock.forwardMethodInvocation(proxy, descriptor, parameters);
+        } finally {
+            mock.recordForwarding(System.nanoTime() - start);
+        }
+    }
+
+    private boolean offer(QueuedInvocation invocation) {
+        long position = this.tail.get();
+        while(true){
+            int  index      = (int) position & this.mask;
+            long difference = this.sequences.get(index) - position;
+            if(difference == 0){
+                if(this.tail.compareAndSet(position, position + 1)){
+                    this.slots.set(index, invocation);
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+                position = this.tail.get();
+            } else if(difference < 0){
+                return false;
+            } else {
+                position = this.tail.get();
+            }
+        }
+    }
+
+    private QueuedInvocation poll() {
+        int index = (int) this.head & this.mask;
+        if(this.sequences.get(index) != this.head + 1){
+            return null;
+        }
+        QueuedInvocation invocation = (QueuedInvocation) this.slots.get(index);
+        this.slots.set(index, null);
+        this.sequences.set(index, this.head + this.sequences.length());
+        this.head++;
+        return invocation;
+    }
+
+    private void startDrainer() {
+        if(this.drainer != null){
+            return;
+        }
+        this.lock.lock();
+        try{
+            if(this.drainer != null){
+                return;
+            }
+            Thread thread = newThread(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, "butterfly-async-forwarder");
+            this.drainer = thread;
+            thread.start();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void startCompleter() {
+        if(this.completer != null){
+            return;
+        }
+        this.lock.lock();
+        try{
+            if(this.completer != null){
+                return;
+            }
+            Thread thread = newThread(new Runnable() {
+                public void run() {
+                    complete();
+                }
+            }, "butterfly-async-forwarder-completer");
+            this.completer = thread;
+            thread.start();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Thread newThread(Runnable runnable, String name) {
+        Thread thread = this.virtualThread ? newVirtualThread(runnable) : null;
+        if(thread == null){
+            thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+        }
+        return thread;
+    }
+
+    private static Thread newVirtualThread(Runnable runnable) {
+        try{
+            Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]);
+            return (Thread) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("unstarted", new Class[]{Runnable.class}).invoke(builder, new Object[]{runnable});
+        } catch(ReflectiveOperationException e){
+            return null;
+        }
+    }
+
+    private void drain() {
+        QueuedInvocation[] batch = new QueuedInvocation[this.batchSize];
+        int batchNumber = 0;
+        while(true){
+            int count = fill(batch);
+            if(count == 0){
+                this.drained = true;
+                Thread completer = this.completer;
+                if(completer != null){
+                    LockSupport.unpark(completer);
+                }
+                return;
+            }
+            for(int i=0; i<count; i++){
+                if(!batch[i].run(batchNumber)){
+                    this.pendingFutures.offer(batch[i]);
+                    startCompleter();
+                    LockSupport.unpark(this.completer);
+                }
+                this.waitNanos.add(batch[i].getWaitNanos());
+                this.maxWaitNanos.accumulate(batch[i].getWaitNanos());
+            }
+            this.lock.lock();
+            try{
+                for(int i=0; i<count; i++){
+                    this.queuedInvocations.addLast(batch[i]);
+                    batch[i] = null;
+                }
+                trimHistory();
+            } finally {
+                this.lock.unlock();
+            }
+            this.completed.addAndGet(count);
+            batchNumber++;
+        }
+    }
+
+    /**
+     * Completes the futures returned to the callers of invocations whose invocation target returned a plain
+     * <code>Future</code>, as those futures are done. Ends when the forwarder is closed, the drainer has run the
+     * invocations still queued, and no futures are pending.
+     */
+    private void complete() {
+        List pending = new ArrayList();
+        while(true){
+            Object invocation = this.pendingFutures.poll();
+            while(invocation != null){
+                pending.add(invocation);
+                invocation = this.pendingFutures.poll();
+            }
+            Iterator iterator = pending.iterator();
+            while(iterator.hasNext()){
+                if(((QueuedInvocation) iterator.next()).completeIfDone()){
+                    iterator.remove();
+                }
+            }
+            if(!pending.isEmpty()){
+                LockSupport.parkNanos(this, 100000);
+            } else if(this.drained && this.pendingFutures.isEmpty()){
+                return;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of invocations off the queue, waiting for the first one, and then up to the linger
+     * time for the batch to fill up. Returns 0 when the forwarder is closed and the queue is empty.
+     */
+    private int fill(QueuedInvocation[] batch) {
+        QueuedInvocation first = take(0);
+        if(first == null){
+            return 0;
+        }
+        int count = 0;
+        batch[count++] = first;
+        long deadline = System.nanoTime() + this.lingerNanos;
+        while(count < batch.length){
+            QueuedInvocation next = poll();
+            if(next == null && this.lingerNanos > 0 && !this.closed){
+                next = take(deadline);
+            }
+            if(next == null){
+                break;
+            }
+            batch[count++] = next;
+        }
+        return count;
+    }
+
+    /**
+     * Takes the next invocation off the queue, parking the drainer until one is queued, the deadline passes,
+     * or the forwarder is closed. A deadline of 0 means no deadline. When the forwarder is closed, the drainer
+     * waits for the callers that checked <code>closed</code> before it was set to publish their invocations,
+     * and polls once more, so no invocation accepted by <code>submit()</code> is left in the queue.
+     */
+    private QueuedInvocation take(long deadline) {
+        while(true){
+            QueuedInvocation invocation = poll();
+            if(invocation != null){
+                return invocation;
+            }
+            if(this.closed){
+                while(this.submitting.get() > 0){
+                    LockSupport.parkNanos(this, 10000);
+                }
+                return poll();
+            }
+            this.drainerWaiting = true;
+            invocation = poll();
+            if(invocation != null){
+                this.drainerWaiting = false;
+                return invocation;
+            }
+            if(deadline == 0){
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    this.drainerWaiting = false;
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            this.drainerWaiting = false;
+        }
+    }
+
+    /**
+     * Waits until all queued invocations have been run, or the timeout expires.
+     * @param timeoutMillis The maximum time to wait, in milliseconds.
+     * @return True if all queued invocations have been run. False if the timeout expired first.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while(this.completed.get() < this.enqueued.get()){
+            if(System.nanoTime() - deadline >= 0){
+                return false;
+            }
+            LockSupport.parkNanos(100000);
+            if(Thread.interrupted()){
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting invocations, lets the drainer run the invocations still queued, and waits for it to end.
+     * Futures still waiting for a plain <code>Future</code> of the invocation target are completed when it is done.
+     * Closing a closed forwarder has no effect.
+     * @throws InterruptedException If the closing thread is interrupted.
+     */
+    public void close() throws InterruptedException {
+        this.closed = true;
+        Thread drainer = this.drainer;
+        if(drainer != null && drainer != Thread.currentThread()){
+            LockSupport.unpark(drainer);
+            drainer.join();
+        }
+    }
+
+    /**
+     * Returns true if this forwarder has been closed.
+     * @return True if this forwarder has been closed. False if not.
+     */
+    public boolean isClosed(){
+        return this.closed;
+    }
+
+    /**
+     * Returns the last invocations the drainer has run since this forwarder was created or cleared,
+     * at most <code>setHistorySize()</code> of them.
+     * @return A list of <code>QueuedInvocation</code> instances, in the order they were run.
+     */
+    public List getQueuedInvocations(){
+        this.lock.lock();
+        try{
+            return new ArrayList(this.queuedInvocations);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the invocations listed by <code>getQueuedInvocations()</code>, and resets the wait metrics.
+     */
+    public void clear(){
+        this.lock.lock();
+        try{
+            this.queuedInvocations.clear();
+        } finally {
+            this.lock.unlock();
+        }
+        this.dropped.reset();
+        this.waitNanos.reset();
+        this.maxWaitNanos.reset();
+    }
+
+    public int getPolicy() {
+        return this.policy;
+    }
+
+    /** @return The number of invocations in the queue, not yet taken by the drainer. */
+    public int getQueueDepth() {
+        return (int) Math.max(0, this.tail.get() - this.head);
+    }
+
+    /** @return The number of invocations dropped or rejected because the queue was full. */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /** @return The total time invocations waited in the queue, in nanoseconds. */
+    public long getTotalWaitNanos() {
+        return this.waitNanos.sum();
+    }
+
+    /** @return The longest time an invocation waited in the queue, in nanoseconds. */
+    public long getMaxWaitNanos() {
+        return this.maxWaitNanos.get();
+    }
+}
@@ -0,0 +1,58 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IExpectation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This expectation fails as soon as a method matching the given method invocation is invoked
+ * more than a maximum number of times. Matching follows the rules of <code>MethodInvocation.matches()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class AtMostInvokedExpectation implements IExpectation {
+
+    protected MethodInvocation methodInvocation = null;
+    protected long             maxInvocations   = 0;
+    protected AtomicLong       invocations      = new AtomicLong();
+
+    /**
+     * Creates an expectation that methods matching the given method invocation are invoked
+     * at most <code>maxInvocations</code> times.
+     * @param methodInvocation The method invocation to match invocations against.
+     * @param maxInvocations   The maximum number of matching invocations allowed.
+     */
+    public AtMostInvokedExpectation(MethodInvocation methodInvocation, long maxInvocations) {
+        this.methodInvocation = methodInvocation;
+        this.maxInvocations   = maxInvocations;
+    }
+
+    public void check(MethodDescriptor descriptor, Object[] parameters) {
+        if(!this.methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), parameters)){
+            return;
+        }
+        long count = this.invocations.incrementAndGet();
+        if(count > this.maxInvocations){
+            throw new AssertionError(violationMessage(count) + " Offending invocation: "
+                    + descriptor.toMethodInvocation(parameters).toString()
+                    + " on thread " + Thread.currentThread().getName());
+        }
+    }
+
+    protected String violationMessage(long count) {
+        return "Method invoked " + count + " times, at most " + this.maxInvocations + " expected: "
+                + this.methodInvocation.toString() + ".";
+    }
+
+    /**
+     * Returns the number of matching invocations seen since this expectation was created or reset.
+     * @return The number of matching invocations.
+     */
+    public long getInvocations() {
+        return this.invocations.get();
+    }
+
+    public void reset() {
+        this.invocations.set(0);
+    }
+}
@@ -5,9 +5,9 @@ package com.jenkov.testing.mock.impl;
  */
 public class ClassUtil {
     public static boolean areEqual(Object parameter, Object otherParameter) {
-        if( parameter == null && otherParameter == null) return true;
-        if( parameter != null && otherParameter == null) return false;
-        if( parameter == null && otherParameter != null) return false;
-        return parameter.equals(otherParameter);
+        if( parameter == otherParameter) return true;
+        if( parameter == null || otherParameter == null) return false;
+        if( otherParameter instanceof Fingerprint) return otherParameter.equals(parameter);
+        return ParameterEquality.forClass(parameter.getClass()).areEqual(parameter, otherParameter);
     }
 }
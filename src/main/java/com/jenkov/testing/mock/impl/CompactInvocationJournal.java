@@ -0,0 +1,81 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+
+/**
+ * An invocation journal which stores each invocation as a method descriptor id in an
+ * <code>int[]</code> column plus a reference to the parameter array in an <code>Object[][]</code>
+ * column. The method name and parameter types are shared via the <code>MethodDescriptor</code>,
+ * so recording an invocation allocates nothing except when the columns grow.
+ *
+ * <br/><br/>
+ * The parameter arrays are the arrays the mock received from <code>java.lang.reflect.Proxy</code>.
+ * Primitive parameters arrive already boxed, so storing them in primitive columns would
+ * not save any allocation.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class CompactInvocationJournal implements IInvocationJournal {
+
+    protected int[]      methodIds  = null;
+    protected Object[][] parameters = null;
+    protected int        size       = 0;
+
+    public CompactInvocationJournal() {
+        this(16);
+    }
+
+    public CompactInvocationJournal(int initialCapacity) {
+        this.methodIds  = new int[Math.max(initialCapacity, 1)];
+        this.parameters = new Object[this.methodIds.length][];
+    }
+
+    public int record(MethodDescriptor descriptor, Object[] parameters) {
+        if(this.size == this.methodIds.length){
+            grow();
+        }
+        this.methodIds [this.size] = descriptor.getId();
+        this.parameters[this.size] = parameters;
+        return this.size++;
+    }
+
+    private void grow() {
+        int newCapacity = this.methodIds.length * 2;
+
+        int[] newMethodIds = new int[newCapacity];
+        System.arraycopy(this.methodIds, 0, newMethodIds, 0, this.size);
+        this.methodIds = newMethodIds;
+
+        Object[][] newParameters = new Object[newCapacity][];
+        System.arraycopy(this.parameters, 0, newParameters, 0, this.size);
+        this.parameters = newParameters;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean matches(int index, MethodInvocation methodInvocation) {
+        checkIndex(index);
+        MethodDescriptor descriptor = MethodDescriptor.forId(this.methodIds[index]);
+        return methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), this.parameters[index]);
+    }
+
+    public MethodInvocation get(int index) {
+        checkIndex(index);
+        return MethodDescriptor.forId(this.methodIds[index]).toMethodInvocation(this.parameters[index]);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= this.size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+
+    public void clear() {
+        for(int i=0; i<this.size; i++){
+            this.parameters[i] = null;
+        }
+        this.size = 0;
+    }
+}
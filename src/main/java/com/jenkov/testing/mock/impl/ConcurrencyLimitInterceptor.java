@@ -0,0 +1,67 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of invocations in progress at the same time, to simulate a collaborator with a fixed
+ * number of workers or connections. The permits are held in a <code>Semaphore</code>, whose uncontended
+ * acquire and release are a single compare-and-set.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ConcurrencyLimitInterceptor extends ThrottlingInterceptor {
+
+    protected final int       maxConcurrent;
+    protected final Semaphore permits;
+
+    /**
+     * Creates a limit which blocks callers while the limit is reached.
+     * @param maxConcurrent The maximum number of invocations in progress at the same time.
+     */
+    public ConcurrencyLimitInterceptor(int maxConcurrent) {
+        this(maxConcurrent, BLOCK, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a limit.
+     * @param maxConcurrent The maximum number of invocations in progress at the same time.
+     * @param policy        <code>BLOCK</code>, <code>DELAY</code> or <code>REJECT</code>.
+     * @param maxDelay      The maximum time a caller waits under the <code>DELAY</code> policy.
+     * @param unit          The time unit of the maximum delay.
+     */
+    public ConcurrencyLimitInterceptor(int maxConcurrent, int policy, long maxDelay, TimeUnit unit) {
+        super(policy, maxDelay, unit);
+        if(maxConcurrent < 1){
+            throw new IllegalArgumentException("The limit must be at least 1: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.permits       = new Semaphore(maxConcurrent);
+    }
+
+    protected int acquire(long now) throws InterruptedException {
+        if(this.permits.tryAcquire()){
+            return ADMITTED;
+        }
+        if(this.policy == REJECT){
+            return REJECTED;
+        }
+        if(this.policy == DELAY){
+            return this.permits.tryAcquire(this.maxDelayNanos, TimeUnit.NANOSECONDS) ? ADMITTED_WAITED : REJECTED;
+        }
+        this.permits.acquire();
+        return ADMITTED_WAITED;
+    }
+
+    protected void release() {
+        this.permits.release();
+    }
+
+    /**
+     * Returns the number of invocations in progress.
+     * @return The number of invocations in progress.
+     */
+    public int getInFlight() {
+        return this.maxConcurrent - this.permits.availablePermits();
+    }
+}
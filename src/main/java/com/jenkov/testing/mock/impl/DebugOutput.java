@@ -0,0 +1,29 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the debug output of mocks to <code>System.out</code>, on the thread invoking the mock, so the lines
+ * appear in order with the test's own output, and go to the stream set with <code>System.setOut()</code> at
+ * the time of the invocation. Lines are written one at a time under a <code>ReentrantLock</code> instead of a
+ * monitor, so a virtual thread waiting for its turn does not pin its carrier thread.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class DebugOutput {
+
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Writes a line to <code>System.out</code>. Lines written by different threads are not interleaved.
+     * @param line The line to write.
+     */
+    public static void println(String line){
+        lock.lock();
+        try{
+            System.out.println(line);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
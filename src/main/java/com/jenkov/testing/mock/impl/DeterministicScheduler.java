@@ -0,0 +1,261 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IScheduledScenario;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a set of tasks on separate threads, but lets only one of them run at a time, and switches between
+ * them only at mock invocations. Every invocation on a mock using this scheduler (see
+ * <code>Mock.setScheduler()</code>) is a yield point, where the scheduler picks the next task to run with
+ * a random generator seeded with the scheduler's seed. The interleaving of the tasks at their collaborator
+ * calls is therefore fully determined by the seed, and a failing interleaving can be replayed exactly by
+ * running the same tasks with the same seed.
+ *
+ * <br/><br/>
+ * <code>explore()</code> runs a scenario once per seed in a range, and reports the first failing seed.
+ *
+ * <br/><br/>
+ * The tasks should only block at mock invocations. If a task blocks on something else which only another,
+ * paused, task can release, no task can make progress. The scheduler detects this when no yield point is
+ * reached within the step timeout, and fails the run. The task threads of a failed run are interrupted,
+ * and tasks waiting for their turn exit without running further: a waiting task which has not started yet
+ * does not start, and a task waiting at a yield point gets an <code>IllegalStateException</code> from the
+ * mock invocation.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class DeterministicScheduler {
+
+    protected long      seed              = 0;
+    protected Random    random            = null;
+    protected long      stepTimeoutMillis = 10000;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition     turn = lock.newCondition();
+
+    protected List      tasks    = new ArrayList();
+    protected List      live     = new ArrayList();
+    protected Thread    running  = null;
+    protected long      steps    = 0;
+    protected List      schedule = new ArrayList();
+    protected Throwable failure  = null;
+
+    /**
+     * Creates a scheduler choosing interleavings from the given seed.
+     * @param seed The seed of the random generator choosing the next task at each yield point.
+     */
+    public DeterministicScheduler(long seed) {
+        this.seed   = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs the given scenario once per seed, from <code>firstSeed</code> and <code>runs</code> seeds on.
+     * @param firstSeed The first seed to run the scenario with.
+     * @param runs      The number of seeds to run the scenario with.
+     * @param scenario  The scenario to run.
+     * @throws AssertionError If the scenario fails for a seed. The message contains the seed, and the cause
+     *                        is the failure of the scenario.
+     */
+    public static void explore(long firstSeed, int runs, IScheduledScenario scenario){
+        for(long seed=firstSeed; seed<firstSeed + runs; seed++){
+            DeterministicScheduler scheduler = new DeterministicScheduler(seed);
+            try{
+                scenario.run(scheduler);
+            } catch(Throwable t){
+                AssertionError error = new AssertionError("Scenario failed with seed " + seed
+                        + ", schedule " + scheduler.getSchedule() + ": " + t);
+                error.initCause(t);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Returns the seed of this scheduler.
+     * @return The seed of this scheduler.
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Sets the time without any task reaching a yield point or finishing after which a run is considered stuck.
+     * @param stepTimeoutMillis The step timeout in milliseconds.
+     */
+    public void setStepTimeoutMillis(long stepTimeoutMillis) {
+        this.stepTimeoutMillis = stepTimeoutMillis;
+    }
+
+    /**
+     * Returns the indexes of the tasks chosen to run, in the order they were chosen, during the last run.
+     * @return The list of chosen task indexes, as <code>Integer</code> instances.
+     */
+    public List getSchedule() {
+        this.lock.lock();
+        try{
+            return new ArrayList(this.schedule);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given tasks, each on its own thread, interleaved at mock invocations as chosen by this
+     * scheduler's seed. Returns when all tasks have finished.
+     * @param tasks The tasks to run.
+     * @throws Throwable The first exception or error thrown by a task, or an <code>AssertionError</code>
+     *                   if the run got stuck.
+     */
+    public void run(Runnable[] tasks) throws Throwable {
+        Thread[] threads = new Thread[tasks.length];
+
+        this.lock.lock();
+        try{
+            if(!this.live.isEmpty()){
+                throw new IllegalStateException("The scheduler is already running tasks");
+            }
+            this.tasks.clear();
+            this.schedule.clear();
+            this.failure = null;
+            this.random  = new Random(this.seed);
+            for(int i=0; i<tasks.length; i++){
+                threads[i] = new Thread(new ScheduledTask(tasks[i]), "scheduled-task-" + i);
+                threads[i].setDaemon(true);
+                this.tasks.add(threads[i]);
+                this.live.add(threads[i]);
+            }
+            chooseNext();
+        } finally {
+            this.lock.unlock();
+        }
+
+        for(int i=0; i<threads.length; i++){
+            threads[i].start();
+        }
+
+        this.lock.lock();
+        try{
+            while(!this.live.isEmpty()){
+                long steps = this.steps;
+                boolean signalled = this.turn.await(this.stepTimeoutMillis, TimeUnit.MILLISECONDS);
+                if(!signalled && steps == this.steps && !this.live.isEmpty()){
+                    Thread[] stuck = (Thread[]) this.live.toArray(new Thread[this.live.size()]);
+                    this.live.clear();
+                    this.running = null;
+                    this.turn.signalAll();
+                    for(int i=0; i<stuck.length; i++){
+                        stuck[i].interrupt();
+                    }
+                    throw new AssertionError("No task reached a yield point within " + this.stepTimeoutMillis
+                            + " ms. Seed " + this.seed + ", schedule " + this.schedule);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        for(int i=0; i<threads.length; i++){
+            threads[i].join();
+        }
+        if(this.failure != null){
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Called by mocks at each invocation. If the calling thread is a task run by this scheduler, the scheduler
+     * chooses the next task to run, and the calling thread waits until it is chosen again. Calls from other
+     * threads return immediately.
+     */
+    public void yieldPoint(){
+        Thread self = Thread.currentThread();
+        this.lock.lock();
+        try{
+            if(!this.live.contains(self)){
+                return;
+            }
+            this.steps++;
+            chooseNext();
+            while(this.running != self && this.live.contains(self)){
+                this.turn.awaitUninterruptibly();
+            }
+            if(!this.live.contains(self)){
+                throw new IllegalStateException("The run of scheduler with seed " + this.seed + " was aborted");
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void chooseNext() {
+        if(this.live.isEmpty()){
+            this.running = null;
+        } else {
+            this.running = (Thread) this.live.get(this.random.nextInt(this.live.size()));
+            this.schedule.add(Integer.valueOf(this.tasks.indexOf(this.running)));
+        }
+        this.turn.signalAll();
+    }
+
+    /**
+     * Waits until the calling task is chosen to run. Returns false if the run was aborted first.
+     */
+    private boolean awaitTurn() {
+        Thread self = Thread.currentThread();
+        this.lock.lock();
+        try{
+            while(this.running != self && this.live.contains(self)){
+                this.turn.awaitUninterruptibly();
+            }
+            return this.live.contains(self);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void finished(Throwable taskFailure) {
+        this.lock.lock();
+        try{
+            if(taskFailure != null && this.failure == null){
+                this.failure = taskFailure;
+            }
+            if(this.live.remove(Thread.currentThread())){
+                this.steps++;
+                chooseNext();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    private class ScheduledTask implements Runnable {
+
+        private Runnable task = null;
+
+        public ScheduledTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            Throwable taskFailure = null;
+            if(!awaitTurn()){
+                return;
+            }
+            try{
+                this.task.run();
+            } catch(Throwable t){
+                taskFailure = t;
+            } finally {
+                finished(taskFailure);
+            }
+        }
+    }
+}
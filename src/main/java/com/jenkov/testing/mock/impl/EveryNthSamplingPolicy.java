@@ -0,0 +1,30 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.ISamplingPolicy;
+
+/**
+ * A sampling policy which records 1 in N invocations of each method: the first invocation,
+ * the N+1'th invocation, the 2N+1'th invocation etc. The decision is made from the exact
+ * per-method count the mock maintains anyway, so the policy keeps no state of its own.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class EveryNthSamplingPolicy implements ISamplingPolicy {
+
+    protected long n = 1;
+
+    /**
+     * Creates a policy recording every n'th invocation of each method.
+     * @param n The sampling interval. Must be 1 or larger.
+     */
+    public EveryNthSamplingPolicy(long n) {
+        if(n < 1){
+            throw new IllegalArgumentException("Parameter n must be 1 or larger, was " + n);
+        }
+        this.n = n;
+    }
+
+    public boolean sample(MethodDescriptor descriptor, long methodCount) {
+        return (methodCount - 1) % this.n == 0;
+    }
+}
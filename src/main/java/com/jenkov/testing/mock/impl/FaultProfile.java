@@ -0,0 +1,142 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.Constructor;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Describes the faults a mock injects into the invocations of a method: the type of the exception or
+ * error thrown, the rate at which faults start, and how many consecutive invocations a fault lasts (the
+ * burst length). Add a profile to a mock with <code>Mock.addFault()</code>.
+ *
+ * <br/><br/>
+ * Each thread draws from its own <code>SplittableRandom</code>, split from a root generator seeded with
+ * the profile's seed, so deciding whether to inject a fault takes no lock and shares no state between
+ * threads. A single thread sees the same sequence of faults for the same seed on every run. With several
+ * threads, each thread's generator depends on the order in which the threads first invoke the method.
+ *
+ * <br/><br/>
+ * The fault is created by the constructor of the fault type taking a <code>String</code> message, or the
+ * no-argument constructor. Checked exceptions which the invoked method does not declare reach the caller
+ * wrapped in an <code>UndeclaredThrowableException</code>, as for any invocation handler.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class FaultProfile {
+
+    protected Class  faultType   = null;
+    protected double rate        = 0;
+    protected long   seed        = 0;
+    protected int    burstLength = 1;
+
+    private final SplittableRandom root;
+    private final ReentrantLock    splitLock = new ReentrantLock();
+    private final ThreadLocal      state     = new ThreadLocal() {
+        protected Object initialValue() {
+            splitLock.lock();
+            try{
+                return new State(root.split());
+            } finally {
+                splitLock.unlock();
+            }
+        }
+    };
+
+    /**
+     * Creates a profile with seed 0.
+     * @param faultType The <code>Throwable</code> subclass to throw.
+     * @param rate      The probability, from 0 to 1, that an invocation starts a fault.
+     */
+    public FaultProfile(Class faultType, double rate) {
+        this(faultType, rate, 0);
+    }
+
+    /**
+     * Creates a profile.
+     * @param faultType The <code>Throwable</code> subclass to throw.
+     * @param rate      The probability, from 0 to 1, that an invocation starts a fault.
+     * @param seed      The seed of the random generators deciding which invocations start a fault.
+     */
+    public FaultProfile(Class faultType, double rate, long seed) {
+        if(!Throwable.class.isAssignableFrom(faultType)){
+            throw new IllegalArgumentException(faultType.getName() + " is not a Throwable");
+        }
+        if(rate < 0 || rate > 1){
+            throw new IllegalArgumentException("The rate must be between 0 and 1: " + rate);
+        }
+        this.faultType = faultType;
+        this.rate      = rate;
+        this.seed      = seed;
+        this.root      = new SplittableRandom(seed);
+    }
+
+    public Class getFaultType() {
+        return this.faultType;
+    }
+
+    public double getRate() {
+        return this.rate;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public int getBurstLength() {
+        return this.burstLength;
+    }
+
+    /**
+     * Sets the number of consecutive invocations, on the same thread, that fail once a fault starts.
+     * The default is 1.
+     * @param burstLength The burst length.
+     */
+    public void setBurstLength(int burstLength) {
+        if(burstLength < 1){
+            throw new IllegalArgumentException("The burst length must be at least 1: " + burstLength);
+        }
+        this.burstLength = burstLength;
+    }
+
+    /**
+     * Decides whether the current invocation of the given method fails, and if so creates the fault.
+     * @param descriptor The descriptor of the invoked method.
+     * @return The fault to throw, or null if the invocation does not fail.
+     */
+    public Throwable nextFault(MethodDescriptor descriptor){
+        State state = (State) this.state.get();
+        if(state.burstRemaining > 0){
+            state.burstRemaining--;
+            return createFault(descriptor);
+        }
+        if(state.random.nextDouble() < this.rate){
+            state.burstRemaining = this.burstLength - 1;
+            return createFault(descriptor);
+        }
+        return null;
+    }
+
+    protected Throwable createFault(MethodDescriptor descriptor) {
+        String message = "Fault injected into " + descriptor.getName();
+        try{
+            try{
+                Constructor constructor = this.faultType.getConstructor(new Class[]{String.class});
+                return (Throwable) constructor.newInstance(new Object[]{message});
+            } catch(NoSuchMethodException e){
+                return (Throwable) this.faultType.newInstance();
+            }
+        } catch(Exception e){
+            throw new IllegalStateException("Could not create fault of type " + this.faultType.getName(), e);
+        }
+    }
+
+
+    private static class State {
+        SplittableRandom random         = null;
+        int              burstRemaining = 0;
+
+        State(SplittableRandom random) {
+            this.random = random;
+        }
+    }
+}
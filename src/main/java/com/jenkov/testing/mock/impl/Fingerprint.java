@@ -0,0 +1,112 @@
+package com.jenkov.testing.mock.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A 64-bit hash plus the length of a byte sequence, recorded in place of a <code>byte[]</code> or
+ * <code>ByteBuffer</code> parameter when the mock's parameter capture policy for that type is
+ * <code>ParameterCapture.FINGERPRINT</code>. The journal then holds a few bytes per such parameter instead
+ * of the buffer itself.
+ *
+ * <br/><br/>
+ * A fingerprint equals another fingerprint with the same length and hash, and a <code>byte[]</code>
+ * or <code>ByteBuffer</code> whose content (the remaining bytes, for a buffer) has that length and hash. An
+ * expected invocation can therefore use the real buffer content as parameter value. Two different byte
+ * sequences with the same length collide with a probability of about 2<sup>-64</sup>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class Fingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    protected final int  length;
+    protected final long hash;
+
+    public Fingerprint(int length, long hash) {
+        this.length = length;
+        this.hash   = hash;
+    }
+
+    /**
+     * Returns the fingerprint of the given bytes.
+     * @param bytes The bytes to fingerprint.
+     * @return The fingerprint of the bytes.
+     */
+    public static Fingerprint of(byte[] bytes){
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Returns the fingerprint of the remaining bytes of the given buffer. The position of the buffer is
+     * not changed.
+     * @param buffer The buffer to fingerprint.
+     * @return The fingerprint of the remaining bytes of the buffer.
+     */
+    public static Fingerprint of(ByteBuffer buffer){
+        ByteBuffer bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start  = bytes.position();
+        int length = bytes.remaining();
+        int end    = start + (length & ~7);
+
+        long hash = length * C1;
+        for(int i=start; i<end; i+=8){
+            hash ^= mix(bytes.getLong(i));
+            hash  = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for(int i=start + length - 1; i>=end; i--){
+            tail = (tail << 8) | (bytes.get(i) & 0xFF);
+        }
+        hash ^= mix(tail);
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return new Fingerprint(length, hash);
+    }
+
+    private static long mix(long k) {
+        k *= C1;
+        k  = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+
+    /**
+     * Returns the number of bytes fingerprinted.
+     * @return The number of bytes fingerprinted.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the 64-bit hash of the bytes fingerprinted.
+     * @return The hash of the bytes.
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    public boolean equals(Object o) {
+        Fingerprint other = null;
+        if(o instanceof Fingerprint)     other = (Fingerprint) o;
+        else if(o instanceof byte[])     other = of((byte[]) o);
+        else if(o instanceof ByteBuffer) other = of((ByteBuffer) o);
+        else return false;
+
+        return other.length == this.length && other.hash == this.hash;
+    }
+
+    public int hashCode() {
+        return (int) (this.hash ^ (this.hash >>> 32));
+    }
+
+    public String toString() {
+        return "fingerprint[" + this.length + " bytes, " + Long.toHexString(this.hash) + "]";
+    }
+}
@@ -0,0 +1,183 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IGeneratedMock;
+import com.jenkov.testing.mock.itf.IMock;
+import com.jenkov.testing.mock.processor.MockProcessor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the mock classes generated at compile time by <code>MockProcessor</code>, via the index resources the
+ * processor writes. The index resources are looked up through the class loader of the mocked interface, the
+ * context class loader of the calling thread, and the class loader of this library, in that order, so generated
+ * mocks are found also when this library is loaded by a parent class loader of the test classes, as in IDE
+ * runners, containers and build tool workers. The index resources of each class loader are read once, and the
+ * constructor of each generated class is looked up once, the first time a mock of its interface is created.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class GeneratedMocks {
+
+    private static final Object NO_CONSTRUCTOR = new Object();
+
+    private static final Map           indexes      = new WeakHashMap();
+    private static final ReentrantLock indexesLock  = new ReentrantLock();
+    private static final ConcurrentMap constructors = new ConcurrentHashMap();
+
+    /**
+     * Creates an instance of the mock class generated for the given interfaces, passing its invocations to the
+     * given handler. Mock classes are only generated for single interfaces, so the interfaces must be one
+     * interface, optionally plus <code>IMock</code>.
+     * @param interfaces The interfaces the mock is to implement.
+     * @param handler    The handler to pass the invocations to.
+     * @return A new instance of the generated mock class, or null if no mock class was generated for the interfaces.
+     */
+    public static Object newInstance(Class[] interfaces, InvocationHandler handler){
+        ProxyConstructor constructor = getProxyConstructor(interfaces);
+        if(constructor == null){
+            return null;
+        }
+        return constructor.newInstance(handler);
+    }
+
+    /**
+     * Returns a constructor creating instances of the mock class generated for the given interfaces, or null
+     * if no mock class was generated for them. The constructor is looked up once per interface, and shared by
+     * all later calls.
+     * @param interfaces The interfaces the mock is to implement.
+     * @return A constructor creating instances of the generated mock class, or null.
+     */
+    public static ProxyConstructor getProxyConstructor(Class[] interfaces){
+        Class mocked = null;
+        for(int i=0; i<interfaces.length; i++){
+            if(interfaces[i] == IMock.class) continue;
+            if(mocked != null) return null;
+            mocked = interfaces[i];
+        }
+        if(mocked == null){
+            return null;
+        }
+
+        Object constructor = constructors.get(mocked);
+        if(constructor == null){
+            constructor = findConstructor(mocked);
+            Object existing = constructors.putIfAbsent(mocked, constructor);
+            if(existing != null) constructor = existing;
+        }
+        if(constructor == NO_CONSTRUCTOR){
+            return null;
+        }
+        return (ProxyConstructor) constructor;
+    }
+
+    private static Object findConstructor(final Class mocked) {
+        List classLoaders = classLoadersFor(mocked);
+        for(int i=0; i<classLoaders.size(); i++){
+            ClassLoader classLoader = (ClassLoader) classLoaders.get(i);
+            String className = (String) classNames(classLoader).get(mocked.getName());
+            if(className == null){
+                continue;
+            }
+            try{
+                Class mockClass = Class.forName(className, true, classLoader);
+                if(mocked.isAssignableFrom(mockClass) && IGeneratedMock.class.isAssignableFrom(mockClass)){
+                    return proxyConstructor(mocked, mockClass.getConstructor(new Class[]{InvocationHandler.class}));
+                }
+            } catch(ClassNotFoundException e){
+                // not visible through this class loader, try the next
+            } catch(NoSuchMethodException e){
+                // not a mock class generated by MockProcessor, try the next
+            }
+        }
+        return NO_CONSTRUCTOR;
+    }
+
+    /**
+     * Returns the class loaders to look for a generated mock of the given interface through: the interface's,
+     * the calling thread's context class loader, and this library's, without duplicates. The bootstrap class
+     * loader is replaced by the system class loader.
+     */
+    private static List classLoadersFor(Class mocked) {
+        ClassLoader[] candidates = new ClassLoader[]{
+                mocked.getClassLoader(), Thread.currentThread().getContextClassLoader(), IMock.class.getClassLoader()};
+        List classLoaders = new ArrayList(candidates.length);
+        for(int i=0; i<candidates.length; i++){
+            ClassLoader classLoader = candidates[i] == null ? ClassLoader.getSystemClassLoader() : candidates[i];
+            if(!classLoaders.contains(classLoader)){
+                classLoaders.add(classLoader);
+            }
+        }
+        return classLoaders;
+    }
+
+    private static ProxyConstructor proxyConstructor(final Class mocked, final Constructor constructor) {
+        return new ProxyConstructor() {
+            public Object newInstance(InvocationHandler handler) {
+                try{
+                    return constructor.newInstance(new Object[]{handler});
+                } catch(InvocationTargetException e){
+                    throw new IllegalStateException("Could not create generated mock for " + mocked.getName(), e.getCause());
+                } catch(ReflectiveOperationException e){
+                    throw new IllegalStateException("Could not create generated mock for " + mocked.getName(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the interface names and generated mock class names of the index resources visible through the
+     * given class loader. Read once per class loader. The class loaders are held weakly.
+     */
+    private static Map classNames(ClassLoader classLoader) {
+        indexesLock.lock();
+        try{
+            Map names = (Map) indexes.get(classLoader);
+            if(names != null){
+                return names;
+            }
+            names = new HashMap();
+            try{
+                Enumeration resources = classLoader.getResources(MockProcessor.INDEX);
+                while(resources.hasMoreElements()){
+                    readIndex((URL) resources.nextElement(), names);
+                }
+            } catch(IOException e){
+                throw new IllegalStateException("Could not read " + MockProcessor.INDEX, e);
+            }
+            indexes.put(classLoader, names);
+            return names;
+        } finally {
+            indexesLock.unlock();
+        }
+    }
+
+    private static void readIndex(URL index, Map names) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), "UTF-8"));
+        try{
+            String line = null;
+            while((line = reader.readLine()) != null){
+                int separator = line.indexOf('=');
+                if(separator > 0 && !names.containsKey(line.substring(0, separator).trim())){
+                    names.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * A fault a mock injected into an invocation, as listed by <code>Mock.getInjectedFaults()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InjectedFault {
+
+    protected int              journalIndex     = -1;
+    protected MethodInvocation methodInvocation = null;
+    protected Throwable        fault            = null;
+
+    public InjectedFault(int journalIndex, MethodInvocation methodInvocation, Throwable fault) {
+        this.journalIndex     = journalIndex;
+        this.methodInvocation = methodInvocation;
+        this.fault            = fault;
+    }
+
+    /**
+     * Returns the index of the failed invocation in the mock's journal, or -1 if the invocation was not
+     * recorded, e.g. because a sampling policy skipped it.
+     * @return The journal index of the failed invocation, or -1.
+     */
+    public int getJournalIndex() {
+        return this.journalIndex;
+    }
+
+    public MethodInvocation getMethodInvocation() {
+        return this.methodInvocation;
+    }
+
+    public Throwable getFault() {
+        return this.fault;
+    }
+
+    public String toString() {
+        return "#" + this.journalIndex + " " + this.methodInvocation + ": " + this.fault;
+    }
+}
@@ -0,0 +1,28 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInterceptor;
+import com.jenkov.testing.mock.itf.IInvocationChain;
+
+import java.lang.reflect.Method;
+
+/**
+ * A link in an interceptor chain. Each link holds one interceptor and the link after it. The links
+ * for a method are created once, the first time the method is invoked, so passing an invocation
+ * down the chain neither iterates a list nor allocates anything.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InterceptorChain implements IInvocationChain {
+
+    protected final IInterceptor     interceptor;
+    protected final IInvocationChain next;
+
+    public InterceptorChain(IInterceptor interceptor, IInvocationChain next) {
+        this.interceptor = interceptor;
+        this.next        = next;
+    }
+
+    public Object proceed(Object proxy, Method method, Object[] parameters) throws Throwable {
+        return this.interceptor.intercept(proxy, method, parameters, this.next);
+    }
+}
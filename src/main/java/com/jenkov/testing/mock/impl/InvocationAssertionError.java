@@ -0,0 +1,317 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The <code>AssertionError</code> thrown by the invocation assertions of <code>Mock</code> and
+ * <code>InvocationSequencer</code>. The error holds what was asserted as structured data: the expected
+ * invocation, the actual invocation and its position, the counts, and the recorded invocations nearest
+ * to the expected one. The message is formatted from that data the first time it is requested, not when
+ * the error is thrown.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationAssertionError extends AssertionError {
+
+    /** The expected method was not invoked. */
+    public static final int NOT_INVOKED          = 0;
+
+    /** The expected method was invoked, but should not have been. */
+    public static final int INVOKED              = 1;
+
+    /** The method invoked at the position was not the expected one. */
+    public static final int NOT_INVOKED_AT       = 2;
+
+    /** Fewer methods were invoked than the position asserted about. */
+    public static final int POSITION_NOT_REACHED = 3;
+
+    /** The method invoked last was not the expected one. */
+    public static final int NOT_INVOKED_LAST     = 4;
+
+    /** The expected method was invoked the wrong number of times. */
+    public static final int INVOCATION_COUNT     = 5;
+
+    /** The expected method was not invoked before the actual method. */
+    public static final int NOT_INVOKED_BEFORE   = 6;
+
+    /** The expected method was not invoked in order, after the given count of methods that were. */
+    public static final int NOT_INVOKED_IN_ORDER = 7;
+
+    /**
+     * The maximum number of nearest recorded invocations an error holds.
+     */
+    public static final int MAX_CANDIDATES = 3;
+
+    protected int              kind           = NOT_INVOKED;
+    protected MethodInvocation expected       = null;
+    protected MethodInvocation actual         = null;
+    protected long             position       = -1;
+    protected long             actualPosition = -1;
+    protected long             count          = -1;
+    protected long             expectedCount  = -1;
+    protected String           bound          = "";
+    protected List             candidates     = Collections.EMPTY_LIST;
+    protected int[]            candidatePositions = new int[0];
+
+    private String message = null;
+
+    protected InvocationAssertionError(int kind, MethodInvocation expected) {
+        this.kind     = kind;
+        this.expected = expected;
+    }
+
+    /**
+     * Creates an error telling that the expected method was not invoked, listing the recorded invocations
+     * nearest to it.
+     * @param expected           The method invocation that was not invoked.
+     * @param candidates         The recorded <code>MethodInvocation</code>'s nearest to the expected one.
+     * @param candidatePositions The positions in the journal of the candidates.
+     * @return The error.
+     */
+    public static InvocationAssertionError notInvoked(MethodInvocation expected, List candidates, int[] candidatePositions){
+        InvocationAssertionError error = new InvocationAssertionError(NOT_INVOKED, expected);
+        error.candidates         = candidates;
+        error.candidatePositions = candidatePositions;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that the given method was invoked.
+     * @param expected The method invocation that should not have been invoked.
+     * @return The error.
+     */
+    public static InvocationAssertionError invoked(MethodInvocation expected){
+        return new InvocationAssertionError(INVOKED, expected);
+    }
+
+    /**
+     * Creates an error telling that the method invoked at the given position was not the expected one.
+     * @param expected The method invocation expected at the position.
+     * @param position The position asserted about.
+     * @param actual   The method invocation recorded at the position.
+     * @return The error.
+     */
+    public static InvocationAssertionError notInvokedAt(MethodInvocation expected, long position, MethodInvocation actual){
+        InvocationAssertionError error = new InvocationAssertionError(NOT_INVOKED_AT, expected);
+        error.position       = position;
+        error.actual         = actual;
+        error.actualPosition = position;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that only the given number of methods were invoked, so nothing was invoked at
+     * the given position.
+     * @param expected The method invocation expected at the position.
+     * @param position The position asserted about.
+     * @param count    The number of methods invoked.
+     * @return The error.
+     */
+    public static InvocationAssertionError positionNotReached(MethodInvocation expected, long position, long count){
+        InvocationAssertionError error = new InvocationAssertionError(POSITION_NOT_REACHED, expected);
+        error.position = position;
+        error.count    = count;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that the method invoked last was not the expected one.
+     * @param expected       The method invocation expected last.
+     * @param actual         The method invocation recorded last, or null if no methods were invoked.
+     * @param actualPosition The position of the method invocation recorded last.
+     * @return The error.
+     */
+    public static InvocationAssertionError notInvokedLast(MethodInvocation expected, MethodInvocation actual, long actualPosition){
+        InvocationAssertionError error = new InvocationAssertionError(NOT_INVOKED_LAST, expected);
+        error.actual         = actual;
+        error.actualPosition = actualPosition;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that the expected method was invoked the given number of times.
+     * @param expected      The method invocation counted.
+     * @param count         The number of matching invocations.
+     * @param bound         How the expected count bounds the count, for instance "at least", or "" for exactly.
+     * @param expectedCount The expected number of matching invocations.
+     * @return The error.
+     */
+    public static InvocationAssertionError invocationCount(MethodInvocation expected, long count, String bound, long expectedCount){
+        InvocationAssertionError error = new InvocationAssertionError(INVOCATION_COUNT, expected);
+        error.count         = count;
+        error.bound         = bound;
+        error.expectedCount = expectedCount;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that the expected method was not invoked before the actual method. The positions
+     * are journal indexes or sequence numbers, -1 for a method never invoked.
+     * @param expected       The method invocation that should have occurred first.
+     * @param position       The position of the last invocation matching the expected one.
+     * @param actual         The method invocation that should have occurred later.
+     * @param actualPosition The position of the last invocation matching the actual one.
+     * @return The error.
+     */
+    public static InvocationAssertionError notInvokedBefore(MethodInvocation expected, long position, MethodInvocation actual, long actualPosition){
+        InvocationAssertionError error = new InvocationAssertionError(NOT_INVOKED_BEFORE, expected);
+        error.position       = position;
+        error.actual         = actual;
+        error.actualPosition = actualPosition;
+        return error;
+    }
+
+    /**
+     * Creates an error telling that the expected method was not invoked in order, after the given number of
+     * the expected invocations were.
+     * @param expected      The first method invocation not found in order.
+     * @param count         The number of method invocations found in order before it.
+     * @param expectedCount The total number of method invocations expected in order.
+     * @return The error.
+     */
+    public static InvocationAssertionError notInvokedInOrder(MethodInvocation expected, long count, long expectedCount){
+        InvocationAssertionError error = new InvocationAssertionError(NOT_INVOKED_IN_ORDER, expected);
+        error.count         = count;
+        error.expectedCount = expectedCount;
+        return error;
+    }
+
+    /**
+     * Returns what kind of assertion failed, for instance <code>NOT_INVOKED</code>.
+     * @return The kind of assertion that failed.
+     */
+    public int getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Returns the method invocation the assertion expected.
+     * @return The expected method invocation.
+     */
+    public MethodInvocation getExpected() {
+        return this.expected;
+    }
+
+    /**
+     * Returns the method invocation recorded instead of the expected one, or null if the assertion has none.
+     * @return The actual method invocation, or null.
+     */
+    public MethodInvocation getActual() {
+        return this.actual;
+    }
+
+    /**
+     * Returns the position the assertion was about, or -1 if the assertion was not about a position.
+     * @return The position the assertion was about, or -1.
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Returns the position of the actual method invocation, or -1 if the assertion has none.
+     * @return The position of the actual method invocation, or -1.
+     */
+    public long getActualPosition() {
+        return this.actualPosition;
+    }
+
+    /**
+     * Returns the number of invocations counted by the assertion, or -1 if the assertion did not count.
+     * @return The number of invocations counted, or -1.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the recorded invocations nearest to the expected one, at most <code>MAX_CANDIDATES</code>.
+     * Invocations of the same method come first, then invocations of methods with the same name.
+     * @return A list of <code>MethodInvocation</code> instances.
+     */
+    public List getCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * Returns the journal positions of the invocations returned by <code>getCandidates()</code>.
+     * @return The positions of the candidates.
+     */
+    public int[] getCandidatePositions() {
+        return this.candidatePositions;
+    }
+
+    public String getMessage() {
+        if(this.message == null){
+            this.message = appendTo(new StringBuilder()).toString();
+        }
+        return this.message;
+    }
+
+    /**
+     * Appends the message of this error to the given builder.
+     * @param builder The builder to append to.
+     * @return The builder.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        switch(this.kind){
+            case NOT_INVOKED :
+                InvocationFormatter.append(builder.append("Method not invoked: "), this.expected);
+                if(!this.candidates.isEmpty()){
+                    builder.append("\nNearest invocations:");
+                    for(int i=0; i<this.candidates.size(); i++){
+                        builder.append("\n    #").append(this.candidatePositions[i]).append(' ');
+                        InvocationFormatter.append(builder, (MethodInvocation) this.candidates.get(i));
+                    }
+                }
+                break;
+            case INVOKED :
+                InvocationFormatter.append(builder.append("Method was invoked: "), this.expected);
+                break;
+            case NOT_INVOKED_AT :
+                builder.append("Method invoked at index ").append(this.position).append(" was not: ");
+                InvocationFormatter.append(builder, this.expected);
+                builder.append("\nMethod invoked at index ").append(this.position).append(" was: ");
+                InvocationFormatter.append(builder, this.actual);
+                break;
+            case POSITION_NOT_REACHED :
+                builder.append("Only ").append(this.count).append(" methods invoked. Index was ").append(this.position);
+                break;
+            case NOT_INVOKED_LAST :
+                if(this.actual == null){
+                    builder.append("No methods invoked");
+                    break;
+                }
+                InvocationFormatter.append(builder.append("Last method invoked was not: "), this.expected);
+                InvocationFormatter.append(builder.append("\nLast method invoked was: "), this.actual);
+                break;
+            case INVOCATION_COUNT :
+                builder.append("Method invoked ").append(this.count).append(" times, ");
+                if(this.bound.length() > 0){
+                    builder.append(this.bound).append(' ');
+                }
+                builder.append(this.expectedCount).append(" expected: ");
+                InvocationFormatter.append(builder, this.expected);
+                break;
+            case NOT_INVOKED_BEFORE :
+                if(this.position == -1 || this.actualPosition == -1){
+                    InvocationFormatter.append(builder.append("Method not invoked: "),
+                            this.position == -1 ? this.expected : this.actual);
+                    break;
+                }
+                InvocationFormatter.append(builder.append("Method "), this.expected);
+                builder.append(" (#").append(this.position).append(") was not invoked before ");
+                InvocationFormatter.append(builder, this.actual);
+                builder.append(" (#").append(this.actualPosition).append(")");
+                break;
+            case NOT_INVOKED_IN_ORDER :
+                InvocationFormatter.append(builder.append("Method not invoked in order: "), this.expected);
+                builder.append(" (after ").append(this.count).append(" of ").append(this.expectedCount).append(" invocations)");
+                break;
+            default :
+                InvocationFormatter.append(builder.append("Assertion failed: "), this.expected);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IExpectation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This expectation never fails. It counts the invocations matching the given method invocation,
+ * including the parameter values if the method invocation has any, so the count can be verified
+ * after the code under test has run without keeping the invocations in the journal. Matching follows
+ * the rules of <code>MethodInvocation.matches()</code>.
+ *
+ * <br/><br/>
+ * The count is kept in a <code>LongAdder</code>, so threads invoking the mock concurrently do not
+ * contend on a single counter. Reading the count sums the adder, which is only exact once the
+ * invocations being counted have completed.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationCountExpectation implements IExpectation {
+
+    protected MethodInvocation methodInvocation = null;
+    protected LongAdder        invocations      = new LongAdder();
+
+    /**
+     * Creates an expectation counting the invocations matching the given method invocation.
+     * @param methodInvocation The method invocation to match invocations against.
+     */
+    public InvocationCountExpectation(MethodInvocation methodInvocation) {
+        this.methodInvocation = methodInvocation;
+    }
+
+    public void check(MethodDescriptor descriptor, Object[] parameters) {
+        if(this.methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), parameters)){
+            this.invocations.increment();
+        }
+    }
+
+    /**
+     * Returns the method invocation this expectation counts the matching invocations of.
+     * @return The method invocation counted.
+     */
+    public MethodInvocation getMethodInvocation() {
+        return this.methodInvocation;
+    }
+
+    /**
+     * Returns the number of matching invocations seen since this expectation was created or reset.
+     * @return The number of matching invocations.
+     */
+    public long getInvocations() {
+        return this.invocations.sum();
+    }
+
+    public void reset() {
+        this.invocations.reset();
+    }
+}
@@ -0,0 +1,123 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exact per-method invocation counters, indexed by method descriptor id. Counting an invocation
+ * of a method seen before is a single atomic increment. The counter array is only copied when
+ * a method is seen for the first time.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationCounters {
+
+    protected volatile AtomicLong[] counters = new AtomicLong[16];
+    private final ReentrantLock growLock = new ReentrantLock();
+
+    /**
+     * Counts an invocation of the described method.
+     * @param descriptor The descriptor of the method invoked.
+     * @return The number of invocations of the method, including this one.
+     */
+    public long increment(MethodDescriptor descriptor){
+        AtomicLong[] counters = this.counters;
+        int id = descriptor.getId();
+        if(id < counters.length){
+            AtomicLong counter = counters[id];
+            if(counter != null){
+                return counter.incrementAndGet();
+            }
+        }
+        return counterFor(id).incrementAndGet();
+    }
+
+    private AtomicLong counterFor(int id) {
+        this.growLock.lock();
+        try{
+            AtomicLong[] counters = this.counters;
+            if(id >= counters.length){
+                AtomicLong[] newCounters = new AtomicLong[Math.max(counters.length * 2, id + 1)];
+                System.arraycopy(counters, 0, newCounters, 0, counters.length);
+                counters = newCounters;
+            }
+            if(counters[id] == null){
+                counters[id] = new AtomicLong();
+            }
+            this.counters = counters;
+            return counters[id];
+        } finally {
+            this.growLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of invocations of the described method.
+     * @param descriptor The descriptor of the method.
+     * @return The number of invocations of the method.
+     */
+    public long get(MethodDescriptor descriptor){
+        AtomicLong[] counters = this.counters;
+        int id = descriptor.getId();
+        if(id >= counters.length || counters[id] == null){
+            return 0;
+        }
+        return counters[id].get();
+    }
+
+    /**
+     * Returns the total number of invocations of all methods matching the given method invocation
+     * by method name and parameter types. Parameter values are ignored, since they are not counted.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @return The number of matching invocations.
+     */
+    public long get(MethodInvocation methodInvocation){
+        AtomicLong[] counters = this.counters;
+        long total = 0;
+        for(int id=0; id<counters.length; id++){
+            if(counters[id] == null) continue;
+            MethodDescriptor descriptor = MethodDescriptor.forId(id);
+            if(methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+                total += counters[id].get();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total number of invocations of all methods.
+     * @return The total number of invocations.
+     */
+    public long getTotal(){
+        AtomicLong[] counters = this.counters;
+        long total = 0;
+        for(int id=0; id<counters.length; id++){
+            if(counters[id] != null) total += counters[id].get();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of invocations of each method, indexed by method descriptor id. Methods
+     * never invoked have a count of 0.
+     * @return The number of invocations per method descriptor id.
+     */
+    public long[] getCounts(){
+        AtomicLong[] counters = this.counters;
+        long[] counts = new long[counters.length];
+        for(int id=0; id<counters.length; id++){
+            if(counters[id] != null) counts[id] = counters[id].get();
+        }
+        return counts;
+    }
+
+    /**
+     * Resets all counters to 0.
+     */
+    public void clear(){
+        AtomicLong[] counters = this.counters;
+        for(int id=0; id<counters.length; id++){
+            if(counters[id] != null) counters[id].set(0);
+        }
+    }
+}
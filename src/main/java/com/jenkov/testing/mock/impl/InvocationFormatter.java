@@ -0,0 +1,67 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * Formats method invocations for assertion messages, journal diffs and debug output. All formatting appends
+ * to a <code>StringBuilder</code> passed in by the caller, so a message made up of many invocations is
+ * built in one builder, and nothing is formatted until a message is actually requested.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationFormatter {
+
+    /**
+     * Formats the given method invocation as <code>name(type&lt;value&gt;, ...)</code>, or as
+     * <code>name(type, ...)</code> if it has no parameter values.
+     * @param invocation The method invocation to format.
+     * @return The formatted method invocation.
+     */
+    public static String format(MethodInvocation invocation){
+        return append(new StringBuilder(), invocation).toString();
+    }
+
+    /**
+     * Appends the given method invocation to the builder, formatted as by <code>format()</code>.
+     * @param builder    The builder to append to.
+     * @param invocation The method invocation to append.
+     * @return The builder.
+     */
+    public static StringBuilder append(StringBuilder builder, MethodInvocation invocation){
+        if(invocation == null){
+            return builder.append("null");
+        }
+        return append(builder, invocation.getMethodName(), invocation.getParameterTypes(), invocation.getParameters());
+    }
+
+    /**
+     * Appends an invocation of the given method with the given parameter values to the builder, formatted as
+     * by <code>format()</code>. Without parameter values, as for a <code>MethodInvocation</code> matching any
+     * parameter values, only the parameter types are appended.
+     * @param builder        The builder to append to.
+     * @param methodName     The name of the method invoked.
+     * @param parameterTypes The parameter types of the method invoked, or null.
+     * @param parameters     The parameter values of the method invoked, or null.
+     * @return The builder.
+     */
+    public static StringBuilder append(StringBuilder builder, String methodName, Class[] parameterTypes, Object[] parameters){
+        builder.append(methodName).append('(');
+        if(parameters != null){
+            for(int i=0; i<parameters.length; i++){
+                if(i > 0){
+                    builder.append(", ");
+                }
+                if(parameterTypes != null && i < parameterTypes.length && parameterTypes[i] != null){
+                    builder.append(parameterTypes[i].getName());
+                }
+                builder.append('<').append(parameters[i]).append('>');
+            }
+        } else if(parameterTypes != null){
+            for(int i=0; i<parameterTypes.length; i++){
+                if(i > 0){
+                    builder.append(", ");
+                }
+                builder.append(parameterTypes[i] == null ? "null" : parameterTypes[i].getName());
+            }
+        }
+        return builder.append(')');
+    }
+}
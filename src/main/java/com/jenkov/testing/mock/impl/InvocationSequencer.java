@@ -0,0 +1,338 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IMock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders the invocations of several mocks globally, so the order of calls across collaborators can be
+ * verified, e.g. that a transaction is committed before a cache is written. Mocks join the sequencer via
+ * <code>Mock.setSequencer()</code>. Each invocation of a joined mock takes the next number of a single
+ * shared counter, and optionally a <code>System.nanoTime()</code> stamp, and is appended to the track
+ * of its mock.
+ *
+ * <br/><br/>
+ * Since a mock takes the sequence number and appends to its track under the same lock, every track is
+ * sorted by sequence number. The timeline of all mocks is therefore computed by a k-way merge of the
+ * tracks, in O(n log k) time for n invocations on k mocks, instead of sorting all invocations.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationSequencer {
+
+    protected final AtomicLong sequence   = new AtomicLong();
+    protected final boolean    timestamps;
+    protected volatile Track[] tracks     = new Track[0];
+    private final ReentrantLock joinLock  = new ReentrantLock();
+
+    /**
+     * Creates a sequencer which does not take timestamps.
+     */
+    public InvocationSequencer() {
+        this(false);
+    }
+
+    /**
+     * Creates a sequencer.
+     * @param timestamps True to stamp every invocation with <code>System.nanoTime()</code>. False if not.
+     */
+    public InvocationSequencer(boolean timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Creates a new track for the given mock. Called by <code>Mock.setSequencer()</code>.
+     * @param mock The mock joining this sequencer.
+     * @return The track the mock records its invocations in.
+     */
+    public Track join(IMock mock){
+        Track track = new Track(this, mock);
+        this.joinLock.lock();
+        try{
+            Track[] tracks = this.tracks;
+            Track[] newTracks = new Track[tracks.length + 1];
+            System.arraycopy(tracks, 0, newTracks, 0, tracks.length);
+            newTracks[tracks.length] = track;
+            this.tracks = newTracks;
+        } finally {
+            this.joinLock.unlock();
+        }
+        return track;
+    }
+
+    /**
+     * Removes the given track from this sequencer, so its invocations are no longer part of the timeline.
+     * Called by <code>Mock.setSequencer()</code> when the mock leaves this sequencer.
+     * @param track The track of the mock leaving this sequencer.
+     */
+    public void leave(Track track){
+        this.joinLock.lock();
+        try{
+            Track[] tracks = this.tracks;
+            for(int i=0; i<tracks.length; i++){
+                if(tracks[i] == track){
+                    Track[] newTracks = new Track[tracks.length - 1];
+                    System.arraycopy(tracks, 0, newTracks, 0, i);
+                    System.arraycopy(tracks, i + 1, newTracks, i, tracks.length - i - 1);
+                    this.tracks = newTracks;
+                    return;
+                }
+            }
+        } finally {
+            this.joinLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the invocations of all mocks that have joined this sequencer, in the order they were recorded.
+     * @return A list of <code>SequencedInvocation</code> instances, ordered by sequence number.
+     */
+    public List getTimeline(){
+        Track[] tracks = this.tracks;
+        Cursor[] cursors = new Cursor[tracks.length];
+        int total = 0;
+        for(int i=0; i<tracks.length; i++){
+            cursors[i] = tracks[i].snapshot();
+            total += cursors[i].size;
+        }
+
+        PriorityQueue heads = new PriorityQueue(Math.max(1, cursors.length), new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long sequence1 = ((Cursor) o1).head();
+                long sequence2 = ((Cursor) o2).head();
+                return sequence1 < sequence2 ? -1 : (sequence1 == sequence2 ? 0 : 1);
+            }
+        });
+        for(int i=0; i<cursors.length; i++){
+            if(cursors[i].size > 0) heads.add(cursors[i]);
+        }
+
+        List timeline = new ArrayList(total);
+        while(!heads.isEmpty()){
+            Cursor cursor = (Cursor) heads.poll();
+            timeline.add(cursor.next());
+            if(cursor.index < cursor.size){
+                heads.add(cursor);
+            }
+        }
+        return timeline;
+    }
+
+    /**
+     * Returns true if the last invocation on the first mock matching the first method invocation was recorded
+     * before the last invocation on the second mock matching the second method invocation. This follows the
+     * rules of <code>Mock.invokedBefore()</code>, across two mocks.
+     * @param firstMock       The mock the first method must have been invoked on.
+     * @param firstInvocation The method invocation that must have occurred first.
+     * @param lastMock        The mock the second method must have been invoked on.
+     * @param lastInvocation  The method invocation that must have occurred after the first.
+     * @return True if the first method was invoked before the second. False if not.
+     */
+    public boolean invokedBefore(IMock firstMock, MethodInvocation firstInvocation, IMock lastMock, MethodInvocation lastInvocation){
+        long first = trackOf(firstMock).lastSequence(firstInvocation);
+        long last  = trackOf(lastMock).lastSequence(lastInvocation);
+        return first > -1 && last > -1 && first < last;
+    }
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> if the first method was not invoked on the first mock
+     * before the second method was invoked on the second mock, as determined by <code>invokedBefore()</code>.
+     * @param firstMock       The mock the first method must have been invoked on.
+     * @param firstInvocation The method invocation that must have occurred first.
+     * @param lastMock        The mock the second method must have been invoked on.
+     * @param lastInvocation  The method invocation that must have occurred after the first.
+     */
+    public void assertInvokedBefore(IMock firstMock, MethodInvocation firstInvocation, IMock lastMock, MethodInvocation lastInvocation){
+        long first = trackOf(firstMock).lastSequence(firstInvocation);
+        long last  = trackOf(lastMock).lastSequence(lastInvocation);
+        if(first == -1 || last == -1 || first >= last){
+            throw InvocationAssertionError.notInvokedBefore(firstInvocation, first, lastInvocation, last);
+        }
+    }
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> unless the given method invocations occur in the timeline
+     * in the given order, on the given mocks. Other invocations may occur in between.
+     * @param mocks       The mocks the methods must have been invoked on, one per method invocation.
+     * @param invocations The method invocations, in the order they must have occurred.
+     */
+    public void assertInvokedInOrder(IMock[] mocks, MethodInvocation[] invocations){
+        if(mocks.length != invocations.length){
+            throw new IllegalArgumentException("Got " + mocks.length + " mocks for " + invocations.length + " invocations");
+        }
+        List timeline = getTimeline();
+        int matched = 0;
+        for(int i=0, n=timeline.size(); i<n && matched < invocations.length; i++){
+            SequencedInvocation invocation = (SequencedInvocation) timeline.get(i);
+            if(invocation.getMock() == mocks[matched] && invocations[matched].matches(invocation.getMethodInvocation())){
+                matched++;
+            }
+        }
+        if(matched < invocations.length){
+            throw InvocationAssertionError.notInvokedInOrder(invocations[matched], matched, invocations.length);
+        }
+    }
+
+    /**
+     * Removes the recorded invocations of all mocks. The sequence numbers are not reset.
+     */
+    public void clear(){
+        Track[] tracks = this.tracks;
+        for(int i=0; i<tracks.length; i++){
+            tracks[i].clear();
+        }
+    }
+
+    private Track trackOf(IMock mock) {
+        Track[] tracks = this.tracks;
+        for(int i=0; i<tracks.length; i++){
+            if(tracks[i].mock == mock) return tracks[i];
+        }
+        throw new IllegalArgumentException("Mock has not joined this sequencer");
+    }
+
+
+    /**
+     * The invocations of one mock, in the order of their sequence numbers.
+     */
+    public static class Track {
+
+        protected final InvocationSequencer sequencer;
+        protected final IMock               mock;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private long[]             sequences   = new long[16];
+        private long[]             nanoTimes   = null;
+        private MethodDescriptor[] descriptors = new MethodDescriptor[16];
+        private Object[][]         parameters  = new Object[16][];
+        private int                size        = 0;
+
+        protected Track(InvocationSequencer sequencer, IMock mock) {
+            this.sequencer = sequencer;
+            this.mock      = mock;
+            if(sequencer.timestamps){
+                this.nanoTimes = new long[16];
+            }
+        }
+
+        /**
+         * Takes the next sequence number of the sequencer for the given invocation, and appends it to this track.
+         * @param descriptor The descriptor of the method invoked.
+         * @param parameters The parameter values the method was invoked with.
+         */
+        public void record(MethodDescriptor descriptor, Object[] parameters){
+            this.lock.lock();
+            try{
+                if(this.size == this.sequences.length){
+                    grow();
+                }
+                this.sequences[this.size] = this.sequencer.sequence.getAndIncrement();
+                if(this.nanoTimes != null){
+                    this.nanoTimes[this.size] = System.nanoTime();
+                }
+                this.descriptors[this.size] = descriptor;
+                this.parameters[this.size]  = parameters;
+                this.size++;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void grow() {
+            int capacity = this.sequences.length * 2;
+            long[] sequences = new long[capacity];
+            System.arraycopy(this.sequences, 0, sequences, 0, this.size);
+            this.sequences = sequences;
+            if(this.nanoTimes != null){
+                long[] nanoTimes = new long[capacity];
+                System.arraycopy(this.nanoTimes, 0, nanoTimes, 0, this.size);
+                this.nanoTimes = nanoTimes;
+            }
+            MethodDescriptor[] descriptors = new MethodDescriptor[capacity];
+            System.arraycopy(this.descriptors, 0, descriptors, 0, this.size);
+            this.descriptors = descriptors;
+            Object[][] parameters = new Object[capacity][];
+            System.arraycopy(this.parameters, 0, parameters, 0, this.size);
+            this.parameters = parameters;
+        }
+
+        /**
+         * Returns the sequence number of the last invocation matching the given method invocation, or -1.
+         */
+        protected long lastSequence(MethodInvocation methodInvocation){
+            this.lock.lock();
+            try{
+                for(int i=this.size-1; i>=0; i--){
+                    MethodDescriptor descriptor = this.descriptors[i];
+                    if(methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), this.parameters[i])){
+                        return this.sequences[i];
+                    }
+                }
+                return -1;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        protected Cursor snapshot(){
+            this.lock.lock();
+            try{
+                return new Cursor(this, this.size);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        protected void clear(){
+            this.lock.lock();
+            try{
+                for(int i=0; i<this.size; i++){
+                    this.descriptors[i] = null;
+                    this.parameters[i]  = null;
+                }
+                this.size = 0;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A position in a snapshot of a track, used by the k-way merge of <code>getTimeline()</code>.
+     * The arrays of the track are only replaced when they grow, and entries below the snapshot size
+     * are never modified until the track is cleared, so the snapshot can be read without the lock.
+     */
+    private static class Cursor {
+        private final IMock              mock;
+        private final long[]             sequences;
+        private final long[]             nanoTimes;
+        private final MethodDescriptor[] descriptors;
+        private final Object[][]         parameters;
+        private final int                size;
+        private int                      index = 0;
+
+        private Cursor(Track track, int size) {
+            this.mock        = track.mock;
+            this.sequences   = track.sequences;
+            this.nanoTimes   = track.nanoTimes;
+            this.descriptors = track.descriptors;
+            this.parameters  = track.parameters;
+            this.size        = size;
+        }
+
+        private long head() {
+            return this.sequences[this.index];
+        }
+
+        private SequencedInvocation next() {
+            int i = this.index++;
+            return new SequencedInvocation(this.sequences[i], this.nanoTimes == null ? 0 : this.nanoTimes[i],
+                    this.mock, this.descriptors[i].toMethodInvocation(this.parameters[i]));
+        }
+    }
+}
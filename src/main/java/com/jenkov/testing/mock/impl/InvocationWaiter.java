@@ -0,0 +1,63 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.concurrent.locks.Condition;
+
+/**
+ * Represents a thread waiting in <code>Mock.awaitInvoked()</code> for a number of invocations
+ * matching a given method invocation. The mock counts the matching invocations into the waiter
+ * as they arrive, and signals the waiter's condition when the expected count is reached. A waiter
+ * created with the invocation counters of the mock reads the count from the counters instead, so
+ * invocations which were not recorded in the journal are counted too.
+ * All fields are guarded by the lock of the mock the waiter waits on.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class InvocationWaiter {
+
+    protected MethodInvocation methodInvocation = null;
+    protected int              expectedCount    = 0;
+    protected int              count            = 0;
+    protected Condition        condition        = null;
+    protected InvocationCounters counters       = null;
+
+    public InvocationWaiter(MethodInvocation methodInvocation, int expectedCount, int count, Condition condition) {
+        this.methodInvocation = methodInvocation;
+        this.expectedCount    = expectedCount;
+        this.count            = count;
+        this.condition        = condition;
+    }
+
+    /**
+     * Creates a waiter which reads the number of matching invocations from the given counters. The
+     * method invocation must not have parameter values, as the counters do not count them.
+     */
+    public InvocationWaiter(MethodInvocation methodInvocation, int expectedCount, InvocationCounters counters, Condition condition) {
+        this(methodInvocation, expectedCount, 0, condition);
+        this.counters = counters;
+        this.count    = (int) Math.min(expectedCount, counters.get(methodInvocation));
+    }
+
+    /**
+     * Counts the given invocation if it matches, and signals the waiting thread if the
+     * expected count was reached by it.
+     * @param descriptor The descriptor of the method invoked.
+     * @param parameters The parameter values the method was invoked with.
+     */
+    public void onInvocation(MethodDescriptor descriptor, Object[] parameters){
+        if(this.count >= this.expectedCount) return;
+        if(!this.methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), parameters)) return;
+
+        if(this.counters != null){
+            this.count = (int) Math.min(this.expectedCount, this.counters.get(this.methodInvocation));
+        } else {
+            this.count++;
+        }
+        if(this.count >= this.expectedCount){
+            this.condition.signal();
+        }
+    }
+
+    public boolean isSatisfied(){
+        return this.count >= this.expectedCount;
+    }
+}
@@ -0,0 +1,333 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The difference between an expected sequence of method invocations and the invocations recorded
+ * in an invocation journal, as a minimal edit script. An expected invocation and a recorded invocation
+ * are considered equal if the expected invocation <code>matches()</code> the recorded one.
+ *
+ * <br/><br/>
+ * The edit script is computed with Myers' O(ND) difference algorithm in its linear space variant,
+ * after stripping the common prefix and suffix. The time needed grows with the length of the sequences
+ * times the number of differences, so journals with millions of entries and few differences are
+ * compared quickly. The recorded invocations are matched directly in the journal. Only the recorded
+ * invocations <code>toString()</code> formats are materialized as <code>MethodInvocation</code> instances,
+ * when the diff is computed, so the diff never reads the journal again once it has been computed.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class JournalDiff {
+
+    /**
+     * The maximum number of edits <code>toString()</code> formats.
+     */
+    public static final int MAX_FORMATTED_EDITS   = 20;
+
+    /**
+     * The maximum number of invocations <code>toString()</code> formats per edit.
+     */
+    public static final int MAX_FORMATTED_ENTRIES = 5;
+
+    protected List               expected = null;
+    protected IInvocationJournal actual   = null;
+    protected int                actualSize = 0;
+    protected List               edits    = new ArrayList();
+    protected int                editDistance = 0;
+
+    private MethodInvocation[] expectedArray = null;
+    private int[]              forward       = null;
+    private int[]              backward      = null;
+
+    protected JournalDiff(List expected, IInvocationJournal actual) {
+        this.expected = expected;
+        this.actual   = actual;
+    }
+
+    /**
+     * Computes the difference between the expected method invocations and the invocations recorded
+     * in the given journal.
+     * @param expected The expected <code>MethodInvocation</code> instances, in the expected order.
+     * @param actual   The journal holding the recorded invocations.
+     * @return The difference between the two.
+     */
+    public static JournalDiff compute(List expected, IInvocationJournal actual){
+        JournalDiff diff = new JournalDiff(expected, actual);
+        diff.expectedArray = (MethodInvocation[]) expected.toArray(new MethodInvocation[expected.size()]);
+        diff.actualSize    = actual.size();
+        diff.diff(0, diff.expectedArray.length, 0, diff.actualSize);
+        diff.snapshot();
+        diff.expected      = Arrays.asList((Object[]) diff.expectedArray);
+        diff.actual        = null;
+        diff.expectedArray = null;
+        diff.forward       = null;
+        diff.backward      = null;
+        return diff;
+    }
+
+    /**
+     * Returns true if the recorded invocations match the expected invocations exactly.
+     * @return True if there are no differences. False if not.
+     */
+    public boolean isEmpty(){
+        return this.edits.isEmpty();
+    }
+
+    /**
+     * Returns the edits needed to turn the expected invocations into the recorded invocations.
+     * @return The list of <code>JournalDiff.Edit</code> instances, in sequence order.
+     */
+    public List getEdits(){
+        return Collections.unmodifiableList(this.edits);
+    }
+
+    /**
+     * Returns the total number of expected invocations missing plus recorded invocations not expected.
+     * @return The edit distance between the expected and the recorded invocations.
+     */
+    public int getEditDistance(){
+        return this.editDistance;
+    }
+
+    /**
+     * Copies the recorded invocations <code>toString()</code> formats out of the journal, so the journal
+     * may be cleared or written to after the diff has been computed.
+     */
+    private void snapshot() {
+        int edits = Math.min(this.edits.size(), MAX_FORMATTED_EDITS);
+        for(int i=0; i<edits; i++){
+            Edit edit = (Edit) this.edits.get(i);
+            if(edit.type == Edit.UNEXPECTED){
+                edit.invocations = new MethodInvocation[Math.min(edit.length, MAX_FORMATTED_ENTRIES)];
+                for(int j=0; j<edit.invocations.length; j++){
+                    edit.invocations[j] = this.actual.get(edit.actualIndex + j);
+                }
+            }
+        }
+    }
+
+    private boolean matches(int expectedIndex, int actualIndex) {
+        return this.actual.matches(actualIndex, this.expectedArray[expectedIndex]);
+    }
+
+    private void diff(int expectedStart, int expectedEnd, int actualStart, int actualEnd) {
+        while(expectedStart < expectedEnd && actualStart < actualEnd && matches(expectedStart, actualStart)){
+            expectedStart++;
+            actualStart++;
+        }
+        while(expectedStart < expectedEnd && actualStart < actualEnd && matches(expectedEnd - 1, actualEnd - 1)){
+            expectedEnd--;
+            actualEnd--;
+        }
+
+        if(expectedStart == expectedEnd){
+            addEdit(Edit.UNEXPECTED, expectedStart, actualStart, actualEnd - actualStart);
+            return;
+        }
+        if(actualStart == actualEnd){
+            addEdit(Edit.MISSING, expectedStart, actualStart, expectedEnd - expectedStart);
+            return;
+        }
+
+        int[] snake = middleSnake(expectedStart, expectedEnd, actualStart, actualEnd);
+        boolean leftIsWhole  = snake[0] == expectedEnd   && snake[1] == actualEnd;
+        boolean rightIsWhole = snake[2] == expectedStart && snake[3] == actualStart;
+        if(leftIsWhole || rightIsWhole){
+            addEdit(Edit.MISSING,    expectedStart, actualStart, expectedEnd - expectedStart);
+            addEdit(Edit.UNEXPECTED, expectedEnd,   actualStart, actualEnd - actualStart);
+            return;
+        }
+        diff(expectedStart, snake[0], actualStart, snake[1]);
+        diff(snake[2], expectedEnd, snake[3], actualEnd);
+    }
+
+    /**
+     * Finds the middle snake of the shortest edit script for the given ranges, by running the greedy
+     * algorithm forwards from the start and backwards from the end until the two paths overlap.
+     * @return The start (expected index, actual index) and end (expected index, actual index) of the
+     *         middle snake, as absolute indexes.
+     */
+    private int[] middleSnake(int expectedStart, int expectedEnd, int actualStart, int actualEnd) {
+        int n       = expectedEnd - expectedStart;
+        int m       = actualEnd   - actualStart;
+        int delta   = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max     = (n + m + 1) / 2;
+        int offset  = max + 1;
+
+        if(this.forward == null || this.forward.length < 2 * max + 3){
+            this.forward  = new int[2 * max + 3];
+            this.backward = new int[2 * max + 3];
+        }
+        int[] vf = this.forward;
+        int[] vb = this.backward;
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+
+        for(int d=0; d<=max; d++){
+            for(int k=-d; k<=d; k+=2){
+                int x = (k == -d || (k != d && vf[offset + k - 1] < vf[offset + k + 1]))
+                        ? vf[offset + k + 1] : vf[offset + k - 1] + 1;
+                int y  = x - k;
+                int x0 = x;
+                int y0 = y;
+                while(x < n && y < m && matches(expectedStart + x, actualStart + y)){
+                    x++;
+                    y++;
+                }
+                vf[offset + k] = x;
+
+                int reverseK = delta - k;
+                if(odd && reverseK >= -(d - 1) && reverseK <= d - 1 && x + vb[offset + reverseK] >= n){
+                    return new int[]{expectedStart + x0, actualStart + y0, expectedStart + x, actualStart + y};
+                }
+            }
+            for(int k=-d; k<=d; k+=2){
+                int x = (k == -d || (k != d && vb[offset + k - 1] < vb[offset + k + 1]))
+                        ? vb[offset + k + 1] : vb[offset + k - 1] + 1;
+                int y  = x - k;
+                int x0 = x;
+                int y0 = y;
+                while(x < n && y < m && matches(expectedEnd - x - 1, actualEnd - y - 1)){
+                    x++;
+                    y++;
+                }
+                vb[offset + k] = x;
+
+                int forwardK = delta - k;
+                if(!odd && forwardK >= -d && forwardK <= d && x + vf[offset + forwardK] >= n){
+                    return new int[]{expectedEnd - x, actualEnd - y, expectedEnd - x0, actualEnd - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake found");
+    }
+
+    private void addEdit(int type, int expectedIndex, int actualIndex, int length) {
+        if(length == 0) return;
+        this.editDistance += length;
+
+        if(!this.edits.isEmpty()){
+            Edit last = (Edit) this.edits.get(this.edits.size() - 1);
+            if(last.type == type
+                    && last.expectedIndex + (type == Edit.MISSING    ? last.length : 0) == expectedIndex
+                    && last.actualIndex   + (type == Edit.UNEXPECTED ? last.length : 0) == actualIndex){
+                last.length += length;
+                return;
+            }
+        }
+        this.edits.add(new Edit(type, expectedIndex, actualIndex, length));
+    }
+
+    /**
+     * Formats the edit script. At most <code>MAX_FORMATTED_EDITS</code> edits are formatted, with at most
+     * <code>MAX_FORMATTED_ENTRIES</code> invocations each.
+     */
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if(isEmpty()){
+            return builder.append("Invocations match the expected invocations").toString();
+        }
+        builder.append("Invocations differ from the expected invocations in ").append(this.editDistance)
+               .append(" places (").append(this.expected.size()).append(" expected, ")
+               .append(this.actualSize).append(" invoked):");
+
+        int edits = Math.min(this.edits.size(), MAX_FORMATTED_EDITS);
+        for(int i=0; i<edits; i++){
+            Edit edit = (Edit) this.edits.get(i);
+            builder.append('\n');
+            edit.appendTo(builder, this.expected);
+        }
+        if(this.edits.size() > edits){
+            builder.append("\n... ").append(this.edits.size() - edits).append(" more differences");
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * A single edit in the edit script: a run of consecutive expected invocations that were not invoked,
+     * or a run of consecutive recorded invocations that were not expected.
+     */
+    public static class Edit {
+
+        /** Expected invocations that are missing from the recorded invocations. */
+        public static final int MISSING    = 0;
+
+        /** Recorded invocations that were not expected. */
+        public static final int UNEXPECTED = 1;
+
+        protected int type          = 0;
+        protected int expectedIndex = 0;
+        protected int actualIndex   = 0;
+        protected int length        = 0;
+
+        protected MethodInvocation[] invocations = null;
+
+        public Edit(int type, int expectedIndex, int actualIndex, int length) {
+            this.type          = type;
+            this.expectedIndex = expectedIndex;
+            this.actualIndex   = actualIndex;
+            this.length        = length;
+        }
+
+        /**
+         * Returns the type of the edit, either <code>MISSING</code> or <code>UNEXPECTED</code>.
+         * @return The type of the edit.
+         */
+        public int getType() {
+            return this.type;
+        }
+
+        /**
+         * Returns the index in the expected invocations where the edit applies. For <code>MISSING</code>
+         * edits this is the index of the first missing invocation.
+         * @return The index in the expected invocations.
+         */
+        public int getExpectedIndex() {
+            return this.expectedIndex;
+        }
+
+        /**
+         * Returns the index in the recorded invocations where the edit applies. For <code>UNEXPECTED</code>
+         * edits this is the index of the first unexpected invocation.
+         * @return The index in the recorded invocations.
+         */
+        public int getActualIndex() {
+            return this.actualIndex;
+        }
+
+        /**
+         * Returns the number of invocations missing or unexpected.
+         * @return The number of invocations in this edit.
+         */
+        public int getLength() {
+            return this.length;
+        }
+
+        protected void appendTo(StringBuilder builder, List expected) {
+            int entries = Math.min(this.length, MAX_FORMATTED_ENTRIES);
+            if(this.type == MISSING){
+                builder.append("  missing at expected index ").append(this.expectedIndex)
+                       .append(" (invoked index ").append(this.actualIndex).append("):");
+                for(int i=0; i<entries; i++){
+                    InvocationFormatter.append(builder.append("\n    - "), (MethodInvocation) expected.get(this.expectedIndex + i));
+                }
+            } else {
+                builder.append("  unexpected at invoked index ").append(this.actualIndex)
+                       .append(" (expected index ").append(this.expectedIndex).append("):");
+                for(int i=0; i<entries; i++){
+                    InvocationFormatter.append(builder.append("\n    + "), this.invocations[i]);
+                }
+            }
+            if(this.length > entries){
+                builder.append("\n    ... ").append(this.length - entries).append(" more");
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * The <code>AssertionError</code> thrown when recorded invocations differ from the expected
+ * invocations. The message is formatted from the <code>JournalDiff</code> the first time it is
+ * requested, not when the error is thrown.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class JournalDiffError extends AssertionError {
+
+    protected JournalDiff diff    = null;
+    private   String      message = null;
+
+    public JournalDiffError(JournalDiff diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * Returns the difference between the expected and the recorded invocations.
+     * @return The difference between the expected and the recorded invocations.
+     */
+    public JournalDiff getDiff() {
+        return this.diff;
+    }
+
+    public String getMessage() {
+        if(this.message == null){
+            this.message = this.diff.toString();
+        }
+        return this.message;
+    }
+}
@@ -0,0 +1,35 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.AbstractList;
+
+/**
+ * A read-only <code>java.util.List</code> view of the invocation journal of a mock. The
+ * <code>MethodInvocation</code> instances in the list are materialized from the journal when they are accessed,
+ * and are not kept. <code>clear()</code> is supported and clears the journal.
+ *
+ * <br/><br/>
+ * The journal is read under the lock of the mock, so a read from another thread than the one a mock is
+ * confined to switches the mock to its locking path first, and never sees an invocation being appended.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class JournalList extends AbstractList {
+
+    protected Mock mock = null;
+
+    public JournalList(Mock mock) {
+        this.mock = mock;
+    }
+
+    public Object get(int index) {
+        return this.mock.journalGet(index);
+    }
+
+    public int size() {
+        return this.mock.journalSize();
+    }
+
+    public void clear() {
+        this.mock.journalClear();
+    }
+}
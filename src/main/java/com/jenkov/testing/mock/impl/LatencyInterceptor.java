@@ -0,0 +1,38 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInterceptor;
+import com.jenkov.testing.mock.itf.IInvocationChain;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An interceptor which delays each invocation by a fixed amount of time before passing it on,
+ * to simulate a slow collaborator.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class LatencyInterceptor implements IInterceptor {
+
+    protected long latencyNanos = 0;
+
+    /**
+     * Creates an interceptor delaying each invocation by the given time.
+     * @param latency The delay.
+     * @param unit    The time unit of the delay.
+     */
+    public LatencyInterceptor(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable {
+        long deadline = System.nanoTime() + this.latencyNanos;
+        long remaining = this.latencyNanos;
+        while(remaining > 0){
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return next.proceed(proxy, method, parameters);
+    }
+}
@@ -0,0 +1,149 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class holds the information about a method that is shared by all invocations
+ * of that method: the method name, the parameter types and the return type. Each
+ * <code>java.lang.reflect.Method</code> gets exactly one descriptor, with a small integer id,
+ * so an invocation journal only needs to store the id plus the parameter values of
+ * each invocation, instead of a method name reference and a cloned parameter type array.
+ *
+ * <br/><br/>
+ * Descriptors are registered globally and never removed. The ids are therefore stable
+ * for the lifetime of the class loader that loaded this class, and can be stored
+ * outside the Java heap and resolved again later via <code>forId()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MethodDescriptor {
+
+    private static final ConcurrentMap descriptors   = new ConcurrentHashMap();
+    private static volatile MethodDescriptor[] byId  = new MethodDescriptor[64];
+    private static int nextId = 0;
+    private static final ReentrantLock registerLock = new ReentrantLock();
+
+    protected final int     id;
+    protected final Method  method;
+    protected final String  name;
+    protected final Class[] parameterTypes;
+    protected final Class   returnType;
+
+    private MethodDescriptor(int id, Method method) {
+        this.id             = id;
+        this.method         = method;
+        this.name           = method.getName();
+        this.parameterTypes = method.getParameterTypes();
+        this.returnType     = method.getReturnType();
+    }
+
+    /**
+     * Returns the descriptor for the given method, creating and registering it
+     * the first time the method is seen.
+     * @param method The method to return the descriptor for.
+     * @return The descriptor for the given method.
+     */
+    public static MethodDescriptor forMethod(Method method){
+        MethodDescriptor descriptor = (MethodDescriptor) descriptors.get(method);
+        if(descriptor != null){
+            return descriptor;
+        }
+        return register(method);
+    }
+
+    /**
+     * Returns the descriptor with the given id, or null if no descriptor has that id.
+     * @param id The id of the descriptor to return.
+     * @return The descriptor with the given id, or null.
+     */
+    public static MethodDescriptor forId(int id){
+        MethodDescriptor[] table = byId;
+        if(id < 0 || id >= table.length){
+            return null;
+        }
+        return table[id];
+    }
+
+    private static MethodDescriptor register(Method method) {
+        registerLock.lock();
+        try{
+            MethodDescriptor descriptor = (MethodDescriptor) descriptors.get(method);
+            if(descriptor != null){
+                return descriptor;
+            }
+            descriptor = new MethodDescriptor(nextId++, method);
+
+            MethodDescriptor[] table = byId;
+            if(descriptor.id >= table.length){
+                MethodDescriptor[] newTable = new MethodDescriptor[table.length * 2];
+                System.arraycopy(table, 0, newTable, 0, table.length);
+                table = newTable;
+            }
+            table[descriptor.id] = descriptor;
+            byId = table;
+
+            descriptors.put(method, descriptor);
+            return descriptor;
+        } finally {
+            registerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the id of this descriptor.
+     * @return The id of this descriptor.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the method this descriptor describes.
+     * @return The method this descriptor describes.
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the name of the method this descriptor describes.
+     * @return The name of the method.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the parameter types of the method this descriptor describes. The array is
+     * shared by all invocations of the method, and must not be modified.
+     * @return The parameter types of the method.
+     */
+    public Class[] getParameterTypes() {
+        return this.parameterTypes;
+    }
+
+    /**
+     * Returns the return type of the method this descriptor describes.
+     * @return The return type of the method.
+     */
+    public Class getReturnType() {
+        return this.returnType;
+    }
+
+    /**
+     * Creates a <code>MethodInvocation</code> representing an invocation of the method this
+     * descriptor describes, with the given parameters.
+     * @param parameters The parameter values of the invocation.
+     * @return A <code>MethodInvocation</code> for the invocation.
+     */
+    public MethodInvocation toMethodInvocation(Object[] parameters){
+        return new MethodInvocation(this.name, this.parameterTypes, parameters);
+    }
+
+    public String toString() {
+        return this.method.toString();
+    }
+}
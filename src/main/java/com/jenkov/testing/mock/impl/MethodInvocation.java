@@ -1,6 +1,7 @@
 package com.jenkov.testing.mock.impl;
 
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -21,6 +22,8 @@ public class MethodInvocation {
     protected Object[] parameters       = null;
     protected Class[]  parameterTypes   = null;
 
+    private Fingerprint[] fingerprints = null;
+
     /**
      * Creates an instance representing a method call to a methodName that doesn't take any parameters.
      * @param methodName The name of the method that was invoked.
@@ -175,25 +178,7 @@ public class MethodInvocation {
 
 
     public String toString(){
-        StringBuffer buffer = new StringBuffer();
-        buffer.append(this.methodName);
-        buffer.append("(");
-        if(this.parameters != null){
-            for(int i=0; i < this.parameters.length; i++){
-                if(this.parameterTypes[i] != null){
-                    buffer.append(this.parameterTypes[i].getName());
-                    buffer.append("<");
-                    buffer.append(this.parameters[i]);
-                    buffer.append(">");
-                    if(i< this.parameters.length - 1){
-                        buffer.append(", ");
-                    }
-                }
-            }
-        }
-        buffer.append(")");
-
-        return buffer.toString();
+        return InvocationFormatter.format(this);
     }
 
     /**
@@ -208,14 +193,28 @@ public class MethodInvocation {
     public boolean matches(MethodInvocation other){
         if(other == null)                      return false;
 
-        if( !other.getMethodName().equals(this.methodName)) return false;
+        return matches(other.getMethodName(), other.getParameterTypes(), other.getParameters());
+    }
+
+    /**
+     * Returns true if this instance matches an invocation with the given method name, parameter types
+     * and parameter values. The matching rules are the same as for <code>matches(MethodInvocation)</code>.
+     * This method lets an invocation journal match its records without materializing a
+     * <code>MethodInvocation</code> for each of them.
+     *
+     * @param otherMethodName     The method name of the invocation to match against.
+     * @param otherParameterTypes The parameter types of the invocation to match against.
+     * @param otherParameters     The parameter values of the invocation to match against.
+     * @return True if the invocation matches this one. False if not.
+     */
+    public boolean matches(String otherMethodName, Class[] otherParameterTypes, Object[] otherParameters){
+        if( !otherMethodName.equals(this.methodName)) return false;
 
-        Class[]  otherParameterTypes = other.getParameterTypes();
         if(!areEqual(otherParameterTypes)) return false;
 
-        if( this.getParameters() != null && this.getParameters().length != 0){
-            if(other.getParameters() != null && other.getParameters().length !=0){
-                if(!areEqual(other.getParameters())) return false;
+        if( this.parameters != null && this.parameters.length != 0){
+            if(otherParameters != null && otherParameters.length !=0){
+                if(!areEqual(otherParameters)) return false;
             }
         }
 
@@ -266,9 +265,35 @@ public class MethodInvocation {
         if(this.parameters != null && otherParameters == null){ return parameters.length == 0; }
         if(this.parameters.length != otherParameters.length) return false;
         for(int i=0; i < parameters.length; i++){
+            if(otherParameters[i] instanceof Fingerprint
+                    && (parameters[i] instanceof byte[] || parameters[i] instanceof ByteBuffer)){
+                if(!otherParameters[i].equals(fingerprint(i))) return false;
+                continue;
+            }
             if(! ClassUtil.areEqual(parameters[i], otherParameters[i])) return false;
         }
         return true;
     }
 
+    /**
+     * Returns the fingerprint of the <code>byte[]</code> or <code>ByteBuffer</code> parameter value at the given
+     * index. The fingerprint is computed the first time a recorded fingerprint is matched against it, and reused
+     * for all other recorded invocations matched, so a payload is hashed once, not once per recorded invocation.
+     */
+    private Fingerprint fingerprint(int index) {
+        Fingerprint[] fingerprints = this.fingerprints;
+        if(fingerprints == null){
+            fingerprints = new Fingerprint[this.parameters.length];
+            this.fingerprints = fingerprints;
+        }
+        Fingerprint fingerprint = fingerprints[index];
+        if(fingerprint == null){
+            Object parameter = this.parameters[index];
+            fingerprint = parameter instanceof ByteBuffer
+                    ? Fingerprint.of((ByteBuffer) parameter) : Fingerprint.of((byte[]) parameter);
+            fingerprints[index] = fingerprint;
+        }
+        return fingerprint;
+    }
+
 }
@@ -0,0 +1,50 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * A table of one value per method, indexed by the id of the method's <code>MethodDescriptor</code>, which
+ * a mock reads on every invocation without locking. The table grows as methods with higher ids are stored.
+ *
+ * <br/><br/>
+ * Values are stored under the lock of the mock, by copying the array, storing the value in the copy, and
+ * publishing the copy through a volatile field. An array that has been published is never modified, so a
+ * reader sees either no value for a method or the value stored for it, never a value in the making.
+ * Callers compute the value in full before they store it.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MethodTable {
+
+    protected volatile Object[] values = new Object[16];
+
+    /**
+     * Returns the value stored for the method with the given id, or null if none is stored.
+     * @param id The id of the method's <code>MethodDescriptor</code>.
+     * @return The value stored for the method, or null.
+     */
+    public Object get(int id){
+        Object[] values = this.values;
+        return id < values.length ? values[id] : null;
+    }
+
+    /**
+     * Stores the value for the method with the given id. Must be called under the lock of the mock owning
+     * the table, so stores are not lost to each other.
+     * @param id    The id of the method's <code>MethodDescriptor</code>.
+     * @param value The value to store.
+     */
+    public void put(int id, Object value){
+        Object[] values = this.values;
+        Object[] newValues = new Object[id < values.length ? values.length : Math.max(values.length * 2, id + 1)];
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        newValues[id] = value;
+        this.values = newValues;
+    }
+
+    /**
+     * Returns the number of method ids the table currently has room for. Ids from this number on have no value.
+     * @return The number of method ids the table has room for.
+     */
+    public int length(){
+        return this.values.length;
+    }
+}
@@ -1,12 +1,31 @@
 package com.jenkov.testing.mock.impl;
 
+import com.jenkov.testing.mock.itf.IBooleanAnswer;
+import com.jenkov.testing.mock.itf.IDoubleAnswer;
+import com.jenkov.testing.mock.itf.IExpectation;
+import com.jenkov.testing.mock.itf.IGeneratedMock;
+import com.jenkov.testing.mock.itf.IIntAnswer;
+import com.jenkov.testing.mock.itf.IInterceptor;
+import com.jenkov.testing.mock.itf.IInvocationChain;
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+import com.jenkov.testing.mock.itf.ILongAnswer;
 import com.jenkov.testing.mock.itf.IMock;
+import com.jenkov.testing.mock.itf.IPrimitiveInvocationHandler;
+import com.jenkov.testing.mock.itf.ISamplingPolicy;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongBinaryOperator;
 
 
 /**
@@ -38,13 +57,73 @@ import java.util.List;
  *         Copyright 2004 Jenkov Development
  * @see com.jenkov.testing.mock.impl.MethodInvocation
  */
-public class Mock implements InvocationHandler, IMock {
+public class Mock implements IPrimitiveInvocationHandler, IMock {
 
     protected Object invocationTarget = null;
-    protected List   invocations      = new ArrayList();
+    protected IInvocationJournal journal = new CompactInvocationJournal();
+    protected InvocationCounters counters = new InvocationCounters();
+    protected final LongAdder       droppedInvocations   = new LongAdder();
+    protected final LongAdder       forwardedInvocations = new LongAdder();
+    protected final LongAdder       forwardingNanos      = new LongAdder();
+    protected final LongAccumulator maxForwardingNanos   = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+    protected ISamplingPolicy samplingPolicy = null;
+    protected volatile ParameterCapture parameterCapture = null;
+    protected volatile IExpectation[] expectations = new IExpectation[0];
+    protected volatile AssertionError expectationViolation = null;
+
+    protected final ReentrantLock lock    = new ReentrantLock();
+    protected List            waiters     = new ArrayList();
+    protected volatile int    waiterCount = 0;
+
+    protected volatile Thread  ownerThread = null;
+    protected volatile boolean ownerBusy   = false;
+
+    protected List                        interceptors          = new ArrayList();
+    protected List                        interceptorSelectors  = new ArrayList();
+    protected volatile MethodTable        chains                = null;
+
+    protected List                        faultSelectors        = new ArrayList();
+    protected List                        faultProfiles         = new ArrayList();
+    protected volatile MethodTable        faults                = null;
+    protected List                        injectedFaults        = new ArrayList();
+
+    protected List                        responseTables        = new ArrayList();
+    protected volatile MethodTable        responses             = null;
+
+    protected List                        answerSelectors       = new ArrayList();
+    protected List                        answerList            = new ArrayList();
+    protected volatile MethodTable        answers               = null;
+    protected final IInvocationChain      lastLink              = new IInvocationChain() {
+        public Object proceed(Object proxy, Method method, Object[] parameters) throws Throwable {
+            return completeInvocation(proxy, MethodDescriptor.forMethod(method), parameters);
+        }
+    };
+    protected volatile DeterministicScheduler scheduler = null;
+    protected volatile InvocationSequencer.Track track  = null;
+    protected volatile AsyncForwarder asyncForwarder    = null;
     protected boolean debug           = false;
+    protected boolean deepStubs       = false;
+    protected final MethodTable children = new MethodTable();
 
     protected List   returnValues     = new ArrayList();
+    private final ReentrantLock returnValuesLock = new ReentrantLock();
+
+    private static final FaultProfile NO_FAULT    = new FaultProfile(Error.class, 0);
+    private static final ResponseTable NO_RESPONSES = new ResponseTable("", new Class[0]);
+    private static final Object NO_ANSWER = new Object();
+
+    private static final Boolean   DEFAULT_BOOLEAN = Boolean.TRUE;
+    private static final Byte      DEFAULT_BYTE    = Byte.valueOf((byte) 0);
+    private static final Short     DEFAULT_SHORT   = Short.valueOf((short) 0);
+    private static final Character DEFAULT_CHAR    = Character.valueOf((char) 0);
+    private static final Integer   DEFAULT_INT     = Integer.valueOf(0);
+    private static final Long      DEFAULT_LONG    = Long.valueOf(0);
+    private static final Float     DEFAULT_FLOAT   = Float.valueOf(0);
+    private static final Double    DEFAULT_DOUBLE  = Double.valueOf(0);
 
     /**
      * Creates an instance with no target object and not in debug mode. The
@@ -113,74 +192,746 @@ public class Mock implements InvocationHandler, IMock {
      * @throws Throwable If anything goes wrong during the method forwarding.
      */
     public Object invoke(Object proxy, Method method, Object[] parameters) throws Throwable {
-        MethodInvocation methodInvocation =
-                new MethodInvocation(method.getName(), method.getParameterTypes(), parameters);
+        MethodDescriptor descriptor = MethodDescriptor.forMethod(method);
 
         if(this.debug) {
-            printInvocation(methodInvocation, "invoked: ");
+            printInvocation(descriptor.toMethodInvocation(parameters), "invoked: ");
         }
 
         /* If method called is from IMock interface, method call is executed on this Mock */
         if(IMock.class.equals(method.getDeclaringClass())){
-            return methodInvocation.invoke(this);
+            return method.invoke(this, parameters);
         }
 
-        invocations.add(methodInvocation);
+        beforeInvocation(descriptor, parameters);
+
+        MethodTable chains = this.chains;
+        if(chains != null){
+            return chainFor(chains, descriptor).proceed(proxy, method, parameters);
+        }
+        return completeInvocation(proxy, descriptor, parameters);
+    }
+
+    public int invokeInt(Object proxy, Method method, Object[] parameters) throws Throwable {
+        MethodDescriptor descriptor = MethodDescriptor.forMethod(method);
+        Object answer = directAnswerFor(descriptor);
+        if(answer != null){
+            beforeInvocation(descriptor, parameters);
+            return ((IIntAnswer) answer).answer(parameters);
+        }
+        return ((Integer) invoke(proxy, method, parameters)).intValue();
+    }
+
+    public long invokeLong(Object proxy, Method method, Object[] parameters) throws Throwable {
+        MethodDescriptor descriptor = MethodDescriptor.forMethod(method);
+        Object answer = directAnswerFor(descriptor);
+        if(answer != null){
+            beforeInvocation(descriptor, parameters);
+            return ((ILongAnswer) answer).answer(parameters);
+        }
+        return ((Long) invoke(proxy, method, parameters)).longValue();
+    }
+
+    public double invokeDouble(Object proxy, Method method, Object[] parameters) throws Throwable {
+        MethodDescriptor descriptor = MethodDescriptor.forMethod(method);
+        Object answer = directAnswerFor(descriptor);
+        if(answer != null){
+            beforeInvocation(descriptor, parameters);
+            return ((IDoubleAnswer) answer).answer(parameters);
+        }
+        return ((Double) invoke(proxy, method, parameters)).doubleValue();
+    }
+
+    public boolean invokeBoolean(Object proxy, Method method, Object[] parameters) throws Throwable {
+        MethodDescriptor descriptor = MethodDescriptor.forMethod(method);
+        Object answer = directAnswerFor(descriptor);
+        if(answer != null){
+            beforeInvocation(descriptor, parameters);
+            return ((IBooleanAnswer) answer).answer(parameters);
+        }
+        return ((Boolean) invoke(proxy, method, parameters)).booleanValue();
+    }
+
+    /**
+     * Returns the answer for the given method, if the invocation can go straight from the bookkeeping in
+     * <code>beforeInvocation()</code> to the answer: no debug output, no interceptors and no responses.
+     * Returns null if not.
+     */
+    private Object directAnswerFor(MethodDescriptor descriptor) {
+        MethodTable answers = this.answers;
+        if(answers == null || this.debug || this.chains != null || this.responses != null){
+            return null;
+        }
+        Object answer = answerFor(answers, descriptor);
+        return answer == NO_ANSWER ? null : answer;
+    }
+
+    /**
+     * Does the bookkeeping for an invocation of a mocked method, before the invocation is passed on:
+     * yields to the scheduler, counts and records the invocation, checks the expectations and injects faults.
+     */
+    private void beforeInvocation(MethodDescriptor descriptor, Object[] parameters) throws Throwable {
+        DeterministicScheduler scheduler = this.scheduler;
+        if(scheduler != null){
+            scheduler.yieldPoint();
+        }
+
+        long methodCount = this.counters.increment(descriptor);
+        boolean record = this.samplingPolicy == null || this.samplingPolicy.sample(descriptor, methodCount);
+        int index = -1;
+        InvocationSequencer.Track track = this.track;
+        if(record || this.waiterCount > 0 || track != null){
+            ParameterCapture capture = this.parameterCapture;
+            Object[] recorded = capture == null ? parameters : capture.capture(parameters);
+            if(record || this.waiterCount > 0){
+                index = recordInvocation(descriptor, recorded, record);
+            }
+            if(track != null){
+                track.record(descriptor, recorded);
+            }
+        }
+        if(index < 0){
+            this.droppedInvocations.increment();
+        }
+        checkExpectations(descriptor, parameters);
+
+        MethodTable faults = this.faults;
+        if(faults != null){
+            injectFault(faults, descriptor, parameters, index);
+        }
+    }
+
+    private Object completeInvocation(Object proxy, MethodDescriptor descriptor, Object[] parameters) throws Throwable {
+        MethodTable responses = this.responses;
+        if(responses != null){
+            ResponseTable table = (ResponseTable) responses.get(descriptor.getId());
+            if(table == null){
+                table = resolveResponses(descriptor);
+            }
+            if(table != NO_RESPONSES){
+                Object response = table.get(parameters);
+                if(response != ResponseTable.NO_RESPONSE){
+                    return response;
+                }
+            }
+        }
+
+        MethodTable answers = this.answers;
+        if(answers != null){
+            Object answer = answerFor(answers, descriptor);
+            if(answer instanceof IIntAnswer)     return Integer.valueOf(((IIntAnswer)     answer).answer(parameters));
+            if(answer instanceof ILongAnswer)    return Long   .valueOf(((ILongAnswer)    answer).answer(parameters));
+            if(answer instanceof IDoubleAnswer)  return Double .valueOf(((IDoubleAnswer)  answer).answer(parameters));
+            if(answer instanceof IBooleanAnswer) return Boolean.valueOf(((IBooleanAnswer) answer).answer(parameters));
+        }
 
         /* If method not from IMock interface, let invocation target have it */
         if(this.invocationTarget != null){
-            Object returnValue = forwardMethodInvocation(proxy, method, parameters, methodInvocation);
+            AsyncForwarder asyncForwarder = this.asyncForwarder;
+            if(asyncForwarder != null && asyncForwarder.isQueued(descriptor.getMethod())){
+                return asyncForwarder.submit(this, proxy, descriptor, parameters);
+            }
+            long start = System.nanoTime();
+            Object returnValue;
+            try{
+                returnValue = forwardMethodInvocation(proxy, descriptor, parameters);
+            } finally {
+                recordForwarding(System.nanoTime() - start);
+            }
             if(returnValue == invocationTarget){
                 return proxy; //return 
             }
             return returnValue;
         } else {
-            return returnMockValue(method);
+            return returnMockValue(descriptor);
+        }
+    }
+
+    private IInvocationChain chainFor(MethodTable chains, MethodDescriptor descriptor) {
+        IInvocationChain chain = (IInvocationChain) chains.get(descriptor.getId());
+        return chain != null ? chain : linkChain(descriptor);
+    }
+
+    private IInvocationChain linkChain(MethodDescriptor descriptor) {
+        this.lock.lock();
+        try{
+            MethodTable chains = this.chains;
+            if(chains == null){
+                /* The interceptors were removed after the invocation read the chains */
+                return this.lastLink;
+            }
+            int id = descriptor.getId();
+            IInvocationChain chain = (IInvocationChain) chains.get(id);
+            if(chain == null){
+                chain = this.lastLink;
+                for(int i=this.interceptors.size()-1; i>=0; i--){
+                    MethodInvocation selector = (MethodInvocation) this.interceptorSelectors.get(i);
+                    if(selector == null || selector.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+                        chain = new InterceptorChain((IInterceptor) this.interceptors.get(i), chain);
+                    }
+                }
+                chains.put(id, chain);
+            }
+            return chain;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an interceptor around all method invocations on the mock, except invocations of
+     * <code>IMock</code> methods. Interceptors run after the invocation has been recorded, and wrap the
+     * forwarding to the target object, or the mock return value if the mock has no target. The first
+     * interceptor added is the outermost. The chain for each method is linked once, the first time the
+     * method is invoked after an interceptor was added.
+     * @param interceptor The interceptor to add.
+     */
+    public void addInterceptor(IInterceptor interceptor){
+        addInterceptor(null, interceptor);
+    }
+
+    /**
+     * Adds an interceptor around the invocations of the methods matching the given method invocation
+     * by method name and parameter types.
+     * @param selector    The method invocation selecting the methods to intercept, or null for all methods.
+     * @param interceptor The interceptor to add.
+     * @see #addInterceptor(IInterceptor)
+     */
+    public void addInterceptor(MethodInvocation selector, IInterceptor interceptor){
+        this.lock.lock();
+        try{
+            this.interceptorSelectors.add(selector);
+            this.interceptors.add(interceptor);
+            this.chains = new MethodTable();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all interceptors from this mock.
+     */
+    public void removeInterceptors(){
+        this.lock.lock();
+        try{
+            this.interceptorSelectors.clear();
+            this.interceptors.clear();
+            this.chains = null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a fault profile to the methods matching the given method invocation by method name and parameter
+     * types. Invocations of these methods are recorded, and then fail with a fault as decided by the profile,
+     * instead of being forwarded to the target object or returning a mock return value. Each injected fault
+     * is listed by <code>getInjectedFaults()</code>. If several profiles match a method, the first one added
+     * applies.
+     * @param selector The method invocation selecting the methods to inject faults into, or null for all methods.
+     * @param profile  The fault profile.
+     */
+    public void addFault(MethodInvocation selector, FaultProfile profile){
+        this.lock.lock();
+        try{
+            this.faultSelectors.add(selector);
+            this.faultProfiles.add(profile);
+            this.faults = new MethodTable();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all fault profiles from this mock. The list of injected faults is kept until <code>clear()</code>.
+     */
+    public void removeFaults(){
+        this.lock.lock();
+        try{
+            this.faultSelectors.clear();
+            this.faultProfiles.clear();
+            this.faults = null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the faults injected into invocations of this mock since it was created or cleared.
+     * @return A list of <code>InjectedFault</code> instances, in the order the faults were injected.
+     */
+    public List getInjectedFaults(){
+        this.lock.lock();
+        try{
+            return new ArrayList(this.injectedFaults);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void injectFault(MethodTable faults, MethodDescriptor descriptor, Object[] parameters, int index) throws Throwable {
+        FaultProfile profile = (FaultProfile) faults.get(descriptor.getId());
+        if(profile == null){
+            profile = resolveFault(descriptor);
+        }
+        if(profile == NO_FAULT){
+            return;
+        }
+        Throwable fault = profile.nextFault(descriptor);
+        if(fault == null){
+            return;
+        }
+        this.lock.lock();
+        try{
+            this.injectedFaults.add(new InjectedFault(index, descriptor.toMethodInvocation(parameters), fault));
+        } finally {
+            this.lock.unlock();
+        }
+        throw fault;
+    }
+
+    private FaultProfile resolveFault(MethodDescriptor descriptor) {
+        this.lock.lock();
+        try{
+            MethodTable faults = this.faults;
+            if(faults == null){
+                return NO_FAULT;
+            }
+            int id = descriptor.getId();
+            FaultProfile profile = (FaultProfile) faults.get(id);
+            if(profile == null){
+                profile = NO_FAULT;
+                for(int i=0; i<this.faultProfiles.size(); i++){
+                    MethodInvocation selector = (MethodInvocation) this.faultSelectors.get(i);
+                    if(selector == null || selector.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+                        profile = (FaultProfile) this.faultProfiles.get(i);
+                        break;
+                    }
+                }
+                faults.put(id, profile);
+            }
+            return profile;
+        } finally {
+            this.lock.unlock();
         }
+    }
 
+    private int recordInvocation(MethodDescriptor descriptor, Object[] parameters, boolean record) {
+        /* A mock confined to its owner thread records without locking, until another thread uses it */
+        Thread owner = this.ownerThread;
+        if(owner != null){
+            if(owner == Thread.currentThread()){
+                this.ownerBusy = true;
+                try{
+                    if(this.ownerThread != null && this.waiterCount == 0){
+                        /* The waiter that made an unsampled invocation come here may have left meanwhile */
+                        return record ? this.journal.record(descriptor, parameters) : -1;
+                    }
+                } finally {
+                    this.ownerBusy = false;
+                }
+            } else {
+                escape();
+            }
+        }
+
+        this.lock.lock();
+        try{
+            int index = record ? this.journal.record(descriptor, parameters) : -1;
+            for(int i=0; i<this.waiters.size(); i++){
+                ((InvocationWaiter) this.waiters.get(i)).onInvocation(descriptor, parameters);
+            }
+            return index;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
-    private Object returnMockValue(Method method) {
-        if(this.returnValues.size() > 0 && (!method.getReturnType().equals(void.class)) && !(method.getReturnType() == null)){
-            return this.returnValues.remove(0);
+    /**
+     * Switches a mock confined to its owner thread permanently to the locking path. The owner thread sets
+     * <code>ownerBusy</code> before it reads <code>ownerThread</code>, and this method clears
+     * <code>ownerThread</code> before it reads <code>ownerBusy</code>, so when the loop below ends, the owner
+     * thread is not inside an unlocked journal access, and will take the lock from its next access on.
+     */
+    private void escape() {
+        if(this.ownerThread == null) return;
+        this.ownerThread = null;
+        while(this.ownerBusy){
+            Thread.yield();
         }
+    }
 
-        if(boolean.class.equals(method.getReturnType())){ return new Boolean  (true); }
-        if(byte.class   .equals(method.getReturnType())){ return new Byte     ((byte)  0); }
-        if(short.class  .equals(method.getReturnType())){ return new Short    ((short) 0); }
-        if(char.class   .equals(method.getReturnType())){ return new Character((char)  0); }
-        if(int.class    .equals(method.getReturnType())){ return new Integer  (0); }
-        if(long.class   .equals(method.getReturnType())){ return new Long     (0); }
-        if(float.class  .equals(method.getReturnType())){ return new Float    (0); }
-        if(double.class .equals(method.getReturnType())){ return new Double   (0); }
+    private void lockJournal() {
+        Thread owner = this.ownerThread;
+        if(owner != null && owner != Thread.currentThread()){
+            escape();
+        }
+        this.lock.lock();
+    }
+
+    /**
+     * Confines this mock to the given thread. While the mock is only used by that thread, invocations are
+     * recorded without locking. The first time another thread invokes or queries the mock, the mock switches
+     * permanently to recording under a lock. Pass null to switch to the locking path explicitly.
+     * @param thread The thread to confine this mock to, or null.
+     */
+    public void confineTo(Thread thread){
+        if(thread == null){
+            escape();
+            return;
+        }
+        this.ownerThread = thread;
+    }
 
+    /**
+     * Sets how parameters of the given type, or a subclass of it, are recorded in the journal: by reference
+     * (the default), as a copy, or as a <code>Fingerprint</code>. See <code>ParameterCapture</code>.
+     * The invocation target always receives the original parameters.
+     * @param type    The parameter type.
+     * @param capture <code>ParameterCapture.REFERENCE</code>, <code>COPY</code> or <code>FINGERPRINT</code>.
+     */
+    public void setParameterCapture(Class type, int capture){
+        this.lock.lock();
+        try{
+            if(this.parameterCapture == null){
+                this.parameterCapture = new ParameterCapture();
+            }
+            this.parameterCapture.setCapture(type, capture);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Turns deep stub mode on or off. In deep stub mode a method returning an interface type, for which no
+     * return value has been added, returns a child mock implementing that interface instead of null. The
+     * child mock is created on the first such invocation, is in deep stub mode too, and is returned by all
+     * later invocations of the method, regardless of their parameters. Use <code>getChildMock()</code> to
+     * check the invocations on a child mock. Deep stub mode only applies to mocks without an invocation target.
+     * @param deepStubs True to turn deep stub mode on. False to turn it off.
+     */
+    public void setDeepStubs(boolean deepStubs){
+        this.deepStubs = deepStubs;
+    }
+
+    public IMock getChildMock(MethodInvocation methodInvocation){
+        for(int i=0, n=this.children.length(); i<n; i++){
+            Object child = this.children.get(i);
+            if(child == null) continue;
+            MethodDescriptor descriptor = MethodDescriptor.forId(i);
+            if(methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+                return MockFactory.getMock(child);
+            }
+        }
         return null;
+    }
 
+    /**
+     * Makes every invocation of this mock a yield point of the given scheduler, so tasks run by the
+     * scheduler are interleaved at their invocations of this mock. Pass null to stop yielding.
+     * @param scheduler The scheduler to yield to, or null.
+     */
+    public void setScheduler(DeterministicScheduler scheduler){
+        this.scheduler = scheduler;
     }
 
-    private Object forwardMethodInvocation(Object proxy, Method method, Object[] parameters, MethodInvocation methodInvocation) throws Throwable {
-        if(this.invocationTarget instanceof InvocationHandler){
-            return ((InvocationHandler) this.invocationTarget).invoke(proxy, method, parameters);
+    /**
+     * Forwards the invocations of methods returning <code>void</code> or a future to the invocation target
+     * asynchronously, through the given forwarder. Other invocations are still forwarded synchronously.
+     * Pass null to forward all invocations synchronously again. Has no effect on mocks without an
+     * invocation target.
+     * @param asyncForwarder The forwarder to queue invocations through, or null.
+     */
+    public void setAsyncForwarder(AsyncForwarder asyncForwarder){
+        this.asyncForwarder = asyncForwarder;
+    }
+
+    /**
+     * Closes the async forwarder of this mock, if any, and removes it, so later invocations are forwarded
+     * synchronously again. The forwarder runs the invocations still queued before it is closed. If the
+     * calling thread is interrupted while waiting for that, the forwarder is still removed, and the
+     * thread's interrupt status is set again.
+     */
+    public void closeAsyncForwarder(){
+        AsyncForwarder asyncForwarder = this.asyncForwarder;
+        if(asyncForwarder == null){
+            return;
+        }
+        this.asyncForwarder = null;
+        try{
+            asyncForwarder.close();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
         }
-        return methodInvocation.invoke(this.invocationTarget);
+        asyncForwarder.clear();
     }
 
+    /**
+     * Joins the given sequencer, so the invocations of this mock are ordered globally with the invocations
+     * of the other mocks that have joined it. Pass null to stop sequencing invocations. A mock joins one
+     * sequencer at a time: it leaves the sequencer it joined before, and its invocations recorded there are
+     * removed from that sequencer's timeline. Setting the sequencer the mock has already joined has no effect.
+     * @param sequencer The sequencer to join, or null.
+     */
+    public void setSequencer(InvocationSequencer sequencer){
+        this.lock.lock();
+        try{
+            InvocationSequencer.Track track = this.track;
+            if(track != null){
+                if(track.sequencer == sequencer){
+                    return;
+                }
+                track.sequencer.leave(track);
+            }
+            this.track = sequencer == null ? null : sequencer.join(this);
+        } finally {
+            this.lock.unlock();
+        }
+    }
 
-    protected void printInvocation(MethodInvocation invocation, String text) {
-        System.out.print(text + invocation.getMethodName());
-        System.out.print("(");
-        if(invocation.getParameterTypes() != null && invocation.getParameters() != null){
-            for(int i=0; i<invocation.getParameterTypes().length; i++){
-                System.out.print(invocation.getParameterTypes()[i].getName());
-                System.out.print(" <");
-                System.out.print(invocation.getParameters()[i]);
-                System.out.print(">");
-                if(i < invocation.getParameterTypes().length-1){
-                    System.out.println(", ");
+    /**
+     * Returns true if this mock is confined to a thread, and has not yet been used by another thread.
+     * @return True if this mock is confined to a thread. False if not.
+     */
+    public boolean isConfined(){
+        return this.ownerThread != null;
+    }
+
+    private void checkExpectations(MethodDescriptor descriptor, Object[] parameters) {
+        IExpectation[] expectations = this.expectations;
+        for(int i=0; i<expectations.length; i++){
+            try{
+                expectations[i].check(descriptor, parameters);
+            } catch(AssertionError violation){
+                if(this.expectationViolation == null){
+                    this.expectationViolation = violation;
+                }
+                throw violation;
+            }
+        }
+    }
+
+    private Object returnMockValue(MethodDescriptor descriptor) {
+        Method method = descriptor.getMethod();
+        if((!method.getReturnType().equals(void.class)) && !(method.getReturnType() == null)){
+            this.returnValuesLock.lock();
+            try{
+                if(this.returnValues.size() > 0){
+                    return this.returnValues.remove(0);
+                }
+            } finally {
+                this.returnValuesLock.unlock();
+            }
+        }
+        if(this.deepStubs && method.getReturnType().isInterface()){
+            return childFor(descriptor);
+        }
+
+        if(boolean.class.equals(method.getReturnType())){ return DEFAULT_BOOLEAN; }
+        if(byte.class   .equals(method.getReturnType())){ return DEFAULT_BYTE;    }
+        if(short.class  .equals(method.getReturnType())){ return DEFAULT_SHORT;   }
+        if(char.class   .equals(method.getReturnType())){ return DEFAULT_CHAR;    }
+        if(int.class    .equals(method.getReturnType())){ return DEFAULT_INT;     }
+        if(long.class   .equals(method.getReturnType())){ return DEFAULT_LONG;    }
+        if(float.class  .equals(method.getReturnType())){ return DEFAULT_FLOAT;   }
+        if(double.class .equals(method.getReturnType())){ return DEFAULT_DOUBLE;  }
+
+        return null;
+
+    }
+
+    public void addResponse(MethodInvocation methodInvocation, Object returnValue){
+        this.lock.lock();
+        try{
+            ResponseTable table = null;
+            for(int i=0; i<this.responseTables.size() && table == null; i++){
+                ResponseTable candidate = (ResponseTable) this.responseTables.get(i);
+                if(candidate.isFor(methodInvocation.getMethodName(), methodInvocation.getParameterTypes())){
+                    table = candidate;
                 }
             }
+            if(table == null){
+                table = new ResponseTable(methodInvocation.getMethodName(), methodInvocation.getParameterTypes());
+                this.responseTables.add(table);
+                this.responses = new MethodTable();
+            }
+            table.put(methodInvocation.getParameters(), returnValue);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the answer computing the return value of the <code>int</code> methods matching the given method
+     * invocation by method name and parameter types. Methods with another return type are not affected.
+     * An answer is used when no response added with <code>addResponse()</code> matches, and takes precedence
+     * over return values and the invocation target. On Java 17 and later, a method with an answer returns the
+     * answer's value without boxing it, as long as the mock has no interceptors, responses or debug output.
+     * @param selector The method invocation selecting the methods.
+     * @param answer   The answer.
+     */
+    public void setAnswer(MethodInvocation selector, IIntAnswer answer){
+        addAnswer(selector, answer);
+    }
+
+    /**
+     * Sets the answer computing the return value of the <code>long</code> methods matching the given method
+     * invocation. See <code>setAnswer(MethodInvocation, IIntAnswer)</code>.
+     * @param selector The method invocation selecting the methods.
+     * @param answer   The answer.
+     */
+    public void setAnswer(MethodInvocation selector, ILongAnswer answer){
+        addAnswer(selector, answer);
+    }
+
+    /**
+     * Sets the answer computing the return value of the <code>double</code> methods matching the given method
+     * invocation. See <code>setAnswer(MethodInvocation, IIntAnswer)</code>.
+     * @param selector The method invocation selecting the methods.
+     * @param answer   The answer.
+     */
+    public void setAnswer(MethodInvocation selector, IDoubleAnswer answer){
+        addAnswer(selector, answer);
+    }
+
+    /**
+     * Sets the answer computing the return value of the <code>boolean</code> methods matching the given method
+     * invocation. See <code>setAnswer(MethodInvocation, IIntAnswer)</code>.
+     * @param selector The method invocation selecting the methods.
+     * @param answer   The answer.
+     */
+    public void setAnswer(MethodInvocation selector, IBooleanAnswer answer){
+        addAnswer(selector, answer);
+    }
+
+    private void addAnswer(MethodInvocation selector, Object answer) {
+        this.lock.lock();
+        try{
+            /* The answer added last wins, so it goes first */
+            this.answerSelectors.add(0, selector);
+            this.answerList.add(0, answer);
+            this.answers = new MethodTable();
+        } finally {
+            this.lock.unlock();
         }
-        System.out.println(")");
+    }
+
+    private Object answerFor(MethodTable answers, MethodDescriptor descriptor) {
+        Object answer = answers.get(descriptor.getId());
+        return answer != null ? answer : resolveAnswer(descriptor);
+    }
+
+    private Object resolveAnswer(MethodDescriptor descriptor) {
+        this.lock.lock();
+        try{
+            MethodTable answers = this.answers;
+            if(answers == null){
+                return NO_ANSWER;
+            }
+            int id = descriptor.getId();
+            Object answer = answers.get(id);
+            if(answer == null){
+                answer = NO_ANSWER;
+                Class returnType = descriptor.getReturnType();
+                for(int i=0; i<this.answerList.size(); i++){
+                    Object candidate = this.answerList.get(i);
+                    MethodInvocation selector = (MethodInvocation) this.answerSelectors.get(i);
+                    boolean fits = returnType == int.class     && candidate instanceof IIntAnswer
+                                || returnType == long.class    && candidate instanceof ILongAnswer
+                                || returnType == double.class  && candidate instanceof IDoubleAnswer
+                                || returnType == boolean.class && candidate instanceof IBooleanAnswer;
+                    if(fits && descriptor.getMethod().getDeclaringClass() != IMock.class
+                            && selector.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+                        answer = candidate;
+                        break;
+                    }
+                }
+                answers.put(id, answer);
+            }
+            return answer;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private ResponseTable resolveResponses(MethodDescriptor descriptor) {
+        this.lock.lock();
+        try{
+            MethodTable responses = this.responses;
+            if(responses == null){
+                return NO_RESPONSES;
+            }
+            int id = descriptor.getId();
+            ResponseTable table = (ResponseTable) responses.get(id);
+            if(table == null){
+                table = NO_RESPONSES;
+                for(int i=0; i<this.responseTables.size(); i++){
+                    ResponseTable candidate = (ResponseTable) this.responseTables.get(i);
+                    if(candidate.isFor(descriptor.getName(), descriptor.getParameterTypes())){
+                        table = candidate;
+                        break;
+                    }
+                }
+                responses.put(id, table);
+            }
+            return table;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Object childFor(MethodDescriptor descriptor) {
+        int id = descriptor.getId();
+        Object child = this.children.get(id);
+        if(child != null){
+            return child;
+        }
+
+        this.lock.lock();
+        try{
+            child = this.children.get(id);
+            if(child != null){
+                return child;
+            }
+            child = MockFactory.createProxy(descriptor.getReturnType());
+            ((Mock) MockFactory.getMock(child)).setDeepStubs(true);
+            this.children.put(id, child);
+            return child;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a forwarded invocation which took the given time to the forwarding statistics.
+     */
+    protected void recordForwarding(long nanos) {
+        this.forwardedInvocations.increment();
+        this.forwardingNanos.add(nanos);
+        this.maxForwardingNanos.accumulate(nanos);
+    }
+
+    protected Object forwardMethodInvocation(Object proxy, MethodDescriptor descriptor, Object[] parameters) throws Throwable {
+        if(this.invocationTarget instanceof InvocationHandler){
+            return ((InvocationHandler) this.invocationTarget).invoke(proxy, descriptor.getMethod(), parameters);
+        }
+        if(proxy instanceof IGeneratedMock){
+            IGeneratedMock generatedMock = (IGeneratedMock) proxy;
+            int index = generatedMock.__methodIndex(descriptor.getMethod());
+            if(index > -1){
+                return generatedMock.__dispatch(index, this.invocationTarget, parameters);
+            }
+        }
+        return descriptor.toMethodInvocation(parameters).invoke(this.invocationTarget);
+    }
+
+
+    /**
+     * Formats the given invocation on the invoking thread, while the parameter values are as they were
+     * when the method was invoked, and writes the line to the debug output. Only called when debug is on.
+     */
+    protected void printInvocation(MethodInvocation invocation, String text) {
+        DebugOutput.println(InvocationFormatter.append(new StringBuilder(text), invocation).toString());
     }
 
 
@@ -189,7 +940,21 @@ public class Mock implements InvocationHandler, IMock {
 //            throw new IllegalStateException("You cannot add return values to a mock that has an invocation target." +
 //                    "The mock cannot both return a mock value and forward the method call");
 //        }
-        this.returnValues.add(returnValue);
+        this.returnValuesLock.lock();
+        try{
+            this.returnValues.add(returnValue);
+        } finally {
+            this.returnValuesLock.unlock();
+        }
+    }
+
+    private int returnValueCount() {
+        this.returnValuesLock.lock();
+        try{
+            return this.returnValues.size();
+        } finally {
+            this.returnValuesLock.unlock();
+        }
     }
 
     public void addReturnValues(Object[] returnValues) {
@@ -200,12 +965,263 @@ public class Mock implements InvocationHandler, IMock {
 
     /**
      * Returns the list of <code>MethodInvocation</code> instances logged in this instance.
+     * The list is a read-only view of the invocation journal. The <code>MethodInvocation</code>
+     * instances are created when they are read from the list.
      * @return The list of <code>MethodInvocation</code> instances logged in this instance. 
      */
     public List getInvocations(){
-        return this.invocations;
+        return new JournalList(this);
+    }
+
+    /**
+     * Returns the invocation at the given index of the journal, read under the journal lock.
+     * Used by <code>JournalList</code>.
+     */
+    MethodInvocation journalGet(int index) {
+        lockJournal();
+        try{
+            return this.journal.get(index);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
+    /**
+     * Returns the size of the journal, read under the journal lock. Used by <code>JournalList</code>.
+     */
+    int journalSize() {
+        lockJournal();
+        try{
+            return this.journal.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the journal under the journal lock. Used by <code>JournalList</code>.
+     */
+    void journalClear() {
+        lockJournal();
+        try{
+            this.journal.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the invocation journal this instance logs method invocations in.
+     * @return The invocation journal of this instance.
+     */
+    public IInvocationJournal getJournal(){
+        return this.journal;
+    }
+
+    /**
+     * Sets the invocation journal this instance logs method invocations in, for instance an
+     * <code>OffHeapInvocationJournal</code> for long running tests. Invocations logged in the
+     * previous journal are not copied to the new journal.
+     * @param journal The invocation journal to log method invocations in.
+     */
+    public void setJournal(IInvocationJournal journal){
+        if(journal == null){
+            throw new IllegalArgumentException("Parameter journal cannot be null");
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this mock. The statistics are read from counters maintained
+     * as the mock is invoked, without locking the journal, so they can be read while the mock is in use.
+     * @return A snapshot of the statistics of this mock.
+     */
+    public MockStats getStats(){
+        long[] counts = this.counters.getCounts();
+        int methodCount = 0;
+        for(int id=0; id<counts.length; id++){
+            if(counts[id] > 0) methodCount++;
+        }
+        String[] methods           = new String[methodCount];
+        long[]   methodInvocations = new long[methodCount];
+        for(int id=0, i=0; id<counts.length; id++){
+            if(counts[id] > 0){
+                methods[i]           = MethodDescriptor.forId(id).toString();
+                methodInvocations[i] = counts[id];
+                i++;
+            }
+        }
+
+        IInvocationJournal journal = this.journal;
+        long journalBytes = journal instanceof OffHeapInvocationJournal
+                ? ((OffHeapInvocationJournal) journal).getAllocatedBytes() : -1;
+        return new MockStats(methods, methodInvocations, journal.size(), journalBytes,
+                this.droppedInvocations.sum(), returnValueCount(),
+                this.forwardedInvocations.sum(), this.forwardingNanos.sum(), this.maxForwardingNanos.get());
+    }
+
+    /**
+     * Registers a live view of the statistics of this mock with the platform MBean server, under the name
+     * <code>com.jenkov.testing.mock:type=Mock,name=&lt;name&gt;</code>. Every attribute read takes a new
+     * snapshot via <code>getStats()</code>. Unregister the MBean via the returned name when the mock is
+     * no longer used.
+     * @param name The name to register the statistics under.
+     * @return The object name the statistics were registered under.
+     * @throws JMException If the MBean could not be registered, e.g. because the name is already in use.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.jenkov.testing.mock:type=Mock,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(MockStats.live(this), MockStatsMBean.class), objectName);
+        return objectName;
+    }
+
+    /**
+     * Sets the policy deciding which invocations are recorded in the invocation journal, for instance
+     * an <code>EveryNthSamplingPolicy</code>. Invocations are counted exactly regardless of the policy.
+     * Set the policy to null to record all invocations, which is the default. To keep a random sample
+     * of a fixed size, use a <code>ReservoirInvocationJournal</code> instead.
+     *
+     * <br/><br/>
+     * The policy is asked before the mock takes its lock, so only the sampled invocations take the lock.
+     * A <code>ReservoirInvocationJournal</code> sees every invocation, so with it every invocation takes the lock.
+     * @param samplingPolicy The sampling policy to use, or null.
+     */
+    public void setSamplingPolicy(ISamplingPolicy samplingPolicy){
+        this.samplingPolicy = samplingPolicy;
+    }
+
+    /**
+     * Registers an expectation which is checked against every method invocation as it arrives.
+     * If an invocation violates the expectation an <code>AssertionError</code> is thrown immediately
+     * from the mock, on the thread making the invocation. The violation is also kept, so it can be
+     * rethrown on the test thread by <code>assertExpectations()</code>. Expectations should be
+     * registered before the code under test starts invoking the mock.
+     * @param expectation The expectation to register.
+     */
+    public void addExpectation(IExpectation expectation){
+        this.lock.lock();
+        try{
+            IExpectation[] expectations = this.expectations;
+            IExpectation[] newExpectations = new IExpectation[expectations.length + 1];
+            System.arraycopy(expectations, 0, newExpectations, 0, expectations.length);
+            newExpectations[expectations.length] = expectation;
+            this.expectations = newExpectations;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Throws the first <code>AssertionError</code> raised by a registered expectation, if any.
+     * Does nothing if no expectation has been violated.
+     */
+    public void assertExpectations(){
+        AssertionError violation = this.expectationViolation;
+        if(violation != null){
+            throw violation;
+        }
+    }
+
+    /**
+     * Returns the number of times methods matching the given method invocation were invoked.
+     * The count is exact even if not all invocations are recorded in the journal.
+     * Methods are matched by method name and parameter types. Parameter values are ignored.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @return The number of matching invocations.
+     */
+    public long getInvocationCount(MethodInvocation methodInvocation){
+        return this.counters.get(methodInvocation);
+    }
+
+
+    /**
+     * Registers a counter for the invocations matching the given method invocation, including its parameter
+     * values if it has any. The counter is an <code>InvocationCountExpectation</code>, and is reset by <code>clear()</code>.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     */
+    public void countInvocations(MethodInvocation methodInvocation){
+        addExpectation(new InvocationCountExpectation(methodInvocation));
+    }
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> unless methods matching the given method invocation
+     * were invoked exactly the given number of times.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param times            The expected number of matching invocations.
+     */
+    public void assertInvokedTimes(MethodInvocation methodInvocation, long times){
+        long count = countOf(methodInvocation);
+        if(count != times){
+            throw InvocationAssertionError.invocationCount(methodInvocation, count, "", times);
+        }
+    }
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> if methods matching the given method invocation
+     * were invoked fewer than the given number of times.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param minInvocations   The minimum number of matching invocations.
+     */
+    public void assertInvokedAtLeast(MethodInvocation methodInvocation, long minInvocations){
+        long count = countOf(methodInvocation);
+        if(count < minInvocations){
+            throw InvocationAssertionError.invocationCount(methodInvocation, count, "at least", minInvocations);
+        }
+    }
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> if methods matching the given method invocation
+     * were invoked more than the given number of times.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param maxInvocations   The maximum number of matching invocations.
+     */
+    public void assertInvokedAtMost(MethodInvocation methodInvocation, long maxInvocations){
+        long count = countOf(methodInvocation);
+        if(count > maxInvocations){
+            throw InvocationAssertionError.invocationCount(methodInvocation, count, "at most", maxInvocations);
+        }
+    }
+
+    /**
+     * Returns the number of invocations matching the given method invocation: from a registered counter
+     * for an equal method invocation, from the per-method counters if no parameter values are given,
+     * or else by matching the journal. Throws an <code>IllegalStateException</code> in the last case if the
+     * journal does not keep every invocation, instead of returning a count which is too low.
+     */
+    private long countOf(MethodInvocation methodInvocation) {
+        IExpectation[] expectations = this.expectations;
+        for(int i=0; i<expectations.length; i++){
+            if(expectations[i] instanceof InvocationCountExpectation){
+                InvocationCountExpectation counter = (InvocationCountExpectation) expectations[i];
+                if(counter.getMethodInvocation().equals(methodInvocation)){
+                    return counter.getInvocations();
+                }
+            }
+        }
+        Object[] parameters = methodInvocation.getParameters();
+        if(parameters == null || parameters.length == 0){
+            return this.counters.get(methodInvocation);
+        }
+        if(!journalKeepsAll()){
+            throw new IllegalStateException("The invocation journal does not keep every invocation, so invocations of "
+                    + methodInvocation + " cannot be counted. Register countInvocations() first.");
+        }
+
+        lockJournal();
+        try{
+            long count = 0;
+            int size = this.journal.size();
+            for(int i=0; i<size; i++){
+                if(this.journal.matches(i, methodInvocation)){
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
 
     /**
      * Throws an <code>junit.framework.AssertionFailedError</code> if the given method has not been invoked. Does nothing if
@@ -214,7 +1230,7 @@ public class Mock implements InvocationHandler, IMock {
      */
     public void assertInvoked(MethodInvocation methodInvocation) {
         if(!invoked(methodInvocation)){
-            throw new java.lang.AssertionError("Method not invoked: " + methodInvocation.toString());
+            throw notInvoked(methodInvocation);
         }
     }
 
@@ -225,7 +1241,7 @@ public class Mock implements InvocationHandler, IMock {
      */
     public void assertNotInvoked(MethodInvocation methodInvocation) {
         if(invoked(methodInvocation)){
-            throw new java.lang.AssertionError("Method was invoked: " + methodInvocation.toString());
+            throw InvocationAssertionError.invoked(methodInvocation);
         }
     }
 
@@ -241,12 +1257,16 @@ public class Mock implements InvocationHandler, IMock {
      * @param index            The index of the method invocation to assert about.
      */
     public void assertInvoked(MethodInvocation methodInvocation, int index) {
-        if(index >= this.invocations.size()){
-            throw new java.lang.AssertionError("Only " + this.invocations.size() + " methods invoked. " +
-                    "Index was " + index);
-        }
-        if(! invoked(methodInvocation, index)){
-            throw new java.lang.AssertionError("Method invoked at index " + index + " was not: " + methodInvocation.toString());
+        lockJournal();
+        try{
+            if(index >= this.journal.size()){
+                throw InvocationAssertionError.positionNotReached(methodInvocation, index, this.journal.size());
+            }
+            if(! invoked(methodInvocation, index)){
+                throw InvocationAssertionError.notInvokedAt(methodInvocation, index, this.journal.get(index));
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -258,12 +1278,17 @@ public class Mock implements InvocationHandler, IMock {
      * @param methodInvocation The method invocation to assert occured last.
      */
     public void assertInvokedLast(MethodInvocation methodInvocation) {
-        if(this.invocations.size() == 0){
-            throw new java.lang.AssertionError("No methods invoked");
-        }
-        if(!invokedLast(methodInvocation)){
-            throw new java.lang.AssertionError("Last method invoked was not: " + methodInvocation.toString()
-                    + "\nLast method invoked was: " + this.invocations.get(this.invocations.size()-1).toString());
+        lockJournal();
+        try{
+            int last = this.journal.size() - 1;
+            if(last == -1){
+                throw InvocationAssertionError.notInvokedLast(methodInvocation, null, -1);
+            }
+            if(!invokedLast(methodInvocation)){
+                throw InvocationAssertionError.notInvokedLast(methodInvocation, this.journal.get(last), last);
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -275,8 +1300,11 @@ public class Mock implements InvocationHandler, IMock {
      * @param lastInvocation  The method invocation that must have occurred after the first.
      */
     public void assertInvokedBefore(MethodInvocation firstInvocation, MethodInvocation lastInvocation){
-        if(!invokedBefore(firstInvocation, lastInvocation)){
-            throw new java.lang.AssertionError("The first method passed was not invoked before the second");
+        long positions = lastIndexes(firstInvocation, lastInvocation);
+        int indexFirst = (int) (positions >> 32);
+        int indexLast  = (int) positions;
+        if(!(indexFirst < indexLast && (indexFirst > -1 && indexLast > -1))){
+            throw InvocationAssertionError.notInvokedBefore(firstInvocation, indexFirst, lastInvocation, indexLast);
         }
 
     }
@@ -289,13 +1317,18 @@ public class Mock implements InvocationHandler, IMock {
      * @return True if the given method was invoked. False if not.
      */
     public boolean invoked(MethodInvocation methodInvocation){
-        Iterator iterator = this.invocations.iterator();
-        while(iterator.hasNext()){
-            if(methodInvocation.matches((MethodInvocation) iterator.next())){
-                return true;
+        lockJournal();
+        try{
+            int size = this.journal.size();
+            for(int i=0; i<size; i++){
+                if(this.journal.matches(i, methodInvocation)){
+                    return true;
+                }
             }
+            return false;
+        } finally {
+            this.lock.unlock();
         }
-        return false;
     }
 
 
@@ -313,10 +1346,15 @@ public class Mock implements InvocationHandler, IMock {
      *                          method invocation. False if not.
      */
     public boolean invoked(MethodInvocation methodInvocation, int index){
-        if(index >= this.invocations.size()){
-            return false;
+        lockJournal();
+        try{
+            if(index >= this.journal.size()){
+                return false;
+            }
+            return this.journal.matches(index, methodInvocation);
+        } finally {
+            this.lock.unlock();
         }
-        return methodInvocation.matches((MethodInvocation) this.invocations.get(index));
     }
 
 
@@ -327,10 +1365,15 @@ public class Mock implements InvocationHandler, IMock {
      * @return                   True if the method invocation was the last. False if not.
      */
     public boolean invokedLast(MethodInvocation methodInvocation){
-        if(this.invocations.size() == 0) {
-            return false;
+        lockJournal();
+        try{
+            if(this.journal.size() == 0) {
+                return false;
+            }
+            return this.journal.matches(this.journal.size()-1, methodInvocation);
+        } finally {
+            this.lock.unlock();
         }
-        return methodInvocation.matches((MethodInvocation) this.invocations.get(this.invocations.size()-1));
     }
 
 
@@ -342,34 +1385,239 @@ public class Mock implements InvocationHandler, IMock {
      * @return True if the first method was invoked before the second. False if not.
      */
     public boolean invokedBefore(MethodInvocation firstInvocation, MethodInvocation lastInvocation){
+        long positions = lastIndexes(firstInvocation, lastInvocation);
+        int indexFirst = (int) (positions >> 32);
+        int indexLast  = (int) positions;
+        if(indexFirst < indexLast && (indexFirst > -1 && indexLast > -1)){
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the journal indexes of the last invocations matching the two given method invocations, packed
+     * into one long with the first index in the high 32 bits, so the probe allocates nothing. An index is -1
+     * if no invocation matches.
+     */
+    private long lastIndexes(MethodInvocation firstInvocation, MethodInvocation lastInvocation){
         int indexFirst  = -1;
         int indexLast   = -1;
-        int index       =  0;
 
-        Iterator iterator = this.invocations.iterator();
-        while(iterator.hasNext()){
-            MethodInvocation currentInvocation = (MethodInvocation) iterator.next();
-            if(firstInvocation.matches(currentInvocation)){
-                indexFirst = index;
+        lockJournal();
+        try{
+            int size = this.journal.size();
+            for(int index=0; index<size; index++){
+                if(this.journal.matches(index, firstInvocation)){
+                    indexFirst = index;
+                }
+                if(this.journal.matches(index, lastInvocation)){
+                    indexLast = index;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return ((long) indexFirst << 32) | (indexLast & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Creates the error thrown when the given method invocation was not invoked, holding the recorded
+     * invocations nearest to it: first invocations of the same method with other parameter values, then
+     * invocations of methods with the same name. The journal is only scanned for them once an assertion
+     * has failed.
+     */
+    private InvocationAssertionError notInvoked(MethodInvocation methodInvocation){
+        List candidates = new ArrayList();
+        int[] positions = new int[InvocationAssertionError.MAX_CANDIDATES];
+        MethodInvocation sameMethod = new MethodInvocation(methodInvocation.getMethodName(), methodInvocation.getParameterTypes());
+
+        lockJournal();
+        try{
+            int size = this.journal.size();
+            for(int i=0; i<size && candidates.size() < positions.length; i++){
+                if(this.journal.matches(i, sameMethod)){
+                    positions[candidates.size()] = i;
+                    candidates.add(this.journal.get(i));
+                }
             }
-            if(lastInvocation.matches(currentInvocation)){
-                indexLast = index;
+            for(int i=0; i<size && candidates.size() < positions.length; i++){
+                if(!this.journal.matches(i, sameMethod)){
+                    MethodInvocation invocation = this.journal.get(i);
+                    if(invocation.getMethodName().equals(methodInvocation.getMethodName())){
+                        positions[candidates.size()] = i;
+                        candidates.add(invocation);
+                    }
+                }
             }
-            index++;
+        } finally {
+            this.lock.unlock();
         }
-        if(indexFirst < indexLast && (indexFirst > -1 && indexLast > -1)){
-            return true;
+
+        int[] candidatePositions = new int[candidates.size()];
+        System.arraycopy(positions, 0, candidatePositions, 0, candidatePositions.length);
+        return InvocationAssertionError.notInvoked(methodInvocation, candidates, candidatePositions);
+    }
+
+    /**
+     * Computes the difference between the given expected method invocations and the invocations logged in
+     * this instance, as a minimal edit script.
+     * @param expectedInvocations The expected <code>MethodInvocation</code> instances, in the expected order.
+     * @return The difference between the expected and the logged invocations.
+     */
+    public JournalDiff diff(List expectedInvocations){
+        lockJournal();
+        try{
+            return JournalDiff.compute(expectedInvocations, this.journal);
+        } finally {
+            this.lock.unlock();
         }
-        return false;
     }
 
     /**
-     * Removes all method invocations logged inside this instance, and all not returned stubbed return values.
-     * The invocation target, if any, is not removed.
+     * Throws a <code>JournalDiffError</code> if the invocations logged in this instance do not match the given
+     * expected method invocations one to one, in the same order. The error message lists the differences.
+     * @param expectedInvocations The expected <code>MethodInvocation</code> instances, in the expected order.
+     */
+    public void assertInvocations(List expectedInvocations){
+        JournalDiff diff = diff(expectedInvocations);
+        if(!diff.isEmpty()){
+            throw new JournalDiffError(diff);
+        }
+    }
+
+    /**
+     * Blocks the calling thread until methods matching the given method invocation have been invoked
+     * at least <code>count</code> times in total, or until the timeout expires. Invocations already
+     * made are counted once when this method is called: from the invocation counters if the method invocation
+     * has no parameter values, and from the invocation journal if it has. After that the waiting thread
+     * is parked, and each matching invocation is counted as it arrives. The waiting thread is only woken
+     * up when the count is reached.
+     *
+     * <br/><br/>
+     * Waiting for invocations with parameter values requires a journal which keeps every invocation, so
+     * it is not possible with a sampling policy, a <code>NullInvocationJournal</code> or a
+     * <code>ReservoirInvocationJournal</code>.
+     *
+     * @param methodInvocation The method invocation to wait for.
+     * @param count            The number of matching invocations to wait for.
+     * @param timeoutMillis    The maximum number of milliseconds to wait.
+     * @return True if the count was reached. False if the timeout expired first.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     * @throws IllegalStateException If the method invocation has parameter values and the journal does not
+     *         keep every invocation.
+     */
+    public boolean awaitInvoked(MethodInvocation methodInvocation, int count, long timeoutMillis) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Object[] parameters = methodInvocation.getParameters();
+        boolean counted = parameters == null || parameters.length == 0;
+        if(!counted && !journalKeepsAll()){
+            throw new IllegalStateException("The invocation journal does not keep every invocation, so only invocations "
+                    + "without parameter values can be awaited: " + methodInvocation);
+        }
+
+        lockJournal();
+        try{
+            InvocationWaiter waiter = null;
+            if(counted){
+                /* Registered before the counters are read, so an invocation counted after that notifies the waiter */
+                this.waiterCount = this.waiters.size() + 1;
+                waiter = new InvocationWaiter(methodInvocation, count, this.counters, this.lock.newCondition());
+            } else {
+                int recorded = 0;
+                int size = this.journal.size();
+                for(int i=0; i<size && recorded < count; i++){
+                    if(this.journal.matches(i, methodInvocation)){
+                        recorded++;
+                    }
+                }
+                waiter = new InvocationWaiter(methodInvocation, count, recorded, this.lock.newCondition());
+            }
+            this.waiters.add(waiter);
+            this.waiterCount = this.waiters.size();
+            try{
+                while(!waiter.isSatisfied()){
+                    if(remainingNanos <= 0){
+                        return false;
+                    }
+                    remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+                }
+                return true;
+            } finally {
+                this.waiters.remove(waiter);
+                this.waiterCount = this.waiters.size();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the invocation journal holds every invocation of this mock: no sampling policy is set,
+     * and the journal is neither a <code>NullInvocationJournal</code> nor a <code>ReservoirInvocationJournal</code>.
+     */
+    private boolean journalKeepsAll() {
+        IInvocationJournal journal = this.journal;
+        return this.samplingPolicy == null
+                && !(journal instanceof NullInvocationJournal)
+                && !(journal instanceof ReservoirInvocationJournal);
+    }
+
+    /**
+     * Removes all method invocations logged inside this instance, resets the invocation counts and
+     * expectations, and removes all not returned stubbed return values. The invocations listed by an
+     * async forwarder, if any, are cleared too.
+     * The invocation target and the async forwarder, if any, are not removed.
      */
     public void clear(){
-        this.invocations.clear();
-        this.returnValues.clear();
+        lockJournal();
+        try{
+            this.journal.clear();
+        } finally {
+            this.lock.unlock();
+        }
+        InvocationSequencer.Track track = this.track;
+        if(track != null){
+            track.clear();
+        }
+        AsyncForwarder asyncForwarder = this.asyncForwarder;
+        if(asyncForwarder != null){
+            asyncForwarder.clear();
+        }
+        this.counters.clear();
+        this.returnValuesLock.lock();
+        try{
+            this.returnValues.clear();
+        } finally {
+            this.returnValuesLock.unlock();
+        }
+        this.droppedInvocations.reset();
+        this.forwardedInvocations.reset();
+        this.forwardingNanos.reset();
+        this.maxForwardingNanos.reset();
+        IExpectation[] expectations = this.expectations;
+        for(int i=0; i<expectations.length; i++){
+            expectations[i].reset();
+        }
+        this.expectationViolation = null;
+
+        this.lock.lock();
+        try{
+            this.injectedFaults.clear();
+            this.responseTables.clear();
+            this.responses = null;
+            this.answerSelectors.clear();
+            this.answerList.clear();
+            this.answers = null;
+        } finally {
+            this.lock.unlock();
+        }
+
+        for(int i=0, n=this.children.length(); i<n; i++){
+            Object child = this.children.get(i);
+            if(child != null){
+                MockFactory.getMock(child).clear();
+            }
+        }
     }
 
 }
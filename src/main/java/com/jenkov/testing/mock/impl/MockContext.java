@@ -0,0 +1,192 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A registry of the mocks created by one test, confined to the thread running the test. Each thread
+ * has its own current context, so tests running in parallel never share mocks through it.
+ * Mocks created through the context are confined to the context's thread, so they record their
+ * invocations without locking until another thread invokes or queries them.
+ *
+ * <br/><br/>
+ * When the test is done, <code>verify()</code> checks the expectations of all mocks in the context,
+ * and <code>close()</code> clears the mocks and removes the context from the thread. <code>detach()</code>
+ * only removes the context from the thread, and keeps the invocations of the mocks.
+ *
+ * <br/><br/>
+ * Example: <br/>
+ * <br/><code>
+ *       MockContext context = MockContext.open();<br/>
+ *       java.sql.Connection connection = (java.sql.Connection) context.createProxy(java.sql.Connection.class);<br/>
+ *       ...<br/>
+ *       context.verify();<br/>
+ *       context.close();<br/>
+ * </code>
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MockContext {
+
+    private static final ThreadLocal current = new ThreadLocal();
+
+    protected volatile Thread thread = null;
+    protected List   mocks  = new ArrayList();
+
+    protected MockContext(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Opens a new context for the calling thread, and makes it the thread's current context.
+     * @return The new context.
+     * @throws IllegalStateException If the calling thread already has an open context.
+     */
+    public static MockContext open(){
+        if(current.get() != null){
+            throw new IllegalStateException("Thread " + Thread.currentThread().getName() + " already has an open MockContext");
+        }
+        MockContext context = new MockContext(Thread.currentThread());
+        current.set(context);
+        return context;
+    }
+
+    /**
+     * Returns the current context of the calling thread, or null if the thread has no open context.
+     * @return The current context of the calling thread, or null.
+     */
+    public static MockContext current(){
+        return (MockContext) current.get();
+    }
+
+    /**
+     * Returns the thread this context is bound to.
+     * @return The thread this context is bound to.
+     */
+    public Thread getThread(){
+        return this.thread;
+    }
+
+    /**
+     * Binds this context to the calling thread, and makes it the calling thread's current context. This is
+     * for test runners which run the test body on another thread than the one which opened the context, like
+     * JUnit does for tests with a timeout. The thread the context was bound to must no longer use it. Mocks
+     * registered before the move stay confined to that thread, so they take their lock from now on.
+     * @throws IllegalStateException If the calling thread has another open context.
+     */
+    public void moveToCurrentThread(){
+        Object open = current.get();
+        if(open != null && open != this){
+            throw new IllegalStateException("Thread " + Thread.currentThread().getName() + " already has an open MockContext");
+        }
+        this.thread = Thread.currentThread();
+        current.set(this);
+    }
+
+    /**
+     * Creates a mock that implements the target interface, and registers it with this context.
+     * @param proxyInterface The interface the mock is to implement.
+     * @return A mock that implements the target interface.
+     * @see MockFactory#createProxy(Class)
+     */
+    public Object createProxy(Class proxyInterface){
+        return register(MockFactory.createProxy(proxyInterface));
+    }
+
+    /**
+     * Creates a mock that implements the target interfaces, and registers it with this context.
+     * @param proxyInterfaces The interfaces the mock is to implement.
+     * @return A mock that implements the target interfaces.
+     * @see MockFactory#createProxy(Class[])
+     */
+    public Object createProxy(Class[] proxyInterfaces){
+        return register(MockFactory.createProxy(proxyInterfaces));
+    }
+
+    /**
+     * Creates a mock that implements all interfaces implemented by the target object and forwards
+     * to it, and registers it with this context.
+     * @param collaborator The target object to create a mock for.
+     * @return A mock for the target object.
+     * @see MockFactory#createProxy(Object)
+     */
+    public Object createProxy(Object collaborator){
+        return register(MockFactory.createProxy(collaborator));
+    }
+
+    /**
+     * Registers a mock created by one of the <code>MockFactory.createProxy()</code> methods with this context,
+     * and confines it to this context's thread.
+     * @param proxyObject The mock to register.
+     * @return The mock.
+     */
+    public Object register(Object proxyObject){
+        checkThread();
+        Mock mock = (Mock) MockFactory.getMock(proxyObject);
+        mock.confineTo(this.thread);
+        this.mocks.add(mock);
+        return proxyObject;
+    }
+
+    /**
+     * Returns the number of mocks registered with this context.
+     * @return The number of mocks registered with this context.
+     */
+    public int size(){
+        return this.mocks.size();
+    }
+
+    /**
+     * Calls <code>assertExpectations()</code> on all mocks registered with this context.
+     * @throws AssertionError The first expectation violation found.
+     */
+    public void verify(){
+        checkThread();
+        for(int i=0; i<this.mocks.size(); i++){
+            ((Mock) this.mocks.get(i)).assertExpectations();
+        }
+    }
+
+    /**
+     * Calls <code>clear()</code> on all mocks registered with this context.
+     */
+    public void reset(){
+        checkThread();
+        for(int i=0; i<this.mocks.size(); i++){
+            ((Mock) this.mocks.get(i)).clear();
+        }
+    }
+
+    /**
+     * Closes the async forwarders of all mocks registered with this context, resets the mocks, unregisters them,
+     * and removes this context from its thread.
+     */
+    public void close(){
+        checkThread();
+        detach();
+        reset();
+        this.mocks.clear();
+    }
+
+    /**
+     * Removes this context from its thread without clearing its mocks, so their invocations can still be
+     * inspected, for instance when a failed test is reported. The async forwarders of the mocks are closed,
+     * so their threads do not outlive the test. The thread can then open a new context.
+     */
+    public void detach(){
+        checkThread();
+        for(int i=0; i<this.mocks.size(); i++){
+            ((Mock) this.mocks.get(i)).closeAsyncForwarder();
+        }
+        if(current.get() == this){
+            current.remove();
+        }
+    }
+
+    private void checkThread() {
+        if(Thread.currentThread() != this.thread){
+            throw new IllegalStateException("MockContext of thread " + this.thread.getName()
+                    + " used from thread " + Thread.currentThread().getName());
+        }
+    }
+}
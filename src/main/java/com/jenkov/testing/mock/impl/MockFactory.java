@@ -1,17 +1,33 @@
 package com.jenkov.testing.mock.impl;
 
+import com.jenkov.testing.mock.itf.IGeneratedMock;
 import com.jenkov.testing.mock.itf.IMock;
 
 import java.lang.reflect.InvocationHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * @author Jakob Jenkov - Copyright 2005 Jenkov Development
  */
 public class MockFactory {
 
+    /**
+     * The number of distinct interface sets from which <code>createProxies()</code> resolves the proxy
+     * classes in parallel, instead of one after the other.
+     */
+    public static final int PARALLEL_THRESHOLD = 8;
+
     /**
      * Creates a mock that implements all interfaces implemented by the target object.
      *
@@ -21,10 +37,7 @@ public class MockFactory {
     public static Object createProxy(Object collaborator){
         Class[] interfaces = getInterfacesForObject(collaborator);
 
-        return java.lang.reflect.Proxy.newProxyInstance(
-                IMock.class.getClassLoader(),
-                interfaces,
-                new Mock(collaborator));
+        return newMockInstance(interfaces, new Mock(collaborator));
     }
 
     /**
@@ -37,10 +50,7 @@ public class MockFactory {
     public static Object createProxy(Object collaborator, Class[] proxyInterfaces){
         Class[] interfaces = appendInterfaces(getInterfacesForObject(collaborator), proxyInterfaces);
 
-        return java.lang.reflect.Proxy.newProxyInstance(
-                IMock.class.getClassLoader(),
-                interfaces,
-                new Mock(collaborator));
+        return newMockInstance(interfaces, new Mock(collaborator));
     }
 
 
@@ -54,10 +64,7 @@ public class MockFactory {
     public static Object createProxy(Object collaborator, Class proxyInterface){
         Class[] interfaces = appendInterfaces(getInterfacesForObject(collaborator), proxyInterface);
 
-        return java.lang.reflect.Proxy.newProxyInstance(
-                IMock.class.getClassLoader(),
-                interfaces,
-                new Mock(collaborator));
+        return newMockInstance(interfaces, new Mock(collaborator));
     }
 
 
@@ -68,10 +75,7 @@ public class MockFactory {
      */
     public static Object createProxy(Class proxyInterface){
         Class[] interfaces = new Class[]{proxyInterface, IMock.class};
-        return java.lang.reflect.Proxy.newProxyInstance(
-                IMock.class.getClassLoader(),
-                interfaces,
-                new Mock());
+        return newMockInstance(interfaces, new Mock());
     }
 
     /**
@@ -80,22 +84,117 @@ public class MockFactory {
      * @return A mock that implements the target interface.
      */
     public static Object createProxy(Class[] proxyInterfaces){
-        return java.lang.reflect.Proxy.newProxyInstance(
-                IMock.class.getClassLoader(),
-                proxyInterfaces,
-                new Mock());
+        return newMockInstance(proxyInterfaces, new Mock());
+    }
+
+
+    /**
+     * Creates one mock per given interface, each implementing its interface plus <code>IMock</code>, like
+     * <code>createProxy(Class)</code> does. See <code>createProxies(Class[][])</code>.
+     * @param proxyInterfaces The interfaces the mocks are to implement, one per mock.
+     * @return The mocks, in the same order as the interfaces.
+     */
+    public static Object[] createProxies(Class[] proxyInterfaces){
+        Class[][] interfaceSets = new Class[proxyInterfaces.length][];
+        for(int i=0; i<proxyInterfaces.length; i++){
+            interfaceSets[i] = new Class[]{proxyInterfaces[i], IMock.class};
+        }
+        return createProxies(interfaceSets);
     }
 
+    /**
+     * Creates one mock per given interface set, each implementing the interfaces of its set, like
+     * <code>createProxy(Class[])</code> does. Use this method to mock large object graphs: the proxy
+     * class of each distinct interface set is resolved only once, no matter how many mocks implement it,
+     * and if there are <code>PARALLEL_THRESHOLD</code> or more distinct sets, the proxy classes are resolved
+     * in parallel in the common fork join pool.
+     *
+     * @param proxyInterfaceSets The interface sets the mocks are to implement, one per mock.
+     * @return The mocks, in the same order as the interface sets.
+     */
+    public static Object[] createProxies(Class[][] proxyInterfaceSets){
+        final Map  constructors = new HashMap();
+        final List distinct     = new ArrayList();
+        for(int i=0; i<proxyInterfaceSets.length; i++){
+            List key = Arrays.asList((Object[]) proxyInterfaceSets[i]);
+            if(!constructors.containsKey(key)){
+                constructors.put(key, null);
+                distinct.add(proxyInterfaceSets[i].clone());
+            }
+        }
+
+        if(distinct.size() < PARALLEL_THRESHOLD){
+            for(int i=0; i<distinct.size(); i++){
+                Class[] interfaces = (Class[]) distinct.get(i);
+                constructors.put(Arrays.asList((Object[]) interfaces), getProxyConstructor(interfaces));
+            }
+        } else {
+            List tasks = new ArrayList(distinct.size());
+            for(int i=0; i<distinct.size(); i++){
+                final Class[] interfaces = (Class[]) distinct.get(i);
+                tasks.add(new Callable() {
+                    public Object call() throws Exception {
+                        return getProxyConstructor(interfaces);
+                    }
+                });
+            }
+            List futures = ForkJoinPool.commonPool().invokeAll(tasks);
+            for(int i=0; i<distinct.size(); i++){
+                constructors.put(Arrays.asList((Object[]) distinct.get(i)), resolved((Future) futures.get(i)));
+            }
+        }
+
+        Object[] mocks = new Object[proxyInterfaceSets.length];
+        for(int i=0; i<proxyInterfaceSets.length; i++){
+            ProxyConstructor constructor = (ProxyConstructor) constructors.get(Arrays.asList((Object[]) proxyInterfaceSets[i]));
+            mocks[i] = constructor.newInstance(new Mock());
+        }
+        return mocks;
+    }
 
     public static Object createProxy(Class theInterface, InvocationHandler invocationHandler){
-        return java.lang.reflect.Proxy.newProxyInstance(
+        return ProxyEngine.newProxyInstance(
                 theInterface.getClassLoader(),
                 new Class[]{theInterface},
                 invocationHandler);
     }
 
     /**
-     * Returns the invocation handler registered with the java.lang.reflect.Proxy given as parameter, and returns
+     * Creates a mock implementing the given interfaces, which passes its invocations to the given mock. An instance
+     * of a mock class generated by <code>MockProcessor</code> is created if one was generated for the interfaces,
+     * and a proxy created by <code>ProxyEngine</code> if not.
+     */
+    private static Object newMockInstance(Class[] interfaces, Mock mock){
+        Object generatedMock = GeneratedMocks.newInstance(interfaces, mock);
+        if(generatedMock != null){
+            return generatedMock;
+        }
+        return ProxyEngine.newProxyInstance(IMock.class.getClassLoader(), interfaces, mock);
+    }
+
+    private static ProxyConstructor getProxyConstructor(Class[] interfaces){
+        ProxyConstructor constructor = GeneratedMocks.getProxyConstructor(interfaces);
+        if(constructor != null){
+            return constructor;
+        }
+        return ProxyEngine.getProxyConstructor(IMock.class.getClassLoader(), interfaces);
+    }
+
+    private static ProxyConstructor resolved(Future future){
+        try{
+            return (ProxyConstructor) future.get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving proxy classes", e);
+        } catch(ExecutionException e){
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if(e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException("Could not resolve proxy class", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the invocation handler of the mock proxy given as parameter, and returns
      * it cast to an IMock instance. Use this method to get to the mock handler object behind the mock object
      * created by the <code>createProxy()</code> methods.
      *
@@ -105,7 +204,10 @@ public class MockFactory {
      * @see IMock
      */
     public static IMock getMock(Object proxyObject){
-        return (IMock) java.lang.reflect.Proxy.getInvocationHandler(proxyObject);
+        if(proxyObject instanceof IGeneratedMock){
+            return (IMock) ((IGeneratedMock) proxyObject).__invocationHandler();
+        }
+        return (IMock) ProxyEngine.getInvocationHandler(proxyObject);
     }
 
     private static Class[] appendInterfaces(Class[] interfaces, Class aClass) {
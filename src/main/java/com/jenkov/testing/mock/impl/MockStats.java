@@ -0,0 +1,156 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * A snapshot of the statistics of a mock, as returned by <code>Mock.getStats()</code>. The statistics are read
+ * from counters the mock maintains as it is invoked, without locking the journal, so the values of a snapshot
+ * taken while the mock is invoked are individually accurate, but not necessarily consistent with each other.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MockStats implements MockStatsMBean {
+
+    protected long     invocations           = 0;
+    protected String[] methods               = null;
+    protected long[]   methodInvocations     = null;
+    protected int      journalSize           = 0;
+    protected long     journalBytes          = -1;
+    protected long     droppedInvocations    = 0;
+    protected int      returnValueQueueDepth = 0;
+    protected long     forwardedInvocations  = 0;
+    protected long     forwardingNanos       = 0;
+    protected long     maxForwardingNanos    = 0;
+
+    public MockStats(String[] methods, long[] methodInvocations, int journalSize, long journalBytes,
+                     long droppedInvocations, int returnValueQueueDepth,
+                     long forwardedInvocations, long forwardingNanos, long maxForwardingNanos) {
+        this.methods               = methods;
+        this.methodInvocations     = methodInvocations;
+        this.journalSize           = journalSize;
+        this.journalBytes          = journalBytes;
+        this.droppedInvocations    = droppedInvocations;
+        this.returnValueQueueDepth = returnValueQueueDepth;
+        this.forwardedInvocations  = forwardedInvocations;
+        this.forwardingNanos       = forwardingNanos;
+        this.maxForwardingNanos    = maxForwardingNanos;
+        for(int i=0; i<methodInvocations.length; i++){
+            this.invocations += methodInvocations[i];
+        }
+    }
+
+    /**
+     * Returns a view of the statistics of the given mock which takes a new snapshot every time an attribute
+     * is read, for registration with an MBean server.
+     * @param mock The mock to read the statistics of.
+     * @return A live view of the statistics of the mock.
+     */
+    public static MockStatsMBean live(Mock mock){
+        return new Live(mock);
+    }
+
+    public long getInvocations() {
+        return this.invocations;
+    }
+
+    public String[] getMethods() {
+        return this.methods;
+    }
+
+    public long[] getMethodInvocations() {
+        return this.methodInvocations;
+    }
+
+    public int getJournalSize() {
+        return this.journalSize;
+    }
+
+    public long getJournalBytes() {
+        return this.journalBytes;
+    }
+
+    public long getDroppedInvocations() {
+        return this.droppedInvocations;
+    }
+
+    public int getReturnValueQueueDepth() {
+        return this.returnValueQueueDepth;
+    }
+
+    public long getForwardedInvocations() {
+        return this.forwardedInvocations;
+    }
+
+    public long getForwardingNanos() {
+        return this.forwardingNanos;
+    }
+
+    public long getMaxForwardingNanos() {
+        return this.maxForwardingNanos;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.invocations).append(" invocations, ")
+               .append(this.journalSize).append(" in journal, ")
+               .append(this.droppedInvocations).append(" dropped, ")
+               .append(this.returnValueQueueDepth).append(" return values queued");
+        if(this.forwardedInvocations > 0){
+            builder.append(", ").append(this.forwardedInvocations).append(" forwarded in ")
+                   .append(this.forwardingNanos / this.forwardedInvocations).append(" ns average, ")
+                   .append(this.maxForwardingNanos).append(" ns max");
+        }
+        for(int i=0; i<this.methods.length; i++){
+            builder.append("\n  ").append(this.methods[i]).append(": ").append(this.methodInvocations[i]);
+        }
+        return builder.toString();
+    }
+
+
+    private static class Live implements MockStatsMBean {
+
+        private final Mock mock;
+
+        private Live(Mock mock) {
+            this.mock = mock;
+        }
+
+        public long getInvocations() {
+            return this.mock.getStats().getInvocations();
+        }
+
+        public String[] getMethods() {
+            return this.mock.getStats().getMethods();
+        }
+
+        public long[] getMethodInvocations() {
+            return this.mock.getStats().getMethodInvocations();
+        }
+
+        public int getJournalSize() {
+            return this.mock.getStats().getJournalSize();
+        }
+
+        public long getJournalBytes() {
+            return this.mock.getStats().getJournalBytes();
+        }
+
+        public long getDroppedInvocations() {
+            return this.mock.getStats().getDroppedInvocations();
+        }
+
+        public int getReturnValueQueueDepth() {
+            return this.mock.getStats().getReturnValueQueueDepth();
+        }
+
+        public long getForwardedInvocations() {
+            return this.mock.getStats().getForwardedInvocations();
+        }
+
+        public long getForwardingNanos() {
+            return this.mock.getStats().getForwardingNanos();
+        }
+
+        public long getMaxForwardingNanos() {
+            return this.mock.getStats().getMaxForwardingNanos();
+        }
+    }
+}
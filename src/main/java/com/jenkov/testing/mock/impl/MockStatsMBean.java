@@ -0,0 +1,72 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * The statistics of a mock, as exposed over JMX by <code>Mock.registerMBean()</code> and returned as a
+ * snapshot by <code>Mock.getStats()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface MockStatsMBean {
+
+    /**
+     * Returns the total number of invocations of the mock.
+     * @return The total number of invocations.
+     */
+    public long getInvocations();
+
+    /**
+     * Returns the methods invoked on the mock, in the same order as <code>getMethodInvocations()</code>.
+     * @return The signatures of the methods invoked.
+     */
+    public String[] getMethods();
+
+    /**
+     * Returns the number of invocations of each method in <code>getMethods()</code>.
+     * @return The number of invocations per method.
+     */
+    public long[] getMethodInvocations();
+
+    /**
+     * Returns the number of invocations in the journal of the mock.
+     * @return The number of invocations in the journal.
+     */
+    public int getJournalSize();
+
+    /**
+     * Returns the number of bytes allocated by the journal of the mock, or -1 if the journal
+     * does not report it. Only the <code>OffHeapInvocationJournal</code> reports its size in bytes.
+     * @return The number of bytes allocated by the journal, or -1.
+     */
+    public long getJournalBytes();
+
+    /**
+     * Returns the number of invocations not kept in the journal when they were offered to it, because
+     * a sampling policy skipped them, or because the journal discarded them.
+     * @return The number of dropped invocations.
+     */
+    public long getDroppedInvocations();
+
+    /**
+     * Returns the number of stubbed return values added to the mock and not yet returned.
+     * @return The number of stubbed return values queued.
+     */
+    public int getReturnValueQueueDepth();
+
+    /**
+     * Returns the number of invocations forwarded to the invocation target of the mock.
+     * @return The number of forwarded invocations.
+     */
+    public long getForwardedInvocations();
+
+    /**
+     * Returns the total time spent in forwarded invocations, in nanoseconds.
+     * @return The total forwarding time in nanoseconds.
+     */
+    public long getForwardingNanos();
+
+    /**
+     * Returns the longest time spent in a single forwarded invocation, in nanoseconds.
+     * @return The maximum forwarding time in nanoseconds.
+     */
+    public long getMaxForwardingNanos();
+}
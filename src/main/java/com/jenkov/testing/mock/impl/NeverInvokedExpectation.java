@@ -0,0 +1,22 @@
+package com.jenkov.testing.mock.impl;
+
+/**
+ * This expectation fails as soon as a method matching the given method invocation is invoked.
+ * Matching follows the rules of <code>MethodInvocation.matches()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class NeverInvokedExpectation extends AtMostInvokedExpectation {
+
+    /**
+     * Creates an expectation that no method matching the given method invocation is invoked.
+     * @param methodInvocation The method invocation to match invocations against.
+     */
+    public NeverInvokedExpectation(MethodInvocation methodInvocation) {
+        super(methodInvocation, 0);
+    }
+
+    protected String violationMessage(long count) {
+        return "Method was invoked: " + this.methodInvocation.toString() + ".";
+    }
+}
@@ -0,0 +1,31 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+
+/**
+ * An invocation journal which discards all invocations. Use it when a mock is only verified
+ * through expectations or invocation counts, to avoid keeping any invocations in memory.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class NullInvocationJournal implements IInvocationJournal {
+
+    public int record(MethodDescriptor descriptor, Object[] parameters) {
+        return -1;
+    }
+
+    public int size() {
+        return 0;
+    }
+
+    public boolean matches(int index, MethodInvocation methodInvocation) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    }
+
+    public MethodInvocation get(int index) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    }
+
+    public void clear() {
+    }
+}
@@ -0,0 +1,487 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+import com.jenkov.testing.mock.itf.IParameterEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An invocation journal which stores the invocations outside the Java heap, in direct
+ * <code>ByteBuffer</code> segments. This journal is intended for long running soak tests, where
+ * even a compact on-heap journal would fill up the old generation and put pressure on the
+ * garbage collector.
+ *
+ * <br/><br/>
+ * Each invocation is stored as a record consisting of the method descriptor id, a
+ * <code>System.nanoTime()</code> timestamp, the parameter count, and the serialized parameters.
+ * Primitive wrapper and <code>String</code> parameters are serialized by the journal itself.
+ * Parameters of other types are serialized by an <code>IParameterEncoder</code> registered for
+ * their exact class via <code>addEncoder()</code>. Parameters for which no encoder is registered
+ * are stored as their class plus their <code>hashCode()</code>, and are considered equal to
+ * values of the same class with the same hash code. <code>byte[]</code> and <code>ByteBuffer</code>
+ * parameters without an encoder, and parameters already captured as a <code>Fingerprint</code>, are
+ * stored as a <code>Fingerprint</code> of their content, so they can be matched against the expected
+ * content, which is fingerprinted once per query.
+ *
+ * <br/><br/>
+ * The matching queries are answered by comparing the serialized form of the expected parameters
+ * with the bytes stored off-heap, so no objects are created per record scanned. Only
+ * <code>get()</code> materializes a <code>MethodInvocation</code>.
+ *
+ * <br/><br/>
+ * <code>clear()</code> keeps the allocated segments so they can be reused.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class OffHeapInvocationJournal implements IInvocationJournal {
+
+    protected static final byte TYPE_NULL      =  0;
+    protected static final byte TYPE_BOOLEAN   =  1;
+    protected static final byte TYPE_BYTE      =  2;
+    protected static final byte TYPE_SHORT     =  3;
+    protected static final byte TYPE_CHAR      =  4;
+    protected static final byte TYPE_INT       =  5;
+    protected static final byte TYPE_LONG      =  6;
+    protected static final byte TYPE_FLOAT     =  7;
+    protected static final byte TYPE_DOUBLE    =  8;
+    protected static final byte TYPE_STRING    =  9;
+    protected static final byte TYPE_ENCODED   = 10;
+    protected static final byte TYPE_OPAQUE    = 11;
+    protected static final byte TYPE_FINGERPRINT = 12;
+
+    protected static final int HEADER_SIZE           = 4 + 8 + 4;
+    protected static final int INDEX_SEGMENT_ENTRIES = 8192;
+
+    private static final byte[] NO_MATCH = new byte[0];
+
+    protected int  segmentSize   = 0;
+    protected List segments      = new ArrayList();
+    protected List indexSegments = new ArrayList();
+    protected int  writeSegment  = 0;
+    protected int  size          = 0;
+    protected volatile long allocatedBytes = 0;
+
+    protected List encoders      = new ArrayList();
+    protected Map  encoderIds    = new HashMap();
+    protected List opaqueTypes   = new ArrayList();
+    protected Map  opaqueTypeIds = new HashMap();
+
+    private Object[]         encodedScratch  = new Object[8];
+    private int              registryVersion = 0;
+    private MethodInvocation queryInvocation = null;
+    private int              queryVersion    = 0;
+    private byte[][]         queryParameters = null;
+
+    /**
+     * Creates an off-heap journal with 1 MB segments.
+     */
+    public OffHeapInvocationJournal() {
+        this(1024 * 1024);
+    }
+
+    /**
+     * Creates an off-heap journal with segments of the given size. Records larger than
+     * the segment size get a segment of their own.
+     * @param segmentSize The size in bytes of each direct <code>ByteBuffer</code> segment.
+     */
+    public OffHeapInvocationJournal(int segmentSize) {
+        this.segmentSize = segmentSize;
+        this.segments.add(ByteBuffer.allocateDirect(segmentSize));
+        this.allocatedBytes = segmentSize;
+    }
+
+    /**
+     * Registers an encoder for parameters of the given class. Only parameters whose class
+     * is exactly the given class are encoded with the encoder.
+     * @param type    The class of the parameters to encode.
+     * @param encoder The encoder to encode the parameters with.
+     */
+    public void addEncoder(Class type, IParameterEncoder encoder){
+        this.registryVersion++;
+        Integer encoderId = (Integer) this.encoderIds.get(type);
+        if(encoderId != null){
+            this.encoders.set(encoderId.intValue(), encoder);
+            return;
+        }
+        this.encoderIds.put(type, Integer.valueOf(this.encoders.size()));
+        this.encoders.add(encoder);
+    }
+
+    public int record(MethodDescriptor descriptor, Object[] parameters) {
+        int count = parameters == null ? -1 : parameters.length;
+        if(count > this.encodedScratch.length){
+            this.encodedScratch = new Object[count];
+        }
+
+        int recordSize = HEADER_SIZE;
+        for(int i=0; i<count; i++){
+            recordSize += sizeOf(parameters[i], i);
+        }
+
+        ByteBuffer segment  = segmentFor(recordSize);
+        int        position = segment.position();
+        segment.putInt (descriptor.getId());
+        segment.putLong(System.nanoTime());
+        segment.putInt (count);
+        for(int i=0; i<count; i++){
+            write(segment, parameters[i], (byte[]) this.encodedScratch[i]);
+            this.encodedScratch[i] = null;
+        }
+
+        writeIndexEntry(this.size, this.writeSegment, position);
+        return this.size++;
+    }
+
+    private int sizeOf(Object parameter, int parameterIndex) {
+        if(parameter == null) return 1;
+
+        Class type = parameter.getClass();
+        if(type == Boolean.class || type == Byte.class)      return 2;
+        if(type == Short.class   || type == Character.class) return 3;
+        if(type == Integer.class || type == Float.class)     return 5;
+        if(type == Long.class    || type == Double.class)    return 9;
+        if(type == String.class) return 5 + 2 * ((String) parameter).length();
+
+        Integer encoderId = (Integer) this.encoderIds.get(type);
+        if(encoderId != null){
+            byte[] encoded = ((IParameterEncoder) this.encoders.get(encoderId.intValue())).encode(parameter);
+            this.encodedScratch[parameterIndex] = encoded;
+            return 9 + encoded.length;
+        }
+        if(isFingerprinted(parameter)) return 13;
+        return 9;
+    }
+
+    private void write(ByteBuffer buffer, Object parameter, byte[] encoded) {
+        if(parameter == null){ buffer.put(TYPE_NULL); return; }
+
+        Class type = parameter.getClass();
+        if(type == Boolean.class)  { buffer.put(TYPE_BOOLEAN); buffer.put((byte) (((Boolean) parameter).booleanValue() ? 1 : 0)); return; }
+        if(type == Byte.class)     { buffer.put(TYPE_BYTE);    buffer.put(((Byte) parameter).byteValue()); return; }
+        if(type == Short.class)    { buffer.put(TYPE_SHORT);   buffer.putShort(((Short) parameter).shortValue()); return; }
+        if(type == Character.class){ buffer.put(TYPE_CHAR);    buffer.putChar(((Character) parameter).charValue()); return; }
+        if(type == Integer.class)  { buffer.put(TYPE_INT);     buffer.putInt(((Integer) parameter).intValue()); return; }
+        if(type == Float.class)    { buffer.put(TYPE_FLOAT);   buffer.putInt(Float.floatToIntBits(((Float) parameter).floatValue())); return; }
+        if(type == Long.class)     { buffer.put(TYPE_LONG);    buffer.putLong(((Long) parameter).longValue()); return; }
+        if(type == Double.class)   { buffer.put(TYPE_DOUBLE);  buffer.putLong(Double.doubleToLongBits(((Double) parameter).doubleValue())); return; }
+        if(type == String.class){
+            String string = (String) parameter;
+            buffer.put(TYPE_STRING);
+            buffer.putInt(string.length());
+            for(int i=0; i<string.length(); i++){
+                buffer.putChar(string.charAt(i));
+            }
+            return;
+        }
+        if(encoded != null){
+            buffer.put(TYPE_ENCODED);
+            buffer.putInt(((Integer) this.encoderIds.get(type)).intValue());
+            buffer.putInt(encoded.length);
+            buffer.put(encoded);
+            return;
+        }
+        if(isFingerprinted(parameter)){
+            Fingerprint fingerprint = fingerprintOf(parameter);
+            buffer.put(TYPE_FINGERPRINT);
+            buffer.putInt(fingerprint.getLength());
+            buffer.putLong(fingerprint.getHash());
+            return;
+        }
+        buffer.put(TYPE_OPAQUE);
+        buffer.putInt(opaqueTypeId(type, true));
+        buffer.putInt(parameter.hashCode());
+    }
+
+    private boolean isFingerprinted(Object parameter) {
+        return parameter instanceof Fingerprint || parameter instanceof byte[] || parameter instanceof ByteBuffer;
+    }
+
+    private Fingerprint fingerprintOf(Object parameter) {
+        if(parameter instanceof Fingerprint) return (Fingerprint) parameter;
+        if(parameter instanceof ByteBuffer)  return Fingerprint.of((ByteBuffer) parameter);
+        return Fingerprint.of((byte[]) parameter);
+    }
+
+    private int opaqueTypeId(Class type, boolean register) {
+        Integer typeId = (Integer) this.opaqueTypeIds.get(type);
+        if(typeId != null) return typeId.intValue();
+        if(!register) return -1;
+
+        typeId = Integer.valueOf(this.opaqueTypes.size());
+        this.opaqueTypes.add(type);
+        this.registryVersion++;
+        this.opaqueTypeIds.put(type, typeId);
+        return typeId.intValue();
+    }
+
+    private ByteBuffer segmentFor(int recordSize) {
+        ByteBuffer segment = (ByteBuffer) this.segments.get(this.writeSegment);
+        if(segment.remaining() >= recordSize){
+            return segment;
+        }
+
+        this.writeSegment++;
+        if(this.writeSegment < this.segments.size()){
+            segment = (ByteBuffer) this.segments.get(this.writeSegment);
+            if(segment.capacity() >= recordSize){
+                segment.clear();
+                return segment;
+            }
+        }
+
+        segment = ByteBuffer.allocateDirect(Math.max(this.segmentSize, recordSize));
+        if(this.writeSegment < this.segments.size()){
+            ByteBuffer replaced = (ByteBuffer) this.segments.set(this.writeSegment, segment);
+            this.allocatedBytes += segment.capacity() - replaced.capacity();
+        } else {
+            this.allocatedBytes += segment.capacity();
+            this.segments.add(segment);
+        }
+        return segment;
+    }
+
+    private void writeIndexEntry(int index, int segment, int position) {
+        int indexSegment = index / INDEX_SEGMENT_ENTRIES;
+        if(indexSegment == this.indexSegments.size()){
+            this.indexSegments.add(ByteBuffer.allocateDirect(INDEX_SEGMENT_ENTRIES * 8));
+            this.allocatedBytes += INDEX_SEGMENT_ENTRIES * 8;
+        }
+        ((ByteBuffer) this.indexSegments.get(indexSegment))
+                .putLong((index % INDEX_SEGMENT_ENTRIES) * 8, (((long) segment) << 32) | position);
+    }
+
+    private long readIndexEntry(int index) {
+        if(index < 0 || index >= this.size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        return ((ByteBuffer) this.indexSegments.get(index / INDEX_SEGMENT_ENTRIES))
+                .getLong((index % INDEX_SEGMENT_ENTRIES) * 8);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the <code>System.nanoTime()</code> timestamp of the invocation recorded at the given index.
+     * @param index The index of the recorded invocation.
+     * @return The timestamp of the recorded invocation.
+     */
+    public long getTimestamp(int index){
+        long entry = readIndexEntry(index);
+        return segment(entry).getLong(position(entry) + 4);
+    }
+
+    /**
+     * Returns the number of bytes of direct memory allocated by this journal, including the index.
+     * The number is kept up to date as segments are allocated, so it can be read from any thread
+     * without locking the journal.
+     * @return The number of bytes of direct memory allocated by this journal.
+     */
+    public long getAllocatedBytes(){
+        return this.allocatedBytes;
+    }
+
+    private ByteBuffer segment(long entry) {
+        return (ByteBuffer) this.segments.get((int) (entry >>> 32));
+    }
+
+    private int position(long entry) {
+        return (int) entry;
+    }
+
+    public boolean matches(int index, MethodInvocation methodInvocation) {
+        long       entry    = readIndexEntry(index);
+        ByteBuffer segment  = segment(entry);
+        int        position = position(entry);
+
+        MethodDescriptor descriptor = MethodDescriptor.forId(segment.getInt(position));
+        if(!methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), null)){
+            return false;
+        }
+
+        Object[] expected = methodInvocation.getParameters();
+        if(expected == null || expected.length == 0) return true;
+
+        int count = segment.getInt(position + 12);
+        if(count <= 0) return true;
+        if(count != expected.length) return false;
+
+        byte[][] encodedExpected = encodeQuery(methodInvocation);
+        int parameterPosition = position + HEADER_SIZE;
+        for(int i=0; i<count; i++){
+            int next = skip(segment, parameterPosition);
+            byte[] encoded = encodedExpected[i];
+            if(encoded.length != next - parameterPosition) return false;
+            for(int j=0; j<encoded.length; j++){
+                if(segment.get(parameterPosition + j) != encoded[j]) return false;
+            }
+            parameterPosition = next;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the expected parameters of the given invocation, so they can be compared byte by byte with
+     * the recorded parameters. The encoded parameters are reused while the same invocation is queried again,
+     * until an encoder or an opaque type is registered, which can change how the parameters are encoded.
+     */
+    private byte[][] encodeQuery(MethodInvocation methodInvocation) {
+        if(this.queryInvocation == methodInvocation && this.queryVersion == this.registryVersion){
+            return this.queryParameters;
+        }
+        Object[] parameters = methodInvocation.getParameters();
+        byte[][] encoded    = new byte[parameters.length][];
+        for(int i=0; i<parameters.length; i++){
+            encoded[i] = encodeQueryParameter(parameters[i]);
+        }
+        this.queryInvocation = methodInvocation;
+        this.queryVersion    = this.registryVersion;
+        this.queryParameters = encoded;
+        return encoded;
+    }
+
+    private byte[] encodeQueryParameter(Object parameter) {
+        if(parameter != null){
+            Class type = parameter.getClass();
+            if(!isBuiltIn(type) && !this.encoderIds.containsKey(type) && !isFingerprinted(parameter)
+                    && opaqueTypeId(type, false) == -1){
+                return NO_MATCH;
+            }
+        }
+        Object[] scratch = this.encodedScratch;
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(parameter, 0));
+        write(buffer, parameter, (byte[]) scratch[0]);
+        scratch[0] = null;
+        return buffer.array();
+    }
+
+    private boolean isBuiltIn(Class type) {
+        return type == Boolean.class || type == Byte.class    || type == Short.class  || type == Character.class
+            || type == Integer.class || type == Float.class   || type == Long.class   || type == Double.class
+            || type == String.class;
+    }
+
+    private int skip(ByteBuffer segment, int position) {
+        switch(segment.get(position)){
+            case TYPE_NULL    : return position + 1;
+            case TYPE_BOOLEAN :
+            case TYPE_BYTE    : return position + 2;
+            case TYPE_SHORT   :
+            case TYPE_CHAR    : return position + 3;
+            case TYPE_INT     :
+            case TYPE_FLOAT   : return position + 5;
+            case TYPE_LONG    :
+            case TYPE_DOUBLE  :
+            case TYPE_OPAQUE  : return position + 9;
+            case TYPE_FINGERPRINT : return position + 13;
+            case TYPE_STRING  : return position + 5 + 2 * segment.getInt(position + 1);
+            case TYPE_ENCODED : return position + 9 + segment.getInt(position + 5);
+            default : throw new IllegalStateException("Corrupt journal record at position " + position);
+        }
+    }
+
+    private Object read(ByteBuffer segment, int position) {
+        switch(segment.get(position)){
+            case TYPE_NULL    : return null;
+            case TYPE_BOOLEAN : return Boolean.valueOf(segment.get(position + 1) != 0);
+            case TYPE_BYTE    : return Byte.valueOf(segment.get(position + 1));
+            case TYPE_SHORT   : return Short.valueOf(segment.getShort(position + 1));
+            case TYPE_CHAR    : return Character.valueOf(segment.getChar(position + 1));
+            case TYPE_INT     : return Integer.valueOf(segment.getInt(position + 1));
+            case TYPE_FLOAT   : return Float.valueOf(Float.intBitsToFloat(segment.getInt(position + 1)));
+            case TYPE_LONG    : return Long.valueOf(segment.getLong(position + 1));
+            case TYPE_DOUBLE  : return Double.valueOf(Double.longBitsToDouble(segment.getLong(position + 1)));
+            case TYPE_STRING  : {
+                char[] chars = new char[segment.getInt(position + 1)];
+                for(int i=0; i<chars.length; i++){
+                    chars[i] = segment.getChar(position + 5 + 2 * i);
+                }
+                return new String(chars);
+            }
+            case TYPE_ENCODED : {
+                IParameterEncoder encoder = (IParameterEncoder) this.encoders.get(segment.getInt(position + 1));
+                byte[] data = new byte[segment.getInt(position + 5)];
+                for(int i=0; i<data.length; i++){
+                    data[i] = segment.get(position + 9 + i);
+                }
+                return encoder.decode(data);
+            }
+            case TYPE_FINGERPRINT :
+                return new Fingerprint(segment.getInt(position + 1), segment.getLong(position + 5));
+            case TYPE_OPAQUE  :
+                return new OpaqueParameter((Class) this.opaqueTypes.get(segment.getInt(position + 1)), segment.getInt(position + 5));
+            default : throw new IllegalStateException("Corrupt journal record at position " + position);
+        }
+    }
+
+    public MethodInvocation get(int index) {
+        long       entry    = readIndexEntry(index);
+        ByteBuffer segment  = segment(entry);
+        int        position = position(entry);
+
+        MethodDescriptor descriptor = MethodDescriptor.forId(segment.getInt(position));
+        int count = segment.getInt(position + 12);
+
+        Object[] parameters = null;
+        if(count >= 0){
+            parameters = new Object[count];
+            int parameterPosition = position + HEADER_SIZE;
+            for(int i=0; i<count; i++){
+                parameters[i]     = read(segment, parameterPosition);
+                parameterPosition = skip(segment, parameterPosition);
+            }
+        }
+        return descriptor.toMethodInvocation(parameters);
+    }
+
+    public void clear() {
+        for(int i=0; i<this.segments.size(); i++){
+            ((ByteBuffer) this.segments.get(i)).clear();
+        }
+        this.writeSegment = 0;
+        this.size         = 0;
+    }
+
+
+    /**
+     * Represents a parameter which was stored without an encoder, when it is read back
+     * from the journal. Only the class and the hash code of the original parameter are known.
+     * An instance is equal to any object of the same class with the same hash code.
+     */
+    public static class OpaqueParameter {
+
+        protected Class type     = null;
+        protected int   hashCode = 0;
+
+        public OpaqueParameter(Class type, int hashCode) {
+            this.type     = type;
+            this.hashCode = hashCode;
+        }
+
+        public Class getType() {
+            return this.type;
+        }
+
+        public boolean equals(Object o) {
+            if(o == null) return false;
+            if(o instanceof OpaqueParameter){
+                OpaqueParameter other = (OpaqueParameter) o;
+                return other.type == this.type && other.hashCode == this.hashCode;
+            }
+            return o.getClass() == this.type && o.hashCode() == this.hashCode;
+        }
+
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        public String toString() {
+            return this.type.getName() + "#" + Integer.toHexString(this.hashCode);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides per parameter type how a mock records parameter values in its journal. By default parameters
+ * are recorded by reference, so a buffer passed to a mock stays reachable from the journal, and a buffer
+ * that is reused by the caller shows its latest content rather than the content at the time of the
+ * invocation. For such types the capture can be set to:
+ *
+ * <ul>
+ *   <li><code>COPY</code>: the journal records a copy of the array or of the remaining bytes of the buffer.</li>
+ *   <li><code>FINGERPRINT</code>: the journal records a <code>Fingerprint</code> of the content of a
+ *       <code>byte[]</code> or <code>ByteBuffer</code>, so its memory use does not grow with the payload size.</li>
+ * </ul>
+ *
+ * The capture for a parameter is looked up by the parameter's class, and applies to subclasses of the
+ * configured type too. The lookup is cached per class.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ParameterCapture {
+
+    /** Records the parameter itself. */
+    public static final int REFERENCE   = 0;
+
+    /** Records a copy of the array or of the remaining bytes of the buffer. */
+    public static final int COPY        = 1;
+
+    /** Records a <code>Fingerprint</code> of the <code>byte[]</code> or <code>ByteBuffer</code> content. */
+    public static final int FINGERPRINT = 2;
+
+    private static final Integer REFERENCE_CAPTURE = Integer.valueOf(REFERENCE);
+
+    protected ConcurrentMap captures = new ConcurrentHashMap();
+    protected ConcurrentMap resolved = new ConcurrentHashMap();
+
+    /**
+     * Sets how parameters of the given type, or a subclass of it, are recorded.
+     * @param type    The parameter type.
+     * @param capture <code>REFERENCE</code>, <code>COPY</code> or <code>FINGERPRINT</code>.
+     * @throws IllegalArgumentException If the capture is not supported for the given type. <code>COPY</code>
+     *         requires an array or <code>ByteBuffer</code> type, <code>FINGERPRINT</code> requires
+     *         <code>byte[]</code> or a <code>ByteBuffer</code> type.
+     */
+    public void setCapture(Class type, int capture){
+        boolean buffer = ByteBuffer.class.isAssignableFrom(type);
+        if(capture == COPY && !type.isArray() && !buffer){
+            throw new IllegalArgumentException("Parameters of type " + type.getName() + " cannot be copied");
+        }
+        if(capture == FINGERPRINT && type != byte[].class && !buffer){
+            throw new IllegalArgumentException("Parameters of type " + type.getName() + " cannot be fingerprinted");
+        }
+        if(capture < REFERENCE || capture > FINGERPRINT){
+            throw new IllegalArgumentException("Unknown capture: " + capture);
+        }
+        this.captures.put(type, Integer.valueOf(capture));
+        this.resolved.clear();
+    }
+
+    /**
+     * Returns how parameters of the given class are recorded.
+     * @param type The class of the parameter.
+     * @return <code>REFERENCE</code>, <code>COPY</code> or <code>FINGERPRINT</code>.
+     */
+    public int getCapture(Class type){
+        Integer capture = (Integer) this.resolved.get(type);
+        if(capture == null){
+            capture = resolve(type);
+            this.resolved.put(type, capture);
+        }
+        return capture.intValue();
+    }
+
+    private Integer resolve(Class type) {
+        Integer capture = (Integer) this.captures.get(type);
+        if(capture != null) return capture;
+
+        Iterator iterator = this.captures.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry entry = (Map.Entry) iterator.next();
+            if(((Class) entry.getKey()).isAssignableFrom(type)){
+                return (Integer) entry.getValue();
+            }
+        }
+        return REFERENCE_CAPTURE;
+    }
+
+    /**
+     * Returns the parameter values to record for an invocation with the given parameters. If all parameters
+     * are recorded by reference the given array is returned, otherwise a new array.
+     * @param parameters The parameters of the invocation.
+     * @return The parameter values to record.
+     */
+    public Object[] capture(Object[] parameters){
+        if(parameters == null) return null;
+
+        Object[] captured = parameters;
+        for(int i=0; i<parameters.length; i++){
+            Object parameter = parameters[i];
+            if(parameter == null) continue;
+
+            int capture = getCapture(parameter.getClass());
+            if(capture == REFERENCE) continue;
+
+            if(captured == parameters){
+                captured = (Object[]) parameters.clone();
+            }
+            captured[i] = capture == COPY ? copy(parameter) : fingerprint(parameter);
+        }
+        return captured;
+    }
+
+    private Object copy(Object parameter) {
+        if(parameter instanceof ByteBuffer){
+            ByteBuffer buffer = ((ByteBuffer) parameter).duplicate();
+            ByteBuffer copy   = ByteBuffer.allocate(buffer.remaining());
+            copy.put(buffer);
+            copy.flip();
+            return copy;
+        }
+        int length  = Array.getLength(parameter);
+        Object copy = Array.newInstance(parameter.getClass().getComponentType(), length);
+        System.arraycopy(parameter, 0, copy, 0, length);
+        return copy;
+    }
+
+    private Object fingerprint(Object parameter) {
+        if(parameter instanceof ByteBuffer){
+            return Fingerprint.of((ByteBuffer) parameter);
+        }
+        return Fingerprint.of((byte[]) parameter);
+    }
+}
@@ -0,0 +1,163 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.Arrays;
+
+/**
+ * Compares two non-null parameter values for equality. The comparison to use is resolved once per
+ * parameter class via <code>forClass()</code> and cached, so matching invocations does not run a chain of
+ * <code>instanceof</code> checks per parameter.
+ *
+ * <br/><br/>
+ * Primitive arrays are compared element by element with <code>Arrays.equals()</code>, and object arrays
+ * with <code>Arrays.deepEquals()</code>, so nested arrays are compared by content too. All other classes
+ * are compared with <code>equals()</code>. This includes <code>java.nio.ByteBuffer</code>, whose
+ * <code>equals()</code> already compares the remaining bytes of the two buffers.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public abstract class ParameterEquality {
+
+    /** Compares parameters with <code>equals()</code>. */
+    public static final ParameterEquality OBJECT = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return parameter.equals(otherParameter);
+        }
+    };
+
+    private static final ClassValue equalities = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return resolve(type);
+        }
+    };
+
+    /**
+     * Returns the equality to compare parameters of the given class with.
+     * @param type The class of the parameter.
+     * @return The equality for parameters of the given class.
+     */
+    public static ParameterEquality forClass(Class type){
+        return (ParameterEquality) equalities.get(type);
+    }
+
+    /**
+     * Returns true if the two parameters are equal. Neither parameter may be null, and the first parameter
+     * must be of the class this equality was resolved for.
+     * @param parameter      The first parameter.
+     * @param otherParameter The second parameter.
+     * @return True if the parameters are equal. False if not.
+     */
+    public abstract boolean areEqual(Object parameter, Object otherParameter);
+
+    /**
+     * Returns a hash code for the given parameter, consistent with <code>areEqual()</code>. The parameter may
+     * not be null, and must be of the class this equality was resolved for.
+     * @param parameter The parameter.
+     * @return The hash code of the parameter.
+     */
+    public int hashCode(Object parameter){
+        return parameter.hashCode();
+    }
+
+    private static ParameterEquality resolve(Class type) {
+        if(!type.isArray())                return OBJECT;
+        if(type == byte[].class)           return BYTES;
+        if(type == int[].class)            return INTS;
+        if(type == long[].class)           return LONGS;
+        if(type == char[].class)           return CHARS;
+        if(type == short[].class)          return SHORTS;
+        if(type == boolean[].class)        return BOOLEANS;
+        if(type == float[].class)          return FLOATS;
+        if(type == double[].class)         return DOUBLES;
+        return OBJECTS;
+    }
+
+    private static final ParameterEquality BYTES = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof byte[] && Arrays.equals((byte[]) parameter, (byte[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((byte[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality INTS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof int[] && Arrays.equals((int[]) parameter, (int[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((int[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality LONGS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof long[] && Arrays.equals((long[]) parameter, (long[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((long[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality CHARS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof char[] && Arrays.equals((char[]) parameter, (char[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((char[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality SHORTS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof short[] && Arrays.equals((short[]) parameter, (short[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((short[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality BOOLEANS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof boolean[] && Arrays.equals((boolean[]) parameter, (boolean[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((boolean[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality FLOATS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof float[] && Arrays.equals((float[]) parameter, (float[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((float[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality DOUBLES = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof double[] && Arrays.equals((double[]) parameter, (double[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.hashCode((double[]) parameter);
+        }
+    };
+
+    private static final ParameterEquality OBJECTS = new ParameterEquality() {
+        public boolean areEqual(Object parameter, Object otherParameter) {
+            return otherParameter instanceof Object[] && Arrays.deepEquals((Object[]) parameter, (Object[]) otherParameter);
+        }
+
+        public int hashCode(Object parameter) {
+            return Arrays.deepHashCode((Object[]) parameter);
+        }
+    };
+}
@@ -0,0 +1,20 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.InvocationHandler;
+
+/**
+ * Creates proxies of one proxy class, resolved once by <code>ProxyEngine.getProxyConstructor()</code>, so
+ * many proxies implementing the same interfaces can be created without looking up the proxy class again
+ * for each of them.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public abstract class ProxyConstructor {
+
+    /**
+     * Creates a proxy which forwards all method calls to the given handler.
+     * @param handler The handler to forward the method calls to.
+     * @return The proxy.
+     */
+    public abstract Object newInstance(InvocationHandler handler);
+}
@@ -0,0 +1,84 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates the proxy objects behind the mocks created by <code>MockFactory</code>, and finds the invocation
+ * handler of such a proxy again. This version uses <code>java.lang.reflect.Proxy</code>.
+ *
+ * <br/><br/>
+ * The jar is a multi-release jar. On Java 17 and later the JVM loads the version of this class in
+ * <code>META-INF/versions/17</code> instead, which generates the proxy classes itself as hidden classes,
+ * and falls back to <code>java.lang.reflect.Proxy</code> for interfaces it cannot implement that way.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ProxyEngine {
+
+    /**
+     * Returns the name of the engine, "proxy" for this version.
+     * @return The name of the engine.
+     */
+    public static String getName(){
+        return "proxy";
+    }
+
+    /**
+     * Creates a proxy implementing the given interfaces, which forwards all method calls to the given handler.
+     * @param classLoader The class loader to define the proxy class in.
+     * @param interfaces  The interfaces the proxy is to implement.
+     * @param handler     The handler to forward the method calls to.
+     * @return The proxy.
+     */
+    public static Object newProxyInstance(ClassLoader classLoader, Class[] interfaces, InvocationHandler handler){
+        return Proxy.newProxyInstance(classLoader, interfaces, handler);
+    }
+
+    /**
+     * Resolves the proxy class implementing the given interfaces, and returns a constructor creating proxies
+     * of that class. Falls back to <code>Proxy.newProxyInstance()</code> if the proxy class constructor
+     * cannot be called directly.
+     * @param classLoader The class loader to define the proxy class in.
+     * @param interfaces  The interfaces the proxies are to implement.
+     * @return A constructor creating proxies implementing the interfaces.
+     */
+    public static ProxyConstructor getProxyConstructor(final ClassLoader classLoader, final Class[] interfaces){
+        final Constructor constructor;
+        try{
+            constructor = Proxy.getProxyClass(classLoader, interfaces).getConstructor(new Class[]{InvocationHandler.class});
+            constructor.setAccessible(true);
+        } catch(NoSuchMethodException e){
+            throw new IllegalStateException("Proxy class for " + java.util.Arrays.asList(interfaces) + " has no constructor", e);
+        } catch(RuntimeException e){
+            return new ProxyConstructor() {
+                public Object newInstance(InvocationHandler handler) {
+                    return Proxy.newProxyInstance(classLoader, interfaces, handler);
+                }
+            };
+        }
+        return new ProxyConstructor() {
+            public Object newInstance(InvocationHandler handler) {
+                try{
+                    return constructor.newInstance(new Object[]{handler});
+                } catch(InvocationTargetException e){
+                    throw new IllegalStateException("Could not create proxy", e.getCause());
+                } catch(ReflectiveOperationException e){
+                    throw new IllegalStateException("Could not create proxy", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the invocation handler of the given proxy.
+     * @param proxy A proxy created by <code>newProxyInstance()</code>.
+     * @return The invocation handler of the proxy.
+     * @throws IllegalArgumentException If the object is not a proxy.
+     */
+    public static InvocationHandler getInvocationHandler(Object proxy){
+        return Proxy.getInvocationHandler(proxy);
+    }
+}
@@ -0,0 +1,156 @@
+package com.jenkov.testing.mock.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * An invocation a mock forwarded asynchronously through an <code>AsyncForwarder</code>, as listed by
+ * <code>AsyncForwarder.getQueuedInvocations()</code> once it has been run. Records how long the invocation
+ * waited in the queue, and how long the invocation target took to run it.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class QueuedInvocation {
+
+    protected final Mock              mock;
+    protected final Object            proxy;
+    protected final MethodDescriptor  descriptor;
+    protected final Object[]          parameters;
+    protected final CompletableFuture future;
+    protected final long              enqueuedAt;
+
+    protected long      waitNanos    = 0;
+    protected long      runNanos     = 0;
+    protected int       batch        = -1;
+    protected Throwable failure      = null;
+    protected Future    pending      = null;
+
+    public QueuedInvocation(Mock mock, Object proxy, MethodDescriptor descriptor, Object[] parameters, CompletableFuture future) {
+        this.mock       = mock;
+        this.proxy      = proxy;
+        this.descriptor = descriptor;
+        this.parameters = parameters;
+        this.future     = future;
+        this.enqueuedAt = System.nanoTime();
+    }
+
+    /**
+     * Forwards the invocation to the invocation target of the mock, and completes the future returned to
+     * the caller, if any. If the invocation target returned a plain <code>Future</code> which is not done yet,
+     * the future returned to the caller is left to <code>completeIfDone()</code>, so the drainer never blocks on it.
+     * @param batch The number of the batch the drainer runs the invocation in.
+     * @return True if the future returned to the caller is completed, or will be without calling
+     *         <code>completeIfDone()</code>. False if not.
+     */
+    protected boolean run(int batch) {
+        long start = System.nanoTime();
+        this.batch     = batch;
+        this.waitNanos = start - this.enqueuedAt;
+        Object result = null;
+        try{
+            result = this.mock.forwardMethodInvocation(this.proxy, this.descriptor, this.parameters);
+        } catch(InvocationTargetException e){
+            this.failure = e.getCause();
+        } catch(Throwable e){
+            this.failure = e;
+        }
+        this.runNanos = System.nanoTime() - start;
+        this.mock.recordForwarding(this.runNanos);
+
+        if(this.future == null){
+            return true;
+        }
+        if(this.failure != null){
+            this.future.completeExceptionally(this.failure);
+        } else if(result instanceof CompletionStage){
+            ((CompletionStage) result).whenComplete(new BiConsumer() {
+                public void accept(Object value, Object failure) {
+                    if(failure != null){
+                        QueuedInvocation.this.future.completeExceptionally((Throwable) failure);
+                    } else {
+                        QueuedInvocation.this.future.complete(value);
+                    }
+                }
+            });
+        } else if(result instanceof Future){
+            this.pending = (Future) result;
+            return completeIfDone();
+        } else {
+            this.future.complete(result);
+        }
+        return true;
+    }
+
+    /**
+     * Completes the future returned to the caller from the plain <code>Future</code> the invocation target
+     * returned, if that future is done. Never blocks.
+     * @return True if the future returned to the caller is completed. False if not.
+     */
+    protected boolean completeIfDone() {
+        Future pending = this.pending;
+        if(pending == null){
+            return true;
+        }
+        if(!pending.isDone()){
+            return false;
+        }
+        try{
+            this.future.complete(pending.get());
+        } catch(ExecutionException e){
+            this.future.completeExceptionally(e.getCause());
+        } catch(CancellationException e){
+            this.future.completeExceptionally(e);
+        } catch(InterruptedException e){
+            this.future.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+        }
+        this.pending = null;
+        return true;
+    }
+
+    public MethodInvocation getMethodInvocation() {
+        return this.descriptor.toMethodInvocation(this.parameters);
+    }
+
+    /**
+     * Returns the time the invocation waited in the queue before the drainer ran it, in nanoseconds.
+     * @return The queue wait time in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return this.waitNanos;
+    }
+
+    /**
+     * Returns the time the invocation target took to run the invocation, in nanoseconds.
+     * @return The run time in nanoseconds.
+     */
+    public long getRunNanos() {
+        return this.runNanos;
+    }
+
+    /**
+     * Returns the number of the batch the drainer ran the invocation in, counting from 0.
+     * @return The batch number.
+     */
+    public int getBatch() {
+        return this.batch;
+    }
+
+    /**
+     * Returns the exception the invocation target threw, or null if it returned normally.
+     * @return The exception thrown by the invocation target, or null.
+     */
+    public Throwable getFailure() {
+        return this.failure;
+    }
+
+    public String toString() {
+        return getMethodInvocation() + " waited " + this.waitNanos + " ns, ran " + this.runNanos + " ns in batch "
+                + this.batch + (this.failure != null ? ": " + this.failure : "");
+    }
+}
@@ -0,0 +1,140 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInvocationJournal;
+
+import java.util.Random;
+
+/**
+ * An invocation journal which keeps a uniform random sample of a fixed size of all the invocations
+ * recorded in it (reservoir sampling). The sampled invocations are kept in the order they were
+ * invoked in, so <code>invokedBefore()</code> and <code>invokedLast()</code> still work on the sample.
+ *
+ * <br/><br/>
+ * The journal uses Vitter's / Li's "algorithm L", which computes how many invocations to skip
+ * until the next one to sample. An invocation which is not sampled therefore only costs a
+ * counter increment and a comparison.
+ *
+ * <br/><br/>
+ * The counter is part of the journal, so every invocation is still offered to the journal under the
+ * lock of the mock, once the mock is invoked from more than one thread. If many threads invoke the mock
+ * and contend for that lock, use an <code>ISamplingPolicy</code> instead, which the mock asks before it
+ * takes the lock.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ReservoirInvocationJournal implements IInvocationJournal {
+
+    protected int[]      methodIds  = null;
+    protected Object[][] parameters = null;
+    protected int        size       = 0;
+
+    protected Random random     = null;
+    protected long   seen       = 0;
+    protected long   nextSample = 0;
+    protected double weight     = 0;
+
+    /**
+     * Creates a reservoir journal keeping a sample of the given size.
+     * @param capacity The number of invocations to keep.
+     */
+    public ReservoirInvocationJournal(int capacity) {
+        this(capacity, new Random());
+    }
+
+    /**
+     * Creates a reservoir journal keeping a sample of the given size, chosen
+     * deterministically from the given seed.
+     * @param capacity The number of invocations to keep.
+     * @param seed     The seed of the random generator choosing the sample.
+     */
+    public ReservoirInvocationJournal(int capacity, long seed) {
+        this(capacity, new Random(seed));
+    }
+
+    private ReservoirInvocationJournal(int capacity, Random random) {
+        if(capacity < 1){
+            throw new IllegalArgumentException("Parameter capacity must be 1 or larger, was " + capacity);
+        }
+        this.methodIds  = new int[capacity];
+        this.parameters = new Object[capacity][];
+        this.random     = random;
+        reset();
+    }
+
+    private void reset() {
+        this.seen       = 0;
+        this.weight     = Math.exp(Math.log(nextRandom()) / this.methodIds.length);
+        this.nextSample = this.methodIds.length + skipLength() + 1;
+    }
+
+    private double nextRandom() {
+        double value = this.random.nextDouble();
+        return value == 0 ? Double.MIN_VALUE : value;
+    }
+
+    private long skipLength() {
+        return (long) Math.floor(Math.log(nextRandom()) / Math.log(1 - this.weight));
+    }
+
+    /**
+     * Returns the number of invocations offered to this journal since it was created or cleared,
+     * including the ones that were not sampled.
+     * @return The number of invocations offered to this journal.
+     */
+    public long getSeen() {
+        return this.seen;
+    }
+
+    public int record(MethodDescriptor descriptor, Object[] parameters) {
+        this.seen++;
+        if(this.size < this.methodIds.length){
+            this.methodIds [this.size] = descriptor.getId();
+            this.parameters[this.size] = parameters;
+            return this.size++;
+        }
+        if(this.seen < this.nextSample){
+            return -1;
+        }
+
+        /* replace a random invocation in the sample, keeping the sample in invocation order */
+        int replaced = this.random.nextInt(this.size);
+        int last     = this.size - 1;
+        System.arraycopy(this.methodIds,  replaced + 1, this.methodIds,  replaced, last - replaced);
+        System.arraycopy(this.parameters, replaced + 1, this.parameters, replaced, last - replaced);
+        this.methodIds [last] = descriptor.getId();
+        this.parameters[last] = parameters;
+
+        this.weight     *= Math.exp(Math.log(nextRandom()) / this.methodIds.length);
+        this.nextSample += skipLength() + 1;
+        return last;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean matches(int index, MethodInvocation methodInvocation) {
+        checkIndex(index);
+        MethodDescriptor descriptor = MethodDescriptor.forId(this.methodIds[index]);
+        return methodInvocation.matches(descriptor.getName(), descriptor.getParameterTypes(), this.parameters[index]);
+    }
+
+    public MethodInvocation get(int index) {
+        checkIndex(index);
+        return MethodDescriptor.forId(this.methodIds[index]).toMethodInvocation(this.parameters[index]);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= this.size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+
+    public void clear() {
+        for(int i=0; i<this.size; i++){
+            this.parameters[i] = null;
+        }
+        this.size = 0;
+        reset();
+    }
+}
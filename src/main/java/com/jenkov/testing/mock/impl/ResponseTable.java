@@ -0,0 +1,266 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IParameterConstraint;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The canned responses of a mock for one method, keyed by the parameter values of the invocation.
+ * Responses for exact parameter values are kept in an open addressing hash table, so looking up a response
+ * takes the same time for a table with 10 entries as for a table with 100.000 entries, and allocates
+ * nothing. A method with a single parameter of type <code>int</code>, <code>long</code>, <code>short</code>,
+ * <code>byte</code> or <code>char</code> gets a table keyed by the <code>long</code> value of the parameter.
+ * Other methods get a table keyed by the parameter array, hashed and compared with
+ * <code>ParameterEquality</code>, so array parameters are compared by content.
+ *
+ * <br/><br/>
+ * Responses whose parameter values contain an <code>IParameterConstraint</code> are kept in a list, and are
+ * only checked, in the order they were added, when no exact response matches.
+ *
+ * <br/><br/>
+ * Responses are added by one thread at a time, e.g. under the lock of the mock. Lookups take no lock.
+ * A response is published by writing its key first, and then its value with <code>lazySet()</code>, and
+ * a lookup reads the value before the key, so a lookup that finds a value always sees the key the value
+ * was stored for. A lookup running while a response is added for the same parameters returns either
+ * the earlier response, if any, or the new one.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ResponseTable {
+
+    /** Returned by <code>get()</code> when no response matches the parameters. */
+    public static final Object NO_RESPONSE = new Object();
+
+    private static final Object NULL_RESPONSE = new Object();
+
+    protected final String  methodName;
+    protected final Class[] parameterTypes;
+    protected final boolean longKeys;
+
+    private volatile Slots slots = null;
+
+    protected List constraintEntries = new CopyOnWriteArrayList();
+
+    /**
+     * Creates an empty table for the method with the given name and parameter types.
+     * @param methodName     The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     */
+    public ResponseTable(String methodName, Class[] parameterTypes) {
+        this.methodName     = methodName;
+        this.parameterTypes = parameterTypes == null ? new Class[0] : parameterTypes;
+        this.longKeys       = this.parameterTypes.length == 1 && isIntegral(this.parameterTypes[0]);
+        this.slots          = new Slots(16, this.longKeys);
+    }
+
+    private static boolean isIntegral(Class type) {
+        return type == int.class || type == long.class || type == short.class || type == byte.class || type == char.class;
+    }
+
+    /**
+     * Returns true if this table holds the responses for the method with the given name and parameter types.
+     * @param methodName     The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return True if this table is for the given method. False if not.
+     */
+    public boolean isFor(String methodName, Class[] parameterTypes) {
+        if(!this.methodName.equals(methodName)) return false;
+        int length = parameterTypes == null ? 0 : parameterTypes.length;
+        if(length != this.parameterTypes.length) return false;
+        for(int i=0; i<length; i++){
+            if(parameterTypes[i] != this.parameterTypes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a response for the given parameter values, replacing any earlier response for the same exact
+     * values. If one or more of the parameter values is an <code>IParameterConstraint</code>, the response
+     * is returned for all invocations with parameters within the constraints, and equal to the other values.
+     * Must not be called by several threads at once. Lookups may run at the same time.
+     * @param parameters The parameter values.
+     * @param response   The response, which may be null.
+     */
+    public void put(Object[] parameters, Object response) {
+        int length = parameters == null ? 0 : parameters.length;
+        if(length != this.parameterTypes.length){
+            throw new IllegalArgumentException("Method " + this.methodName + " takes " + this.parameterTypes.length
+                    + " parameters, but the response is for " + length + " parameters");
+        }
+        Object value = response == null ? NULL_RESPONSE : response;
+        for(int i=0; i<length; i++){
+            if(parameters[i] instanceof IParameterConstraint){
+                this.constraintEntries.add(new Object[]{parameters.clone(), value});
+                return;
+            }
+        }
+
+        Slots slots = this.slots;
+        if(slots.size * 2 >= slots.values.length()){
+            slots = rehash(slots);
+        }
+        if(this.longKeys){
+            putLong(slots, toLong(parameters[0]), value);
+        } else {
+            Object[] key = length == 0 ? parameters : (Object[]) parameters.clone();
+            putObjects(slots, key, hash(key), value);
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Returns the response for the given parameter values, or <code>NO_RESPONSE</code> if there is none.
+     * @param parameters The parameter values of the invocation.
+     * @return The response, which may be null, or <code>NO_RESPONSE</code>.
+     */
+    public Object get(Object[] parameters) {
+        Object value = this.longKeys ? getLong(toLong(parameters[0])) : getObjects(parameters);
+
+        if(value == null){
+            for(int i=0; i<this.constraintEntries.size(); i++){
+                Object[] entry = (Object[]) this.constraintEntries.get(i);
+                if(isWithin((Object[]) entry[0], parameters)){
+                    value = entry[1];
+                    break;
+                }
+            }
+            if(value == null) return NO_RESPONSE;
+        }
+        return value == NULL_RESPONSE ? null : value;
+    }
+
+    /**
+     * Returns the number of responses in this table.
+     * @return The number of responses.
+     */
+    public int size() {
+        return this.slots.size + this.constraintEntries.size();
+    }
+
+    private boolean isWithin(Object[] constraints, Object[] parameters) {
+        int length = parameters == null ? 0 : parameters.length;
+        for(int i=0; i<length; i++){
+            if(constraints[i] instanceof IParameterConstraint){
+                if(!((IParameterConstraint) constraints[i]).isWithin(parameters[i])) return false;
+            } else if(!ClassUtil.areEqual(constraints[i], parameters[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toLong(Object parameter) {
+        if(parameter instanceof Character) return ((Character) parameter).charValue();
+        return ((Number) parameter).longValue();
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static int hash(Object[] parameters) {
+        int hash = 1;
+        int length = parameters == null ? 0 : parameters.length;
+        for(int i=0; i<length; i++){
+            Object parameter = parameters[i];
+            hash = 31 * hash + (parameter == null ? 0 : ParameterEquality.forClass(parameter.getClass()).hashCode(parameter));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean areEqual(Object[] parameters, Object[] otherParameters) {
+        int length = parameters == null ? 0 : parameters.length;
+        for(int i=0; i<length; i++){
+            if(!ClassUtil.areEqual(parameters[i], otherParameters[i])) return false;
+        }
+        return true;
+    }
+
+    private void putLong(Slots slots, long key, Object value) {
+        int mask = slots.values.length() - 1;
+        int slot = hash(key) & mask;
+        while(slots.values.get(slot) != null && slots.longKeys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        if(slots.values.get(slot) == null) slots.size++;
+        slots.longKeys[slot] = key;
+        slots.values.lazySet(slot, value);
+    }
+
+    private Object getLong(long key) {
+        Slots slots = this.slots;
+        int mask = slots.values.length() - 1;
+        int slot = hash(key) & mask;
+        Object value;
+        while((value = slots.values.get(slot)) != null){
+            if(slots.longKeys[slot] == key) return value;
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private void putObjects(Slots slots, Object[] parameters, int hash, Object value) {
+        int mask = slots.values.length() - 1;
+        int slot = hash & mask;
+        while(slots.values.get(slot) != null
+                && !(slots.hashes[slot] == hash && areEqual(slots.objectKeys[slot], parameters))){
+            slot = (slot + 1) & mask;
+        }
+        if(slots.values.get(slot) == null) slots.size++;
+        slots.objectKeys[slot] = parameters;
+        slots.hashes[slot]     = hash;
+        slots.values.lazySet(slot, value);
+    }
+
+    private Object getObjects(Object[] parameters) {
+        Slots slots = this.slots;
+        int hash = hash(parameters);
+        int mask = slots.values.length() - 1;
+        int slot = hash & mask;
+        Object value;
+        while((value = slots.values.get(slot)) != null){
+            if(slots.hashes[slot] == hash && areEqual(slots.objectKeys[slot], parameters)) return value;
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private Slots rehash(Slots slots) {
+        Slots rehashed = new Slots(slots.values.length() * 2, this.longKeys);
+        for(int i=0; i<slots.values.length(); i++){
+            Object value = slots.values.get(i);
+            if(value == null) continue;
+            if(this.longKeys){
+                putLong(rehashed, slots.longKeys[i], value);
+            } else {
+                putObjects(rehashed, slots.objectKeys[i], slots.hashes[i], value);
+            }
+        }
+        return rehashed;
+    }
+
+
+    /**
+     * The arrays of the hash table. A rehash builds a new instance and publishes it as a whole. A slot is in
+     * use once its value is set, and its key is written before its value.
+     */
+    private static class Slots {
+        final long[]               longKeys;
+        final Object[][]           objectKeys;
+        final int[]                hashes;
+        final AtomicReferenceArray values;
+        int                        size = 0;
+
+        Slots(int capacity, boolean longKeys) {
+            this.values     = new AtomicReferenceArray(capacity);
+            this.longKeys   = longKeys ? new long[capacity] : null;
+            this.objectKeys = longKeys ? null : new Object[capacity][];
+            this.hashes     = longKeys ? null : new int[capacity];
+        }
+    }
+}
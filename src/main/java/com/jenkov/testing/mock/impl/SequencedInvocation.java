@@ -0,0 +1,54 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IMock;
+
+/**
+ * An invocation of a mock that has joined an <code>InvocationSequencer</code>, as listed by
+ * <code>InvocationSequencer.getTimeline()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class SequencedInvocation {
+
+    protected long             sequence         = 0;
+    protected long             nanoTime         = 0;
+    protected IMock            mock             = null;
+    protected MethodInvocation methodInvocation = null;
+
+    public SequencedInvocation(long sequence, long nanoTime, IMock mock, MethodInvocation methodInvocation) {
+        this.sequence         = sequence;
+        this.nanoTime         = nanoTime;
+        this.mock             = mock;
+        this.methodInvocation = methodInvocation;
+    }
+
+    /**
+     * Returns the global sequence number of the invocation. Invocations with lower sequence numbers
+     * were recorded before invocations with higher sequence numbers, across all mocks of the sequencer.
+     * @return The sequence number of the invocation.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Returns the <code>System.nanoTime()</code> the invocation was recorded at, or 0 if the sequencer
+     * does not take timestamps.
+     * @return The time the invocation was recorded at, or 0.
+     */
+    public long getNanoTime() {
+        return this.nanoTime;
+    }
+
+    public IMock getMock() {
+        return this.mock;
+    }
+
+    public MethodInvocation getMethodInvocation() {
+        return this.methodInvocation;
+    }
+
+    public String toString() {
+        return "#" + this.sequence + " " + this.methodInvocation;
+    }
+}
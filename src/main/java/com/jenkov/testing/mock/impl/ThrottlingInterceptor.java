@@ -0,0 +1,168 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IInterceptor;
+import com.jenkov.testing.mock.itf.IInvocationChain;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class of the interceptors which limit the throughput of a mock, to simulate a saturated
+ * collaborator. Add the interceptor with <code>Mock.addInterceptor()</code>, with a selector to limit a
+ * single method, or without one to limit the mock as a whole. When the limit is exceeded, a caller is
+ * treated according to the policy:
+ *
+ * <ul>
+ *   <li><code>BLOCK</code>: the caller waits until it is admitted.</li>
+ *   <li><code>DELAY</code>: the caller waits at most the maximum delay, and is rejected if it would have to
+ *       wait longer.</li>
+ *   <li><code>REJECT</code>: the caller is rejected immediately.</li>
+ * </ul>
+ *
+ * Rejected callers get a <code>RejectedExecutionException</code>, and so do callers interrupted while they
+ * wait, with the <code>InterruptedException</code> as cause and their interrupt status restored. Like all
+ * interceptors, the limit applies after the invocation has been recorded, so rejected invocations are in
+ * the journal too. The admission and wait metrics are kept in <code>LongAdder</code> and
+ * <code>LongAccumulator</code> cells, so callers on different cores do not contend on them.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public abstract class ThrottlingInterceptor implements IInterceptor {
+
+    /** Callers wait until admitted. */
+    public static final int BLOCK  = 0;
+
+    /** Callers wait up to the maximum delay, and are rejected if they would have to wait longer. */
+    public static final int DELAY  = 1;
+
+    /** Callers are rejected as soon as the limit is exceeded. */
+    public static final int REJECT = 2;
+
+    protected int  policy        = BLOCK;
+    protected long maxDelayNanos = 0;
+
+    protected final LongAdder       admitted      = new LongAdder();
+    protected final LongAdder       rejected      = new LongAdder();
+    protected final LongAdder       waited        = new LongAdder();
+    protected final LongAdder       waitNanos     = new LongAdder();
+    protected final LongAccumulator maxWaitNanos  = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    /** Returned by <code>acquire()</code> when the caller is admitted without waiting. */
+    protected static final int ADMITTED        = 0;
+
+    /** Returned by <code>acquire()</code> when the caller is admitted after waiting. */
+    protected static final int ADMITTED_WAITED = 1;
+
+    /** Returned by <code>acquire()</code> when the caller is rejected. */
+    protected static final int REJECTED        = 2;
+
+    /**
+     * @param policy   <code>BLOCK</code>, <code>DELAY</code> or <code>REJECT</code>.
+     * @param maxDelay The maximum time a caller waits under the <code>DELAY</code> policy.
+     * @param unit     The time unit of the maximum delay.
+     */
+    protected ThrottlingInterceptor(int policy, long maxDelay, TimeUnit unit) {
+        if(policy < BLOCK || policy > REJECT){
+            throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+        this.policy        = policy;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable {
+        long start     = System.nanoTime();
+        int  admission;
+        try{
+            admission = acquire(start);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            this.rejected.increment();
+            RejectedExecutionException rejection =
+                new RejectedExecutionException("Interrupted while waiting for " + method.getName());
+            rejection.initCause(e);
+            throw rejection;
+        }
+        if(admission == REJECTED){
+            this.rejected.increment();
+            throw new RejectedExecutionException("Throughput limit exceeded for " + method.getName());
+        }
+        this.admitted.increment();
+        if(admission == ADMITTED_WAITED){
+            long wait = System.nanoTime() - start;
+            this.waited.increment();
+            this.waitNanos.add(wait);
+            this.maxWaitNanos.accumulate(wait);
+        }
+        try{
+            return next.proceed(proxy, method, parameters);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Admits the caller according to the limit and the policy, waiting if the policy allows it. A caller
+     * interrupted while waiting must give back whatever it reserved before it throws.
+     * @param now The <code>System.nanoTime()</code> the caller arrived at.
+     * @return <code>ADMITTED</code>, <code>ADMITTED_WAITED</code> or <code>REJECTED</code>.
+     * @throws InterruptedException If the caller is interrupted while waiting.
+     */
+    protected abstract int acquire(long now) throws InterruptedException;
+
+    /**
+     * Called when an admitted invocation completes.
+     */
+    protected abstract void release();
+
+    /**
+     * Parks the calling thread until the given <code>System.nanoTime()</code>.
+     */
+    protected static void parkUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        while(remaining > 0){
+            LockSupport.parkNanos(remaining);
+            if(Thread.interrupted()){
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    public int getPolicy() {
+        return this.policy;
+    }
+
+    /** @return The number of invocations admitted. */
+    public long getAdmitted() {
+        return this.admitted.sum();
+    }
+
+    /** @return The number of invocations rejected. */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /** @return The number of admitted invocations that had to wait. */
+    public long getWaited() {
+        return this.waited.sum();
+    }
+
+    /** @return The total time admitted invocations waited, in nanoseconds. */
+    public long getTotalWaitNanos() {
+        return this.waitNanos.sum();
+    }
+
+    /** @return The longest time an admitted invocation waited, in nanoseconds. */
+    public long getMaxWaitNanos() {
+        return this.maxWaitNanos.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.jenkov.testing.mock.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits invocations to a rate, with bursts of up to a given number of invocations. This is a token bucket,
+ * implemented as the generic cell rate algorithm: the only state is the theoretical arrival time of the next
+ * invocation, which callers advance with a compare-and-set, so admission takes no lock. Under the
+ * <code>BLOCK</code> and <code>DELAY</code> policies a caller reserves the next free slot and then waits for it.
+ * A caller interrupted while waiting gives its slot back by moving the theoretical arrival time back one
+ * interval, so the callers after it are not held back by a slot nobody uses.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class TokenBucketInterceptor extends ThrottlingInterceptor {
+
+    protected final long intervalNanos;
+    protected final long toleranceNanos;
+    protected final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a token bucket which blocks callers exceeding the rate.
+     * @param permitsPerSecond The sustained number of invocations per second.
+     * @param burst            The number of invocations admitted at once when the bucket is full.
+     */
+    public TokenBucketInterceptor(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, BLOCK, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a token bucket.
+     * @param permitsPerSecond The sustained number of invocations per second.
+     * @param burst            The number of invocations admitted at once when the bucket is full.
+     * @param policy           <code>BLOCK</code>, <code>DELAY</code> or <code>REJECT</code>.
+     * @param maxDelay         The maximum time a caller waits under the <code>DELAY</code> policy.
+     * @param unit             The time unit of the maximum delay.
+     */
+    public TokenBucketInterceptor(double permitsPerSecond, int burst, int policy, long maxDelay, TimeUnit unit) {
+        super(policy, maxDelay, unit);
+        if(permitsPerSecond <= 0 || burst < 1){
+            throw new IllegalArgumentException("The rate must be positive and the burst at least 1");
+        }
+        this.intervalNanos  = Math.max(1, (long) (1000000000L / permitsPerSecond));
+        this.toleranceNanos = this.intervalNanos * (burst - 1);
+    }
+
+    protected int acquire(long now) throws InterruptedException {
+        while(true){
+            long arrival = this.theoreticalArrival.get();
+            long slot    = Math.max(arrival, now);
+            long wait    = slot - this.toleranceNanos - now;
+            if(wait > 0){
+                if(this.policy == REJECT) return REJECTED;
+                if(this.policy == DELAY && wait > this.maxDelayNanos) return REJECTED;
+            }
+            if(this.theoreticalArrival.compareAndSet(arrival, slot + this.intervalNanos)){
+                if(wait <= 0){
+                    return ADMITTED;
+                }
+                try{
+                    parkUntil(now + wait);
+                } catch(InterruptedException e){
+                    this.theoreticalArrival.addAndGet(-this.intervalNanos);
+                    throw e;
+                }
+                return ADMITTED_WAITED;
+            }
+        }
+    }
+
+    protected void release() {
+    }
+}
@@ -0,0 +1,35 @@
+package com.jenkov.testing.mock.itf;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes the <code>MockProcessor</code> annotation processor generate a mock class at compile time, which
+ * <code>MockFactory</code> then uses instead of a dynamic proxy. Annotate an interface to generate a mock
+ * class for that interface, or annotate any type, e.g. a test class, and list the interfaces to generate
+ * mock classes for, including interfaces from libraries:
+ *
+ * <br/><br/><code>
+ *     &#64;GenerateMock({java.sql.Connection.class, java.sql.Statement.class})<br/>
+ *     public class DaoTest extends TestCase { ... }
+ * </code><br/><br/>
+ *
+ * Each interface gets a mock class of its own, in the package of the annotated type. The interfaces must be
+ * public, or be declared in that package.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateMock {
+
+    /**
+     * The interfaces to generate mock classes for. If empty, the annotated type must be an interface,
+     * and a mock class is generated for it.
+     */
+    Class[] value() default {};
+}
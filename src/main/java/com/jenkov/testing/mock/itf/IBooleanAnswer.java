@@ -0,0 +1,18 @@
+package com.jenkov.testing.mock.itf;
+
+/**
+ * Computes the <code>boolean</code> return value of a mocked method from its parameters, without boxing the
+ * result. Register it with <code>Mock.setAnswer()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IBooleanAnswer {
+
+    /**
+     * Returns the value the mocked method returns for the given parameters.
+     * @param parameters The parameters of the invocation, or null if the method takes no parameters.
+     * @return The return value.
+     * @throws Throwable If the invocation is to fail.
+     */
+    public boolean answer(Object[] parameters) throws Throwable;
+}
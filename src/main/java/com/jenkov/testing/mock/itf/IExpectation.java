@@ -0,0 +1,27 @@
+package com.jenkov.testing.mock.itf;
+
+import com.jenkov.testing.mock.impl.MethodDescriptor;
+
+/**
+ * This interface represents an expectation registered on a mock before the code under test runs.
+ * The mock checks the expectation against every method invocation as it arrives, so a violation
+ * is detected on the thread making the offending call, and the invocation journal does not need
+ * to be kept for verification. An expectation should only keep a constant amount of state.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IExpectation {
+
+    /**
+     * Checks the given method invocation against this expectation.
+     * @param descriptor The descriptor of the method invoked.
+     * @param parameters The parameter values the method was invoked with.
+     * @throws AssertionError If the invocation violates this expectation.
+     */
+    public void check(MethodDescriptor descriptor, Object[] parameters);
+
+    /**
+     * Resets any state this expectation has accumulated, for instance invocation counts.
+     */
+    public void reset();
+}
@@ -0,0 +1,42 @@
+package com.jenkov.testing.mock.itf;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * This interface is implemented by the mock classes generated at compile time by <code>MockProcessor</code>.
+ * A generated mock class implements the mocked interface and <code>IMock</code> directly. Invocations of
+ * the mocked interface are passed to its invocation handler, and <code>IMock</code> methods are called
+ * on the handler directly. The methods of this interface are prefixed with two underscores so they do
+ * not clash with the methods of the mocked interface.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IGeneratedMock {
+
+    /**
+     * Returns the invocation handler this mock passes its invocations to.
+     * @return The invocation handler of this mock.
+     */
+    public InvocationHandler __invocationHandler();
+
+    /**
+     * Returns the index of the given method in this mock class, or -1 if the method is not implemented
+     * by this mock class. The method must be one of the <code>Method</code> instances this mock passes
+     * to its invocation handler.
+     * @param method The method to return the index of.
+     * @return The index of the method, or -1.
+     */
+    public int __methodIndex(Method method);
+
+    /**
+     * Invokes the method with the given index on the given target object, with a direct call instead of
+     * reflection. Exceptions thrown by the target are not wrapped.
+     * @param methodIndex The index of the method, as returned by <code>__methodIndex()</code>.
+     * @param target      The object to invoke the method on. Must implement the mocked interface.
+     * @param parameters  The parameter values to invoke the method with. May be null for methods without parameters.
+     * @return The value returned by the target, boxed, or null for void methods.
+     * @throws Throwable  Anything thrown by the target.
+     */
+    public Object __dispatch(int methodIndex, Object target, Object[] parameters) throws Throwable;
+}
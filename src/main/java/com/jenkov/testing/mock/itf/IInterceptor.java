@@ -0,0 +1,25 @@
+package com.jenkov.testing.mock.itf;
+
+import java.lang.reflect.Method;
+
+/**
+ * This interface represents a behaviour wrapped around the method invocations a mock forwards to
+ * its target, or answers with mock return values. Examples are latency injection, fault injection,
+ * metrics and caching. An interceptor decides itself whether, when and how often to pass the
+ * invocation on to the rest of the chain via <code>next.proceed()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IInterceptor {
+
+    /**
+     * Intercepts a method invocation on a mock.
+     * @param proxy      The mock the method was called on.
+     * @param method     The method called on the mock.
+     * @param parameters The parameters the method was called with.
+     * @param next       The rest of the chain. Call <code>next.proceed()</code> to pass the invocation on.
+     * @return The value to return from the mock.
+     * @throws Throwable The exception to throw from the mock, if any.
+     */
+    public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable;
+}
@@ -0,0 +1,22 @@
+package com.jenkov.testing.mock.itf;
+
+import java.lang.reflect.Method;
+
+/**
+ * This interface represents the rest of an interceptor chain, as seen from an <code>IInterceptor</code>.
+ * The last link of the chain forwards the invocation to the mock's target, or returns a mock return value.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IInvocationChain {
+
+    /**
+     * Passes the method invocation on to the rest of the chain.
+     * @param proxy      The mock the method was called on.
+     * @param method     The method called on the mock.
+     * @param parameters The parameters the method was called with.
+     * @return The value returned by the rest of the chain.
+     * @throws Throwable The exception thrown by the rest of the chain, if any.
+     */
+    public Object proceed(Object proxy, Method method, Object[] parameters) throws Throwable;
+}
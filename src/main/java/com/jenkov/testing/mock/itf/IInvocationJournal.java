@@ -0,0 +1,49 @@
+package com.jenkov.testing.mock.itf;
+
+import com.jenkov.testing.mock.impl.MethodDescriptor;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+
+/**
+ * This interface represents the journal a mock logs the method invocations it receives in.
+ * A journal stores each invocation in whatever compact form it likes, and answers matching
+ * queries without materializing <code>MethodInvocation</code> instances. <code>MethodInvocation</code>
+ * instances are only created when a user asks for a specific invocation via <code>get()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IInvocationJournal {
+
+    /**
+     * Records an invocation of the described method with the given parameters.
+     * @param descriptor The descriptor of the method invoked.
+     * @param parameters The parameter values the method was invoked with. May be null.
+     * @return The index of the recorded invocation in this journal.
+     */
+    int record(MethodDescriptor descriptor, Object[] parameters);
+
+    /**
+     * Returns the number of invocations recorded in this journal.
+     * @return The number of invocations recorded in this journal.
+     */
+    int size();
+
+    /**
+     * Returns true if the given method invocation matches the invocation recorded at the given index.
+     * @param index            The index of the recorded invocation to match against.
+     * @param methodInvocation The method invocation to match.
+     * @return True if the recorded invocation matches. False if not.
+     */
+    boolean matches(int index, MethodInvocation methodInvocation);
+
+    /**
+     * Returns the invocation recorded at the given index as a <code>MethodInvocation</code>.
+     * @param index The index of the recorded invocation.
+     * @return A <code>MethodInvocation</code> representing the recorded invocation.
+     */
+    MethodInvocation get(int index);
+
+    /**
+     * Removes all invocations recorded in this journal.
+     */
+    void clear();
+}
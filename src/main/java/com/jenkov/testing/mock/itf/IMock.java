@@ -56,6 +56,68 @@ public interface IMock {
      */
     List getInvocations();
 
+    /**
+     * Registers an expectation which is checked against every method invocation as it arrives.
+     * If an invocation violates the expectation an <code>AssertionError</code> is thrown immediately
+     * from the mock, on the thread making the invocation. The violation is also kept, so it can be
+     * rethrown on the test thread by <code>assertExpectations()</code>.
+     * @param expectation The expectation to register.
+     */
+    void addExpectation(IExpectation expectation);
+
+    /**
+     * Throws the first <code>AssertionError</code> raised by a registered expectation, if any.
+     * Does nothing if no expectation has been violated.
+     */
+    void assertExpectations();
+
+    /**
+     * Returns the number of times methods matching the given method invocation were invoked.
+     * The count is exact even if the mock only records a sample of the invocations in its journal.
+     * Methods are matched by method name and parameter types. Parameter values are ignored.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @return The number of matching invocations.
+     */
+    long getInvocationCount(MethodInvocation methodInvocation);
+
+    /**
+     * Registers a counter for the invocations matching the given method invocation, including its parameter
+     * values if it has any. The counter is updated as invocations arrive, so <code>assertInvokedTimes()</code>,
+     * <code>assertInvokedAtLeast()</code> and <code>assertInvokedAtMost()</code> can verify the count even if
+     * the mock does not record its invocations, e.g. when it uses a <code>NullInvocationJournal</code>.
+     * Counters should be registered before the code under test starts invoking the mock.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     */
+    void countInvocations(MethodInvocation methodInvocation);
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> unless methods matching the given method invocation
+     * were invoked exactly the given number of times. The count is taken from a counter registered with
+     * <code>countInvocations()</code> for an equal method invocation if there is one, from the exact
+     * per-method counts if the method invocation has no parameter values, and from the journal otherwise.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param times            The expected number of matching invocations.
+     * @throws IllegalStateException If the count would have to be taken from a journal which does not keep
+     *         every invocation, e.g. a <code>NullInvocationJournal</code> or a sampled journal.
+     */
+    void assertInvokedTimes(MethodInvocation methodInvocation, long times);
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> if methods matching the given method invocation
+     * were invoked fewer than the given number of times. The count is taken as in <code>assertInvokedTimes()</code>.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param minInvocations   The minimum number of matching invocations.
+     */
+    void assertInvokedAtLeast(MethodInvocation methodInvocation, long minInvocations);
+
+    /**
+     * Throws an <code>java.lang.AssertionError</code> if methods matching the given method invocation
+     * were invoked more than the given number of times. The count is taken as in <code>assertInvokedTimes()</code>.
+     * @param methodInvocation The method invocation to count the matching invocations of.
+     * @param maxInvocations   The maximum number of matching invocations.
+     */
+    void assertInvokedAtMost(MethodInvocation methodInvocation, long maxInvocations);
+
     /**
      * Throws an <code>java.langAssertionError</code> if the given method has not been invoked. Does nothing if
      * the method has been invoked.
@@ -143,8 +205,51 @@ public interface IMock {
     boolean invokedBefore(MethodInvocation firstInvocation, MethodInvocation lastInvocation);
 
     /**
-     * Removes all method invocations logged inside this instance.
-     * The invocation target, if any, is not removed.
+     * Throws an <code>java.lang.AssertionError</code> if the invocations logged in the mock do not match the
+     * given expected method invocations one to one, in the same order. The error message contains a compact
+     * edit script listing the missing and the unexpected invocations.
+     * @param expectedInvocations The expected <code>MethodInvocation</code> instances, in the expected order.
+     */
+    void assertInvocations(List expectedInvocations);
+
+    /**
+     * Blocks the calling thread until methods matching the given method invocation have been invoked
+     * at least <code>count</code> times in total, or until the timeout expires. Use this method instead
+     * of polling <code>invoked()</code> when the code under test calls the mock from another thread.
+     *
+     * @param methodInvocation The method invocation to wait for.
+     * @param count            The number of matching invocations to wait for.
+     * @param timeoutMillis    The maximum number of milliseconds to wait.
+     * @return True if the count was reached. False if the timeout expired first.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    boolean awaitInvoked(MethodInvocation methodInvocation, int count, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Adds a canned response for invocations of the method with the name and parameter types of the given
+     * method invocation, and its parameter values. Parameter values may be <code>IParameterConstraint</code>
+     * instances, which match any value within the constraint. Responses for exact parameter values are looked
+     * up first, in constant time; responses with constraints are checked after that, in the order they were
+     * added. A matching response takes precedence over the return values added with
+     * <code>addReturnValue()</code> and over the invocation target.
+     * @param methodInvocation The method invocation, with the parameter types and values to respond to.
+     * @param returnValue      The value to return, which may be null.
+     */
+    void addResponse(MethodInvocation methodInvocation, Object returnValue);
+
+    /**
+     * Returns the child mock a mock in deep stub mode created for the method matching the given method
+     * invocation. The child mock records the invocations on the object the method returned. Parameter values
+     * of the given method invocation are ignored, since a method has one child mock for all parameter values.
+     * @param methodInvocation The method invocation identifying the method.
+     * @return The child mock, or null if no child mock was created for the method.
+     */
+    IMock getChildMock(MethodInvocation methodInvocation);
+
+    /**
+     * Removes all method invocations logged inside this instance, and resets the invocation
+     * counts, expectations, return values and responses. The invocation target, if any, is not removed. Child mocks created
+     * in deep stub mode are kept, and cleared too.
      */
     void clear();
 }
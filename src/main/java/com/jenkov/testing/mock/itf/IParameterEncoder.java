@@ -0,0 +1,25 @@
+package com.jenkov.testing.mock.itf;
+
+/**
+ * This interface represents an encoder that can serialize parameter values of a user type,
+ * so they can be stored outside the Java heap by an off-heap invocation journal.
+ * Two parameter values are considered equal by the journal if their encoded bytes are equal.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IParameterEncoder {
+
+    /**
+     * Encodes the given parameter value into bytes.
+     * @param parameter The parameter value to encode. Never null.
+     * @return The encoded bytes.
+     */
+    public byte[] encode(Object parameter);
+
+    /**
+     * Decodes bytes previously returned by <code>encode()</code> into a parameter value.
+     * @param data The encoded bytes.
+     * @return The decoded parameter value.
+     */
+    public Object decode(byte[] data);
+}
@@ -0,0 +1,21 @@
+package com.jenkov.testing.mock.itf;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * An invocation handler which can return <code>int</code>, <code>long</code>, <code>double</code> and
+ * <code>boolean</code> results without boxing them. Proxy classes generated by <code>ProxyEngine</code> on
+ * Java 17 and later call these methods instead of <code>invoke()</code> for methods with these return types,
+ * when their handler implements this interface. <code>java.lang.reflect.Proxy</code> always calls
+ * <code>invoke()</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IPrimitiveInvocationHandler extends InvocationHandler {
+
+    public int     invokeInt    (Object proxy, Method method, Object[] parameters) throws Throwable;
+    public long    invokeLong   (Object proxy, Method method, Object[] parameters) throws Throwable;
+    public double  invokeDouble (Object proxy, Method method, Object[] parameters) throws Throwable;
+    public boolean invokeBoolean(Object proxy, Method method, Object[] parameters) throws Throwable;
+}
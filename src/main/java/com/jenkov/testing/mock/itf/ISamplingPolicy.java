@@ -0,0 +1,28 @@
+package com.jenkov.testing.mock.itf;
+
+import com.jenkov.testing.mock.impl.MethodDescriptor;
+
+/**
+ * This interface represents a policy deciding which method invocations a mock records in its
+ * invocation journal. The mock counts every invocation exactly regardless of the policy,
+ * so a policy only decides which invocations are kept for later inspection.
+ *
+ * <br/><br/>
+ * The mock asks the policy before it takes its lock, so an invocation which is not sampled does not
+ * lock the mock, unless a thread is awaiting an invocation of it. A sampled invocation is recorded under
+ * the mock-wide lock, once the mock is invoked from more than one thread.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface ISamplingPolicy {
+
+    /**
+     * Returns true if the given invocation is to be recorded in the invocation journal.
+     * This method is called for every invocation, possibly from several threads at once, so it should
+     * be cheap and thread safe.
+     * @param descriptor  The descriptor of the method invoked.
+     * @param methodCount The exact number of times the method has been invoked, including this invocation.
+     * @return True if the invocation is to be recorded. False if not.
+     */
+    public boolean sample(MethodDescriptor descriptor, long methodCount);
+}
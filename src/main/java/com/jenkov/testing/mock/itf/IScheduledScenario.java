@@ -0,0 +1,20 @@
+package com.jenkov.testing.mock.itf;
+
+import com.jenkov.testing.mock.impl.DeterministicScheduler;
+
+/**
+ * This interface represents a concurrent test scenario which can be run repeatedly under a
+ * <code>DeterministicScheduler</code>, once per seed. Each run must set up fresh state, make the mocks
+ * involved use the given scheduler, run its tasks via <code>scheduler.run()</code>, and verify the result.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public interface IScheduledScenario {
+
+    /**
+     * Runs the scenario once under the given scheduler.
+     * @param scheduler The scheduler to run the scenario's tasks under.
+     * @throws Throwable If the scenario fails.
+     */
+    public void run(DeterministicScheduler scheduler) throws Throwable;
+}
@@ -0,0 +1,94 @@
+package com.jenkov.testing.mock.junit;
+
+import com.jenkov.testing.mock.impl.MockContext;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * A JUnit 4 rule which opens a <code>MockContext</code> for each test method on the thread running
+ * the test, verifies the expectations of all mocks created through it when the test passes, and
+ * closes it afterwards. When the test fails, the context is only detached from the thread, so the
+ * invocations of the mocks are still there when the failure is reported.
+ *
+ * <br/><br/>
+ * Because the context is confined to the test thread, the rule can be used with parallel test execution.
+ * If JUnit runs the test body on a thread of its own, as it does for <code>&#64;Test(timeout=...)</code>
+ * and the <code>Timeout</code> rule, the context moves to that thread the first time the test body calls
+ * <code>getContext()</code> or <code>createProxy()</code>, and back when the test body is done.
+ *
+ * <br/><br/>
+ * Example: <br/>
+ * <br/><code>
+ *       &#64;Rule public MockContextRule mocks = new MockContextRule();<br/>
+ * <br/>
+ *       &#64;Test public void testClose() {<br/>
+ *       &nbsp;&nbsp;&nbsp; Connection connection = (Connection) mocks.createProxy(Connection.class);<br/>
+ *       &nbsp;&nbsp;&nbsp; ...<br/>
+ *       }<br/>
+ * </code>
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MockContextRule implements TestRule {
+
+    protected volatile MockContext context = null;
+    protected volatile Thread      thread  = null;
+
+    public Statement apply(final Statement base, Description description) {
+        return new Statement() {
+            public void evaluate() throws Throwable {
+                MockContext context = MockContext.open();
+                MockContextRule.this.thread  = Thread.currentThread();
+                MockContextRule.this.context = context;
+                boolean passed = false;
+                try{
+                    base.evaluate();
+                    context.moveToCurrentThread();
+                    context.verify();
+                    passed = true;
+                } finally {
+                    synchronized(MockContextRule.this){
+                        MockContextRule.this.context = null;
+                        context.moveToCurrentThread();
+                    }
+                    if(passed){
+                        context.close();
+                    } else {
+                        context.detach();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the context of the test running on the calling thread. If the rule opened the context on
+     * another thread, and the test body runs on the calling thread, the context is moved to the calling thread.
+     * @return The context of the test running on the calling thread.
+     * @throws IllegalStateException If no test is running on the calling thread.
+     */
+    public MockContext getContext(){
+        MockContext context = MockContext.current();
+        if(context != null){
+            return context;
+        }
+        synchronized(this){
+            context = this.context;
+            if(context != null && context.getThread() == this.thread){
+                context.moveToCurrentThread();
+                return context;
+            }
+        }
+        throw new IllegalStateException("No MockContext open on thread " + Thread.currentThread().getName());
+    }
+
+    /**
+     * Creates a mock that implements the target interface in the context of the running test.
+     * @param proxyInterface The interface the mock is to implement.
+     * @return A mock that implements the target interface.
+     */
+    public Object createProxy(Class proxyInterface){
+        return getContext().createProxy(proxyInterface);
+    }
+}
@@ -0,0 +1,499 @@
+package com.jenkov.testing.mock.processor;
+
+import com.jenkov.testing.mock.itf.GenerateMock;
+import com.jenkov.testing.mock.itf.IMock;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An annotation processor which generates mock classes for the interfaces named by <code>&#64;GenerateMock</code>
+ * annotations, so <code>MockFactory</code> can create mocks for them without generating proxy classes at runtime.
+ * The processor is registered in <code>META-INF/services</code>, so <code>javac</code> runs it automatically when
+ * this jar is on the classpath of the test sources.
+ *
+ * <br/><br/>
+ * A generated mock class implements the mocked interface, <code>IMock</code> and <code>IGeneratedMock</code>.
+ * Each method of the mocked interface passes its invocation to the invocation handler of the mock, together
+ * with a <code>Method</code> instance resolved once when the class is initialized. Methods returning
+ * <code>int</code>, <code>long</code>, <code>double</code> or <code>boolean</code> call the handler without
+ * boxing the result if it is an <code>IPrimitiveInvocationHandler</code>. The <code>IMock</code> methods are
+ * called on the handler directly. <code>__dispatch()</code> forwards an invocation to a target object with a
+ * switch on the method index, instead of by reflection. <code>equals()</code>, <code>hashCode()</code> and
+ * <code>toString()</code> are passed to the handler too, with the <code>Method</code> instances of
+ * <code>Object</code>, as <code>java.lang.reflect.Proxy</code> passes them.
+ *
+ * <br/><br/>
+ * Generic interfaces are implemented as raw types. The processor writes an index of the generated classes to
+ * <code>META-INF/butterfly/generated-mocks</code>, which <code>GeneratedMocks</code> reads at runtime.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class MockProcessor extends AbstractProcessor {
+
+    /**
+     * The resource the processor lists the generated mock classes in, one
+     * <code>interface=mock class</code> line per class, using binary class names.
+     */
+    public static final String INDEX = "META-INF/butterfly/generated-mocks";
+
+    protected static final String HANDLER   = "java.lang.reflect.InvocationHandler";
+    protected static final String PRIMITIVE = "com.jenkov.testing.mock.itf.IPrimitiveInvocationHandler";
+    protected static final String METHOD    = "java.lang.reflect.Method";
+
+    protected Map generated = new LinkedHashMap();
+
+    public Set getSupportedAnnotationTypes() {
+        return Collections.singleton(GenerateMock.class.getName());
+    }
+
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    public boolean process(Set annotations, RoundEnvironment roundEnvironment) {
+        if(roundEnvironment.processingOver()){
+            writeIndex();
+            return false;
+        }
+        TypeElement annotation = this.processingEnv.getElementUtils().getTypeElement(GenerateMock.class.getName());
+        Iterator elements = roundEnvironment.getElementsAnnotatedWith(annotation).iterator();
+        while(elements.hasNext()){
+            TypeElement annotated = (TypeElement) elements.next();
+            List interfaces = mockedInterfaces(annotated);
+            if(interfaces.isEmpty()){
+                if(annotated.getKind() != ElementKind.INTERFACE){
+                    error(annotated, "@GenerateMock on a class must list the interfaces to mock");
+                    continue;
+                }
+                interfaces.add(annotated);
+            }
+            for(int i=0; i<interfaces.size(); i++){
+                generateMock(annotated, (TypeElement) interfaces.get(i));
+            }
+        }
+        return true;
+    }
+
+    private List mockedInterfaces(TypeElement annotated) {
+        List interfaces = new ArrayList();
+        Iterator mirrors = annotated.getAnnotationMirrors().iterator();
+        while(mirrors.hasNext()){
+            AnnotationMirror mirror = (AnnotationMirror) mirrors.next();
+            if(!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(GenerateMock.class.getName())){
+                continue;
+            }
+            Iterator values = mirror.getElementValues().values().iterator();
+            while(values.hasNext()){
+                List classes = (List) ((AnnotationValue) values.next()).getValue();
+                for(int i=0; i<classes.size(); i++){
+                    TypeMirror type = (TypeMirror) ((AnnotationValue) classes.get(i)).getValue();
+                    interfaces.add(((DeclaredType) type).asElement());
+                }
+            }
+        }
+        return interfaces;
+    }
+
+    private void generateMock(TypeElement annotated, TypeElement mocked) {
+        String interfaceName = this.processingEnv.getElementUtils().getBinaryName(mocked).toString();
+        if(this.generated.containsKey(interfaceName)){
+            return;
+        }
+        if(mocked.getKind() != ElementKind.INTERFACE){
+            error(annotated, mocked.getQualifiedName() + " is not an interface");
+            return;
+        }
+        PackageElement mockPackage = this.processingEnv.getElementUtils().getPackageOf(annotated);
+        if(!mocked.getModifiers().contains(Modifier.PUBLIC)
+                && !this.processingEnv.getElementUtils().getPackageOf(mocked).equals(mockPackage)){
+            error(annotated, mocked.getQualifiedName() + " is not public, and not in the package of the annotated type");
+            return;
+        }
+
+        String packageName = mockPackage.isUnnamed() ? "" : mockPackage.getQualifiedName().toString();
+        String simpleName  = mockedName(mocked) + "Mock";
+        String className   = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+
+        List methods     = new ArrayList();
+        Set  signatures  = new HashSet();
+        collectObjectMethods(methods, signatures);
+        collectMethods(mocked, methods, signatures);
+        List mockMethods = new ArrayList();
+        collectMethods(this.processingEnv.getElementUtils().getTypeElement(IMock.class.getName()), mockMethods, signatures);
+
+        try{
+            JavaFileObject file = this.processingEnv.getFiler().createSourceFile(className, new Element[]{annotated, mocked});
+            Writer writer = file.openWriter();
+            try{
+                writer.write(generateSource(packageName, simpleName, mocked, methods, mockMethods));
+            } finally {
+                writer.close();
+            }
+        } catch(IOException e){
+            error(annotated, "Could not write " + className + ": " + e.getMessage());
+            return;
+        }
+        this.generated.put(interfaceName, className);
+    }
+
+    /**
+     * Returns the simple names of the interface and the types it is nested in, joined by underscores.
+     */
+    private String mockedName(TypeElement mocked) {
+        String name = mocked.getSimpleName().toString();
+        Element enclosing = mocked.getEnclosingElement();
+        while(enclosing instanceof TypeElement){
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    /**
+     * Collects <code>hashCode()</code>, <code>equals()</code> and <code>toString()</code> from <code>Object</code>,
+     * so the generated mock passes them to the handler like <code>java.lang.reflect.Proxy</code> does, also if the
+     * mocked interface redeclares them.
+     */
+    private void collectObjectMethods(List methods, Set signatures) {
+        TypeElement object = this.processingEnv.getElementUtils().getTypeElement("java.lang.Object");
+        List objectMethods = new ArrayList();
+        collectMethods(object, objectMethods, new HashSet());
+        String[] names = new String[]{"hashCode", "equals", "toString"};
+        for(int n=0; n<names.length; n++){
+            for(int i=0; i<objectMethods.size(); i++){
+                ExecutableElement method = (ExecutableElement) ((Object[]) objectMethods.get(i))[1];
+                if(method.getSimpleName().contentEquals(names[n]) && method.getModifiers().contains(Modifier.PUBLIC)){
+                    methods.add(objectMethods.get(i));
+                    signatures.add(names[n] + (names[n].equals("equals") ? "(java.lang.Object)" : "()"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the instance methods of the given interface and its superinterfaces, as
+     * <code>Object[]{declaring interface, method}</code> pairs. A method overridden by a method seen
+     * before, i.e. with the same name and erased parameter types, is skipped.
+     */
+    private void collectMethods(TypeElement type, List methods, Set signatures) {
+        Iterator members = type.getEnclosedElements().iterator();
+        while(members.hasNext()){
+            Element member = (Element) members.next();
+            if(member.getKind() != ElementKind.METHOD) continue;
+            if(member.getModifiers().contains(Modifier.STATIC) || member.getModifiers().contains(Modifier.PRIVATE)) continue;
+
+            ExecutableElement method = (ExecutableElement) member;
+            StringBuilder signature = new StringBuilder();
+            signature.append(method.getSimpleName()).append('(');
+            for(int i=0; i<method.getParameters().size(); i++){
+                if(i > 0) signature.append(',');
+                signature.append(typeName(((VariableElement) method.getParameters().get(i)).asType()));
+            }
+            signature.append(')');
+            if(signatures.add(signature.toString())){
+                methods.add(new Object[]{type, method});
+            }
+        }
+        Iterator superInterfaces = type.getInterfaces().iterator();
+        while(superInterfaces.hasNext()){
+            collectMethods((TypeElement) ((DeclaredType) superInterfaces.next()).asElement(), methods, signatures);
+        }
+    }
+
+    private String generateSource(String packageName, String simpleName, TypeElement mocked, List methods, List mockMethods) {
+        String mockedType = mocked.getQualifiedName().toString();
+        StringBuilder source = new StringBuilder();
+        if(packageName.length() > 0){
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Mock of ").append(mockedType).append(", generated by ")
+              .append(MockProcessor.class.getName()).append(". Do not edit.\n */\n");
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(mockedType)
+              .append(", com.jenkov.testing.mock.itf.IMock, com.jenkov.testing.mock.itf.IGeneratedMock {\n\n");
+
+        source.append("    private static final ").append(METHOD).append("[] METHODS = methods();\n");
+        source.append("    private static final java.util.Map INDEXES = indexes();\n\n");
+        source.append("    private final ").append(HANDLER).append(" handler;\n");
+        source.append("    private final ").append(PRIMITIVE).append(" primitiveHandler;\n\n");
+
+        source.append("    public ").append(simpleName).append("(").append(HANDLER).append(" handler) {\n");
+        source.append("        this.handler          = handler;\n");
+        source.append("        this.primitiveHandler = handler instanceof ").append(PRIMITIVE)
+              .append(" ? (").append(PRIMITIVE).append(") handler : null;\n");
+        source.append("    }\n\n");
+
+        source.append("    private static ").append(METHOD).append("[] methods() {\n");
+        source.append("        try{\n");
+        source.append("            return new ").append(METHOD).append("[]{\n");
+        for(int i=0; i<methods.size(); i++){
+            TypeElement       declaring = (TypeElement) ((Object[]) methods.get(i))[0];
+            ExecutableElement method    = (ExecutableElement) ((Object[]) methods.get(i))[1];
+            source.append("                ").append(declaring.getQualifiedName()).append(".class.getMethod(\"")
+                  .append(method.getSimpleName()).append("\", new Class[]{");
+            for(int p=0; p<method.getParameters().size(); p++){
+                if(p > 0) source.append(", ");
+                source.append(typeName(((VariableElement) method.getParameters().get(p)).asType())).append(".class");
+            }
+            source.append("})").append(i < methods.size() - 1 ? ",\n" : "\n");
+        }
+        source.append("            };\n");
+        source.append("        } catch(NoSuchMethodException e){\n");
+        source.append("            throw new NoSuchMethodError(e.getMessage());\n");
+        source.append("        }\n");
+        source.append("    }\n\n");
+
+        source.append("    private static java.util.Map indexes() {\n");
+        source.append("        java.util.Map indexes = new java.util.HashMap();\n");
+        source.append("        for(int i=0; i<METHODS.length; i++){\n");
+        source.append("            indexes.put(METHODS[i], Integer.valueOf(i));\n");
+        source.append("        }\n");
+        source.append("        return indexes;\n");
+        source.append("    }\n\n");
+
+        source.append("    public ").append(HANDLER).append(" __invocationHandler() {\n");
+        source.append("        return this.handler;\n");
+        source.append("    }\n\n");
+
+        source.append("    public int __methodIndex(").append(METHOD).append(" method) {\n");
+        source.append("        Integer index = (Integer) INDEXES.get(method);\n");
+        source.append("        return index == null ? -1 : index.intValue();\n");
+        source.append("    }\n\n");
+
+        source.append("    public Object __dispatch(int methodIndex, Object target, Object[] parameters) throws Throwable {\n");
+        source.append("        switch(methodIndex){\n");
+        for(int i=0; i<methods.size(); i++){
+            TypeElement       declaring = (TypeElement) ((Object[]) methods.get(i))[0];
+            ExecutableElement method    = (ExecutableElement) ((Object[]) methods.get(i))[1];
+            StringBuilder call = new StringBuilder();
+            call.append("((").append(declaring.getQualifiedName()).append(") target).").append(method.getSimpleName()).append("(");
+            for(int p=0; p<method.getParameters().size(); p++){
+                if(p > 0) call.append(", ");
+                call.append(unboxed(((VariableElement) method.getParameters().get(p)).asType(), "parameters[" + p + "]"));
+            }
+            call.append(")");
+            source.append("            case ").append(i).append(": ");
+            if(method.getReturnType().getKind() == TypeKind.VOID){
+                source.append(call).append("; return null;\n");
+            } else {
+                source.append("return ").append(call).append(";\n");
+            }
+        }
+        source.append("            default: throw new IllegalArgumentException(\"No method with index \" + methodIndex);\n");
+        source.append("        }\n");
+        source.append("    }\n");
+
+        for(int i=0; i<methods.size(); i++){
+            appendProxyMethod(source, i, (ExecutableElement) ((Object[]) methods.get(i))[1]);
+        }
+        for(int i=0; i<mockMethods.size(); i++){
+            appendMockMethod(source, (ExecutableElement) ((Object[]) mockMethods.get(i))[1]);
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private void appendProxyMethod(StringBuilder source, int index, ExecutableElement method) {
+        appendSignature(source, method);
+
+        String arguments = "this, METHODS[" + index + "], " + argumentArray(method);
+        TypeMirror returnType = method.getReturnType();
+        source.append("        try{\n");
+        switch(returnType.getKind()){
+            case VOID:
+                source.append("            this.handler.invoke(").append(arguments).append(");\n");
+                break;
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case BOOLEAN:
+                String kind = returnType.getKind().name();
+                source.append("            if(this.primitiveHandler != null){\n");
+                source.append("                return this.primitiveHandler.invoke").append(kind.charAt(0)).append(kind.substring(1).toLowerCase())
+                      .append("(").append(arguments).append(");\n");
+                source.append("            }\n");
+                source.append("            return ").append(unboxed(returnType, "this.handler.invoke(" + arguments + ")")).append(";\n");
+                break;
+            default:
+                source.append("            return ").append(unboxed(returnType, "this.handler.invoke(" + arguments + ")")).append(";\n");
+        }
+        source.append("        } catch(RuntimeException e){\n");
+        source.append("            throw e;\n");
+        source.append("        } catch(Error e){\n");
+        source.append("            throw e;\n");
+        source.append("        }");
+
+        List thrown = caughtExceptions(method);
+        boolean throwsThrowable = false;
+        for(int i=0; i<thrown.size(); i++){
+            String name = typeName((TypeMirror) thrown.get(i));
+            throwsThrowable |= name.equals("java.lang.Throwable");
+            source.append(" catch(").append(name).append(" e){\n");
+            source.append("            throw e;\n");
+            source.append("        }");
+        }
+        if(!throwsThrowable){
+            source.append(" catch(Throwable e){\n");
+            source.append("            throw new java.lang.reflect.UndeclaredThrowableException(e);\n");
+            source.append("        }");
+        }
+        source.append("\n    }\n");
+    }
+
+    private void appendMockMethod(StringBuilder source, ExecutableElement method) {
+        appendSignature(source, method);
+        source.append("        ");
+        if(method.getReturnType().getKind() != TypeKind.VOID){
+            source.append("return ");
+        }
+        source.append("((com.jenkov.testing.mock.itf.IMock) this.handler).").append(method.getSimpleName()).append("(");
+        for(int i=0; i<method.getParameters().size(); i++){
+            if(i > 0) source.append(", ");
+            source.append("p").append(i);
+        }
+        source.append(");\n    }\n");
+    }
+
+    private void appendSignature(StringBuilder source, ExecutableElement method) {
+        source.append("\n    public ").append(typeName(method.getReturnType())).append(' ').append(method.getSimpleName()).append("(");
+        for(int i=0; i<method.getParameters().size(); i++){
+            if(i > 0) source.append(", ");
+            source.append(typeName(((VariableElement) method.getParameters().get(i)).asType())).append(" p").append(i);
+        }
+        source.append(")");
+        for(int i=0; i<method.getThrownTypes().size(); i++){
+            source.append(i == 0 ? " throws " : ", ").append(typeName((TypeMirror) method.getThrownTypes().get(i)));
+        }
+        source.append(" {\n");
+    }
+
+    private String argumentArray(ExecutableElement method) {
+        if(method.getParameters().isEmpty()){
+            return "null";
+        }
+        StringBuilder array = new StringBuilder("new Object[]{");
+        for(int i=0; i<method.getParameters().size(); i++){
+            if(i > 0) array.append(", ");
+            array.append("p").append(i);
+        }
+        return array.append("}").toString();
+    }
+
+    /**
+     * Returns the checked exceptions declared by the method which need a catch clause of their own:
+     * those that are not runtime exceptions or errors, and not subclasses of another declared exception.
+     */
+    private List caughtExceptions(ExecutableElement method) {
+        TypeMirror runtimeException = type("java.lang.RuntimeException");
+        TypeMirror error            = type("java.lang.Error");
+        List checked = new ArrayList();
+        for(int i=0; i<method.getThrownTypes().size(); i++){
+            TypeMirror exception = this.processingEnv.getTypeUtils().erasure((TypeMirror) method.getThrownTypes().get(i));
+            if(!isSubtype(exception, runtimeException) && !isSubtype(exception, error)){
+                checked.add(exception);
+            }
+        }
+        List thrown = new ArrayList();
+        for(int i=0; i<checked.size(); i++){
+            TypeMirror exception = (TypeMirror) checked.get(i);
+            boolean covered = false;
+            for(int j=0; j<checked.size() && !covered; j++){
+                TypeMirror other = (TypeMirror) checked.get(j);
+                covered = this.processingEnv.getTypeUtils().isSameType(exception, other)
+                        ? j < i
+                        : isSubtype(exception, other);
+            }
+            if(!covered) thrown.add(exception);
+        }
+        return thrown;
+    }
+
+    private boolean isSubtype(TypeMirror type, TypeMirror superType) {
+        return this.processingEnv.getTypeUtils().isSubtype(type, superType);
+    }
+
+    private TypeMirror type(String name) {
+        return this.processingEnv.getElementUtils().getTypeElement(name).asType();
+    }
+
+    /**
+     * Returns an expression converting the given <code>Object</code> expression to the given type:
+     * a cast for reference types, and a cast to the wrapper type plus unboxing for primitive types.
+     */
+    private String unboxed(TypeMirror type, String expression) {
+        if(type.getKind().isPrimitive()){
+            String wrapper = this.processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) type).getQualifiedName().toString();
+            return "((" + wrapper + ") " + expression + ")." + typeName(type) + "Value()";
+        }
+        String name = typeName(type);
+        return name.equals("java.lang.Object") ? expression : "(" + name + ") " + expression;
+    }
+
+    /**
+     * Returns the source name of the erasure of the given type, without any type annotations.
+     */
+    private String typeName(TypeMirror type) {
+        TypeMirror erased = this.processingEnv.getTypeUtils().erasure(type);
+        if(erased.getKind().isPrimitive() || erased.getKind() == TypeKind.VOID){
+            return erased.getKind().name().toLowerCase();
+        }
+        if(erased.getKind() == TypeKind.ARRAY){
+            return typeName(((ArrayType) erased).getComponentType()) + "[]";
+        }
+        return ((TypeElement) ((DeclaredType) erased).asElement()).getQualifiedName().toString();
+    }
+
+    private void writeIndex() {
+        if(this.generated.isEmpty()){
+            return;
+        }
+        try{
+            FileObject file = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            Writer writer = file.openWriter();
+            try{
+                Iterator entries = this.generated.entrySet().iterator();
+                while(entries.hasNext()){
+                    Map.Entry entry = (Map.Entry) entries.next();
+                    writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+        } catch(IOException e){
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
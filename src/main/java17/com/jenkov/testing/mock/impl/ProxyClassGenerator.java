@@ -0,0 +1,436 @@
+package com.jenkov.testing.mock.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the class file of a proxy class. The proxy class implements the given interfaces by calling
+ * <code>handler.invoke(this, methods[i], parameters)</code> for method number <code>i</code>, exactly like a
+ * <code>java.lang.reflect.Proxy</code> class does: parameters of primitive types are boxed, the result is
+ * cast or unboxed to the return type, and checked exceptions the method does not declare are wrapped in an
+ * <code>UndeclaredThrowableException</code>. Methods returning <code>int</code>, <code>long</code>,
+ * <code>double</code> or <code>boolean</code> call the matching method of the handler instead, if the handler
+ * is an <code>IPrimitiveInvocationHandler</code>, so the result is not boxed.
+ *
+ * <br/><br/>
+ * The class has a constructor taking the <code>InvocationHandler</code> and the same handler as an
+ * <code>IPrimitiveInvocationHandler</code>, or null if it is not one, a static <code>methods</code> field
+ * which must be set before the first invocation, and implements <code>ProxyEngine.Generated</code> to give
+ * the handler back. The class file version is 49, so the class is verified by type inference, and the
+ * generated code needs no <code>StackMapTable</code> attributes.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+class ProxyClassGenerator {
+
+    static final String HANDLER_FIELD   = "handler";
+    static final String PRIMITIVE_FIELD = "primitiveHandler";
+    static final String METHODS_FIELD   = "methods";
+
+    private static final int    VERSION          = 49;
+    private static final String OBJECT           = "java/lang/Object";
+    private static final String HANDLER          = "java/lang/reflect/InvocationHandler";
+    private static final String HANDLER_DESC     = "Ljava/lang/reflect/InvocationHandler;";
+    private static final String PRIMITIVE        = "com/jenkov/testing/mock/itf/IPrimitiveInvocationHandler";
+    private static final String PRIMITIVE_DESC   = "L" + PRIMITIVE + ";";
+    private static final String INVOKE_DESC      = "(Ljava/lang/Object;Ljava/lang/reflect/Method;[Ljava/lang/Object;)";
+    private static final String METHODS_DESC     = "[Ljava/lang/reflect/Method;";
+    private static final String UNDECLARED       = "java/lang/reflect/UndeclaredThrowableException";
+    private static final String GENERATED        = "com/jenkov/testing/mock/impl/ProxyEngine$Generated";
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream      pool      = new DataOutputStream(poolBytes);
+    private final Map                   entries   = new HashMap();
+    private int                         poolCount = 1;
+
+    private final String className;
+
+    private ProxyClassGenerator(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Writes the class file of a proxy class with the given name.
+     * @param className  The internal name of the class, e.g. <code>com/jenkov/testing/mock/impl/Proxy</code>.
+     * @param interfaces The interfaces the class implements.
+     * @param methods    The methods to implement. Method number <code>i</code> is dispatched with
+     *                   <code>methods[i]</code>.
+     * @return The class file.
+     */
+    static byte[] generate(String className, Class[] interfaces, Method[] methods) {
+        try{
+            return new ProxyClassGenerator(className).generateClass(interfaces, methods);
+        } catch(IOException e){
+            throw new IllegalStateException("Could not write proxy class " + className, e);
+        }
+    }
+
+    private byte[] generateClass(Class[] interfaces, Method[] methods) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        body.writeShort(0x0031);                        // public final super
+        body.writeShort(classRef(this.className));
+        body.writeShort(classRef(OBJECT));
+
+        body.writeShort(interfaces.length + 1);
+        for(int i=0; i<interfaces.length; i++){
+            body.writeShort(classRef(internalName(interfaces[i])));
+        }
+        body.writeShort(classRef(GENERATED));
+
+        body.writeShort(3);
+        writeMember(body, 0x0012, HANDLER_FIELD, HANDLER_DESC);        // private final
+        writeMember(body, 0x0012, PRIMITIVE_FIELD, PRIMITIVE_DESC);    // private final
+        writeMember(body, 0x000A, METHODS_FIELD, METHODS_DESC);        // private static
+
+        body.writeShort(methods.length + 2);
+        writeConstructor(body);
+        writeHandlerGetter(body);
+        for(int i=0; i<methods.length; i++){
+            writeProxyMethod(body, i, methods[i]);
+        }
+        body.writeShort(0);
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classBytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(VERSION);
+        out.writeShort(this.poolCount);
+        out.write(this.poolBytes.toByteArray());
+        out.write(bodyBytes.toByteArray());
+        return classBytes.toByteArray();
+    }
+
+    private void writeMember(DataOutputStream out, int access, String name, String descriptor) throws IOException {
+        out.writeShort(access);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(0);
+    }
+
+    private void writeConstructor(DataOutputStream out) throws IOException {
+        Code code = new Code();
+        code.op(0x2A);                                                  // aload_0
+        code.op(0xB7).u2(methodRef(OBJECT, "<init>", "()V"));           // invokespecial
+        code.op(0x2A);                                                  // aload_0
+        code.op(0x2B);                                                  // aload_1
+        code.op(0xB5).u2(fieldRef(this.className, HANDLER_FIELD, HANDLER_DESC)); // putfield
+        code.op(0x2A);                                                  // aload_0
+        code.op(0x2C);                                                  // aload_2
+        code.op(0xB5).u2(fieldRef(this.className, PRIMITIVE_FIELD, PRIMITIVE_DESC)); // putfield
+        code.op(0xB1);                                                  // return
+        writeMethod(out, 0x0001, "<init>", "(" + HANDLER_DESC + PRIMITIVE_DESC + ")V", code, 2, 3);
+    }
+
+    private void writeHandlerGetter(DataOutputStream out) throws IOException {
+        Code code = new Code();
+        code.op(0x2A);                                                  // aload_0
+        code.op(0xB4).u2(fieldRef(this.className, HANDLER_FIELD, HANDLER_DESC)); // getfield
+        code.op(0xB0);                                                  // areturn
+        writeMethod(out, 0x0011, ProxyEngine.HANDLER_METHOD, "()" + HANDLER_DESC, code, 1, 1);
+    }
+
+    private void writeProxyMethod(DataOutputStream out, int index, Method method) throws IOException {
+        Class[] parameterTypes = method.getParameterTypes();
+        Class   returnType     = method.getReturnType();
+        Code    code           = new Code();
+
+        /* int, long, double and boolean results skip the boxing if the handler can return them directly */
+        String primitiveMethod = primitiveInvokeMethod(returnType);
+        if(primitiveMethod != null){
+            code.op(0x2A);                                              // aload_0
+            code.op(0xB4).u2(fieldRef(this.className, PRIMITIVE_FIELD, PRIMITIVE_DESC)); // getfield
+            int branch = code.length();
+            code.op(0xC6).u2(0);                                        // ifnull, patched below
+            code.op(0x2A);                                              // aload_0
+            code.op(0xB4).u2(fieldRef(this.className, PRIMITIVE_FIELD, PRIMITIVE_DESC)); // getfield
+            writeInvokeArguments(code, index, parameterTypes);
+            code.op(0xB9).u2(interfaceMethodRef(PRIMITIVE, primitiveMethod,
+                    INVOKE_DESC + descriptor(returnType))).u1(4).u1(0); // invokeinterface
+            code.op(returnOpcode(returnType));
+            code.patch(branch + 1, code.length() - branch);
+        }
+
+        code.op(0x2A);                                                  // aload_0
+        code.op(0xB4).u2(fieldRef(this.className, HANDLER_FIELD, HANDLER_DESC)); // getfield
+        writeInvokeArguments(code, index, parameterTypes);
+        code.op(0xB9).u2(interfaceMethodRef(HANDLER, "invoke", INVOKE_DESC + "Ljava/lang/Object;")).u1(4).u1(0); // invokeinterface
+
+        if(returnType == void.class){
+            code.op(0x57);                                              // pop
+            code.op(0xB1);                                              // return
+        } else if(returnType.isPrimitive()){
+            String wrapper = wrapperName(returnType);
+            code.op(0xC0).u2(classRef(wrapper));                        // checkcast
+            code.op(0xB6).u2(methodRef(wrapper, returnType.getName() + "Value", "()" + descriptor(returnType))); // invokevirtual
+            code.op(returnOpcode(returnType));
+        } else {
+            if(returnType != Object.class){
+                code.op(0xC0).u2(classRef(internalName(returnType)));   // checkcast
+            }
+            code.op(0xB0);                                              // areturn
+        }
+
+        /* Exceptions the method may throw are rethrown as they are, other checked exceptions are wrapped */
+        int tryEnd   = code.length();
+        int rethrow  = code.length();
+        code.op(0xBF);                                                  // athrow
+        code.handler(0, tryEnd, rethrow, classRef("java/lang/RuntimeException"));
+        code.handler(0, tryEnd, rethrow, classRef("java/lang/Error"));
+
+        boolean throwsAll = false;
+        Class[] exceptionTypes = method.getExceptionTypes();
+        for(int i=0; i<exceptionTypes.length; i++){
+            code.handler(0, tryEnd, rethrow, classRef(internalName(exceptionTypes[i])));
+            throwsAll |= exceptionTypes[i] == Throwable.class;
+        }
+        if(!throwsAll){
+            int wrap = code.length();
+            code.op(0xBB).u2(classRef(UNDECLARED));                     // new
+            code.op(0x5A);                                              // dup_x1
+            code.op(0x5F);                                              // swap
+            code.op(0xB7).u2(methodRef(UNDECLARED, "<init>", "(Ljava/lang/Throwable;)V")); // invokespecial
+            code.op(0xBF);                                              // athrow
+            code.handler(0, tryEnd, wrap, classRef("java/lang/Throwable"));
+        }
+
+        StringBuilder methodDescriptor = new StringBuilder("(");
+        for(int i=0; i<parameterTypes.length; i++){
+            methodDescriptor.append(descriptor(parameterTypes[i]));
+        }
+        methodDescriptor.append(')').append(descriptor(returnType));
+
+        writeMethod(out, 0x0011, method.getName(), methodDescriptor.toString(), code, 10, parameterSlots(parameterTypes));
+    }
+
+    /**
+     * Writes the code pushing the proxy, <code>methods[index]</code> and the parameter array, boxing
+     * primitive parameters, as the arguments of an invocation handler call.
+     */
+    private void writeInvokeArguments(Code code, int index, Class[] parameterTypes) throws IOException {
+        code.op(0x2A);                                                  // aload_0
+        code.op(0xB2).u2(fieldRef(this.className, METHODS_FIELD, METHODS_DESC)); // getstatic
+        code.pushInt(index);
+        code.op(0x32);                                                  // aaload
+
+        if(parameterTypes.length == 0){
+            code.op(0x01);                                              // aconst_null
+            return;
+        }
+        code.pushInt(parameterTypes.length);
+        code.op(0xBD).u2(classRef(OBJECT));                             // anewarray
+        int slot = 1;
+        for(int i=0; i<parameterTypes.length; i++){
+            Class type = parameterTypes[i];
+            code.op(0x59);                                              // dup
+            code.pushInt(i);
+            code.op(loadOpcode(type)).u1(slot);
+            if(type.isPrimitive()){
+                String wrapper = wrapperName(type);
+                code.op(0xB8).u2(methodRef(wrapper, "valueOf", "(" + descriptor(type) + ")L" + wrapper + ";")); // invokestatic
+            }
+            code.op(0x53);                                              // aastore
+            slot += type == long.class || type == double.class ? 2 : 1;
+        }
+    }
+
+    private static int parameterSlots(Class[] parameterTypes) {
+        int slots = 1;
+        for(int i=0; i<parameterTypes.length; i++){
+            slots += parameterTypes[i] == long.class || parameterTypes[i] == double.class ? 2 : 1;
+        }
+        return slots;
+    }
+
+    private static String primitiveInvokeMethod(Class returnType) {
+        if(returnType == int.class)     return "invokeInt";
+        if(returnType == long.class)    return "invokeLong";
+        if(returnType == double.class)  return "invokeDouble";
+        if(returnType == boolean.class) return "invokeBoolean";
+        return null;
+    }
+
+    private void writeMethod(DataOutputStream out, int access, String name, String descriptor,
+                             Code code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(access);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1);
+
+        byte[] bytes = code.bytes.toByteArray();
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + bytes.length + 8 * code.handlers.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(code.handlers.size());
+        for(int i=0; i<code.handlers.size(); i++){
+            int[] handler = (int[]) code.handlers.get(i);
+            out.writeShort(handler[0]);
+            out.writeShort(handler[1]);
+            out.writeShort(handler[2]);
+            out.writeShort(handler[3]);
+        }
+        out.writeShort(0);
+    }
+
+    private int utf8(String value) throws IOException {
+        Integer index = (Integer) this.entries.get("U" + value);
+        if(index != null) return index.intValue();
+
+        this.pool.writeByte(1);
+        this.pool.writeUTF(value);
+        return addEntry("U" + value);
+    }
+
+    private int classRef(String internalName) throws IOException {
+        Integer index = (Integer) this.entries.get("C" + internalName);
+        if(index != null) return index.intValue();
+
+        int name = utf8(internalName);
+        this.pool.writeByte(7);
+        this.pool.writeShort(name);
+        return addEntry("C" + internalName);
+    }
+
+    private int nameAndType(String name, String descriptor) throws IOException {
+        String key = "N" + name + " " + descriptor;
+        Integer index = (Integer) this.entries.get(key);
+        if(index != null) return index.intValue();
+
+        int nameIndex       = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        this.pool.writeByte(12);
+        this.pool.writeShort(nameIndex);
+        this.pool.writeShort(descriptorIndex);
+        return addEntry(key);
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) throws IOException {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) throws IOException {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    private int interfaceMethodRef(String owner, String name, String descriptor) throws IOException {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+        String key = tag + owner + "." + name + " " + descriptor;
+        Integer index = (Integer) this.entries.get(key);
+        if(index != null) return index.intValue();
+
+        int ownerIndex       = classRef(owner);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        this.pool.writeByte(tag);
+        this.pool.writeShort(ownerIndex);
+        this.pool.writeShort(nameAndTypeIndex);
+        return addEntry(key);
+    }
+
+    private int addEntry(String key) {
+        int index = this.poolCount++;
+        this.entries.put(key, Integer.valueOf(index));
+        return index;
+    }
+
+    static String internalName(Class type) {
+        return type.getName().replace('.', '/');
+    }
+
+    static String descriptor(Class type) {
+        if(type == void.class)    return "V";
+        if(type == boolean.class) return "Z";
+        if(type == byte.class)    return "B";
+        if(type == char.class)    return "C";
+        if(type == short.class)   return "S";
+        if(type == int.class)     return "I";
+        if(type == long.class)    return "J";
+        if(type == float.class)   return "F";
+        if(type == double.class)  return "D";
+        if(type.isArray())        return type.getName().replace('.', '/');
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    private static String wrapperName(Class type) {
+        if(type == boolean.class) return "java/lang/Boolean";
+        if(type == byte.class)    return "java/lang/Byte";
+        if(type == char.class)    return "java/lang/Character";
+        if(type == short.class)   return "java/lang/Short";
+        if(type == int.class)     return "java/lang/Integer";
+        if(type == long.class)    return "java/lang/Long";
+        if(type == float.class)   return "java/lang/Float";
+        return "java/lang/Double";
+    }
+
+    private static int loadOpcode(Class type) {
+        if(!type.isPrimitive())  return 0x19;  // aload
+        if(type == long.class)   return 0x16;  // lload
+        if(type == float.class)  return 0x17;  // fload
+        if(type == double.class) return 0x18;  // dload
+        return 0x15;                           // iload
+    }
+
+    private static int returnOpcode(Class type) {
+        if(type == long.class)   return 0xAD;  // lreturn
+        if(type == float.class)  return 0xAE;  // freturn
+        if(type == double.class) return 0xAF;  // dreturn
+        return 0xAC;                           // ireturn
+    }
+
+
+    private static class Code {
+        ByteArrayOutputStream bytes    = new ByteArrayOutputStream();
+        List                  handlers = new ArrayList();
+
+        Code op(int opcode) {
+            this.bytes.write(opcode);
+            return this;
+        }
+
+        Code u1(int value) {
+            this.bytes.write(value);
+            return this;
+        }
+
+        Code u2(int value) {
+            this.bytes.write(value >>> 8);
+            this.bytes.write(value);
+            return this;
+        }
+
+        void patch(int position, int value) {
+            byte[] bytes = this.bytes.toByteArray();
+            bytes[position]     = (byte) (value >>> 8);
+            bytes[position + 1] = (byte) value;
+            this.bytes.reset();
+            this.bytes.write(bytes, 0, bytes.length);
+        }
+
+        void pushInt(int value) {
+            if(value <= 5)        op(0x03 + value);          // iconst_<n>
+            else if(value <= 127) op(0x10).u1(value);        // bipush
+            else                  op(0x11).u2(value);        // sipush
+        }
+
+        void handler(int start, int end, int handler, int catchType) {
+            this.handlers.add(new int[]{start, end, handler, catchType});
+        }
+
+        int length() {
+            return this.bytes.size();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.jenkov.testing.mock.impl;
+
+import com.jenkov.testing.mock.itf.IPrimitiveInvocationHandler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the proxy objects behind the mocks created by <code>MockFactory</code>, and finds the invocation
+ * handler of such a proxy again. This is the Java 17 version of the class, loaded from
+ * <code>META-INF/versions/17</code> of the multi-release jar.
+ *
+ * <br/><br/>
+ * The proxy classes are written by <code>ProxyClassGenerator</code> and defined as hidden classes with
+ * <code>MethodHandles.Lookup.defineHiddenClass()</code>, once per combination of interfaces. New proxies are
+ * created through a constructor <code>MethodHandle</code>. Handlers implementing
+ * <code>IPrimitiveInvocationHandler</code> get <code>int</code>, <code>long</code>, <code>double</code> and
+ * <code>boolean</code> calls without boxing the result. The invocation handler is read back through
+ * the <code>Generated</code> interface instead of the global lookup <code>Proxy.getInvocationHandler()</code>
+ * does. The hidden classes are defined in the class loader of this class, so interfaces which are not
+ * public, not visible from that class loader, or not exported to its module, as well as methods with
+ * conflicting signatures, fall back to <code>java.lang.reflect.Proxy</code>.
+ *
+ * @author Jakob Jenkov - Copyright 2005 Jenkov Development
+ */
+public class ProxyEngine {
+
+    static final String HANDLER_METHOD = "__invocationHandler";
+
+    private static final String CLASS_NAME = "com/jenkov/testing/mock/impl/ProxyEngine$Proxy";
+    private static final Object FALLBACK   = new Object();
+
+    private static final MethodHandles.Lookup lookup       = MethodHandles.lookup();
+    private static final ConcurrentMap        constructors = new ConcurrentHashMap();
+
+    /**
+     * Implemented by the generated proxy classes.
+     */
+    interface Generated {
+        InvocationHandler __invocationHandler();
+    }
+
+    /**
+     * Returns the name of the engine, "hidden-class" for this version.
+     * @return The name of the engine.
+     */
+    public static String getName(){
+        return "hidden-class";
+    }
+
+    /**
+     * Creates a proxy implementing the given interfaces, which forwards all method calls to the given handler.
+     * @param classLoader The class loader to define the proxy class in, if it falls back to
+     *                    <code>java.lang.reflect.Proxy</code>.
+     * @param interfaces  The interfaces the proxy is to implement.
+     * @param handler     The handler to forward the method calls to.
+     * @return The proxy.
+     */
+    public static Object newProxyInstance(ClassLoader classLoader, Class[] interfaces, InvocationHandler handler){
+        Object constructor = constructorFor(interfaces);
+        if(constructor == FALLBACK){
+            return Proxy.newProxyInstance(classLoader, interfaces, handler);
+        }
+        return newInstance((MethodHandle) constructor, handler);
+    }
+
+    /**
+     * Defines the proxy class implementing the given interfaces, if not defined yet, and returns a constructor
+     * creating proxies of that class.
+     * @param classLoader The class loader to define the proxy class in, if it falls back to
+     *                    <code>java.lang.reflect.Proxy</code>.
+     * @param interfaces  The interfaces the proxies are to implement.
+     * @return A constructor creating proxies implementing the interfaces.
+     */
+    public static ProxyConstructor getProxyConstructor(final ClassLoader classLoader, Class[] interfaces){
+        final Object constructor = constructorFor(interfaces);
+        final Class[] proxyInterfaces = (Class[]) interfaces.clone();
+        if(constructor == FALLBACK){
+            return new ProxyConstructor() {
+                public Object newInstance(InvocationHandler handler) {
+                    return Proxy.newProxyInstance(classLoader, proxyInterfaces, handler);
+                }
+            };
+        }
+        return new ProxyConstructor() {
+            public Object newInstance(InvocationHandler handler) {
+                return ProxyEngine.newInstance((MethodHandle) constructor, handler);
+            }
+        };
+    }
+
+    private static Object constructorFor(Class[] interfaces) {
+        List key = Arrays.asList((Object[]) interfaces.clone());
+        Object constructor = constructors.get(key);
+        if(constructor == null){
+            constructor = defineProxyClass(interfaces);
+            Object existing = constructors.putIfAbsent(key, constructor);
+            if(existing != null) constructor = existing;
+        }
+        return constructor;
+    }
+
+    private static Object newInstance(MethodHandle constructor, InvocationHandler handler) {
+        try{
+            IPrimitiveInvocationHandler primitiveHandler =
+                    handler instanceof IPrimitiveInvocationHandler ? (IPrimitiveInvocationHandler) handler : null;
+            return (Object) constructor.invokeExact(handler, primitiveHandler);
+        } catch(RuntimeException e){
+            throw e;
+        } catch(Error e){
+            throw e;
+        } catch(Throwable t){
+            throw new IllegalStateException("Could not create proxy", t);
+        }
+    }
+
+    /**
+     * Returns the invocation handler of the given proxy.
+     * @param proxy A proxy created by <code>newProxyInstance()</code>.
+     * @return The invocation handler of the proxy.
+     * @throws IllegalArgumentException If the object is not a proxy.
+     */
+    public static InvocationHandler getInvocationHandler(Object proxy){
+        if(proxy instanceof Generated){
+            return ((Generated) proxy).__invocationHandler();
+        }
+        return Proxy.getInvocationHandler(proxy);
+    }
+
+    private static Object defineProxyClass(Class[] interfaces) {
+        Method[] methods = proxyMethods(interfaces);
+        if(methods == null){
+            return FALLBACK;
+        }
+        try{
+            byte[] classFile = ProxyClassGenerator.generate(CLASS_NAME, interfaces, methods);
+            MethodHandles.Lookup proxyLookup = lookup.defineHiddenClass(classFile, true);
+            Class proxyClass = proxyLookup.lookupClass();
+
+            proxyLookup.findStaticSetter(proxyClass, ProxyClassGenerator.METHODS_FIELD, Method[].class)
+                       .invoke(methods);
+            return proxyLookup.findConstructor(proxyClass,
+                        MethodType.methodType(void.class, InvocationHandler.class, IPrimitiveInvocationHandler.class))
+                    .asType(MethodType.methodType(Object.class, InvocationHandler.class, IPrimitiveInvocationHandler.class));
+        } catch(LinkageError e){
+            return FALLBACK;
+        } catch(ReflectiveOperationException e){
+            return FALLBACK;
+        } catch(Throwable t){
+            throw new IllegalStateException("Could not define proxy class for " + Arrays.asList(interfaces), t);
+        }
+    }
+
+    /**
+     * Returns the methods a proxy for the given interfaces must implement, in the same way
+     * <code>java.lang.reflect.Proxy</code> chooses them: <code>hashCode()</code>, <code>equals()</code> and
+     * <code>toString()</code> from <code>Object</code> first, then the methods of each interface in order,
+     * the first one winning for duplicate signatures. Returns null if the interfaces cannot be implemented by
+     * a hidden class.
+     */
+    private static Method[] proxyMethods(Class[] interfaces) {
+        Map methods = new LinkedHashMap();
+        try{
+            addMethod(methods, Object.class.getMethod("hashCode"));
+            addMethod(methods, Object.class.getMethod("equals", Object.class));
+            addMethod(methods, Object.class.getMethod("toString"));
+        } catch(NoSuchMethodException e){
+            throw new IllegalStateException(e);
+        }
+
+        Set seen = new HashSet();
+        for(int i=0; i<interfaces.length; i++){
+            if(!interfaces[i].isInterface() || !seen.add(interfaces[i]) || !isAccessible(interfaces[i])){
+                return null;
+            }
+            Method[] interfaceMethods = interfaces[i].getMethods();
+            for(int j=0; j<interfaceMethods.length; j++){
+                Method method = interfaceMethods[j];
+                if(Modifier.isStatic(method.getModifiers())) continue;
+
+                Method existing = (Method) methods.get(signature(method));
+                if(existing == null){
+                    if(!isAccessible(method)) return null;
+                    addMethod(methods, method);
+                } else if(existing.getDeclaringClass() != Object.class
+                        && (existing.getReturnType() != method.getReturnType()
+                            || !Arrays.equals(existing.getExceptionTypes(), method.getExceptionTypes()))){
+                    return null;
+                }
+            }
+        }
+        if(methods.size() > Short.MAX_VALUE) return null;
+
+        List list = new ArrayList(methods.values());
+        return (Method[]) list.toArray(new Method[list.size()]);
+    }
+
+    private static void addMethod(Map methods, Method method) {
+        methods.put(signature(method), method);
+    }
+
+    private static String signature(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        Class[] parameterTypes = method.getParameterTypes();
+        for(int i=0; i<parameterTypes.length; i++){
+            signature.append(ProxyClassGenerator.descriptor(parameterTypes[i]));
+        }
+        return signature.append(')').toString();
+    }
+
+    private static boolean isAccessible(Method method) {
+        if(HANDLER_METHOD.equals(method.getName())) return false;
+
+        Class[] parameterTypes = method.getParameterTypes();
+        int slots = 1;
+        for(int i=0; i<parameterTypes.length; i++){
+            if(!isAccessible(parameterTypes[i])) return false;
+            slots += parameterTypes[i] == long.class || parameterTypes[i] == double.class ? 2 : 1;
+        }
+        if(slots > 255) return false;
+
+        Class[] exceptionTypes = method.getExceptionTypes();
+        for(int i=0; i<exceptionTypes.length; i++){
+            if(!isAccessible(exceptionTypes[i])) return false;
+        }
+        return isAccessible(method.getReturnType());
+    }
+
+    /**
+     * Returns true if the generated class, defined in the class loader and module of this class, resolves
+     * the given type to the same class, and may access it.
+     */
+    private static boolean isAccessible(Class type) {
+        while(type.isArray()){
+            type = type.getComponentType();
+        }
+        if(type.isPrimitive()) return true;
+        if(!Modifier.isPublic(type.getModifiers())) return false;
+        if(!type.getModule().isExported(type.getPackageName(), ProxyEngine.class.getModule())) return false;
+        try{
+            return Class.forName(type.getName(), false, ProxyEngine.class.getClassLoader()) == type;
+        } catch(ClassNotFoundException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.AsyncForwarder;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.impl.QueuedInvocation;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class AsyncForwarderTest extends TestCase {
+
+    public void testQueuedForwarding() throws Exception {
+        GatedSender target = new GatedSender();
+        IMessageSender sender = (IMessageSender) MockFactory.createProxy(target);
+        Mock mock = (Mock) MockFactory.getMock(sender);
+        AsyncForwarder forwarder = new AsyncForwarder(4, AsyncForwarder.REJECT);
+        forwarder.setBatchSize(8);
+        mock.setAsyncForwarder(forwarder);
+        try{
+            sender.send("m0");
+            assertTrue(target.started.await(10, TimeUnit.SECONDS));
+            for(int i=1; i<=4; i++){
+                sender.send("m" + i);
+            }
+            assertEquals(4, forwarder.getQueueDepth());
+            try{
+                sender.send("m5");
+                fail("Expected RejectedExecutionException");
+            } catch(RejectedExecutionException e){
+                assertEquals(1, forwarder.getDropped());
+            }
+            assertEquals(0, target.received.size());
+            assertEquals(6, mock.getInvocationCount(new MethodInvocation("send", String.class)));
+
+            target.gate.countDown();
+            assertTrue(forwarder.awaitIdle(10000));
+            assertEquals("[m0, m1, m2, m3, m4]", target.received.toString());
+
+            List queued = forwarder.getQueuedInvocations();
+            assertEquals(5, queued.size());
+            assertEquals(0, ((QueuedInvocation) queued.get(0)).getBatch());
+            assertEquals(1, ((QueuedInvocation) queued.get(4)).getBatch());
+            assertTrue(((QueuedInvocation) queued.get(1)).getWaitNanos() > 0);
+            assertTrue(forwarder.getMaxWaitNanos() >= ((QueuedInvocation) queued.get(4)).getWaitNanos());
+            assertEquals(new MethodInvocation("send", String.class, "m4"), ((QueuedInvocation) queued.get(4)).getMethodInvocation());
+
+            CompletableFuture reply = sender.request("hello");
+            assertEquals("re:hello", reply.get(10, TimeUnit.SECONDS));
+            assertEquals(6, mock.getStats().getForwardedInvocations());
+        } finally {
+            forwarder.close();
+        }
+    }
+
+    public void testCallerRuns() throws Exception {
+        ThreadRecordingSender target = new ThreadRecordingSender();
+        IMessageSender sender = (IMessageSender) MockFactory.createProxy(target);
+        AsyncForwarder forwarder = new AsyncForwarder(1024, AsyncForwarder.CALLER_RUNS);
+        forwarder.setVirtualThread(true);
+        forwarder.setLinger(1, TimeUnit.MILLISECONDS);
+        forwarder.setBatchSize(64);
+        forwarder.setHistorySize(10000);
+        ((Mock) MockFactory.getMock(sender)).setAsyncForwarder(forwarder);
+        try{
+            for(int i=0; i<10000; i++){
+                sender.send("m" + i);
+            }
+            assertTrue(forwarder.awaitIdle(10000));
+            assertEquals(10000, target.received.size());
+            assertEquals(10000, forwarder.getQueuedInvocations().size() + Collections.frequency(target.received, Thread.currentThread().getName()));
+        } finally {
+            forwarder.close();
+        }
+    }
+
+    public void testHistorySize() throws Exception {
+        ThreadRecordingSender target = new ThreadRecordingSender();
+        IMessageSender sender = (IMessageSender) MockFactory.createProxy(target);
+        AsyncForwarder forwarder = new AsyncForwarder(16, AsyncForwarder.BLOCK);
+        forwarder.setHistorySize(3);
+        ((Mock) MockFactory.getMock(sender)).setAsyncForwarder(forwarder);
+        try{
+            for(int i=0; i<10; i++){
+                sender.send("m" + i);
+            }
+            assertTrue(forwarder.awaitIdle(10000));
+            List queued = forwarder.getQueuedInvocations();
+            assertEquals(3, queued.size());
+            assertEquals(new MethodInvocation("send", String.class, "m9"), ((QueuedInvocation) queued.get(2)).getMethodInvocation());
+        } finally {
+            forwarder.close();
+        }
+    }
+
+    public void testPlainFutureDoesNotBlockDrainer() throws Exception {
+        PlainFutureSender target = new PlainFutureSender();
+        IPlainFutureSender sender = (IPlainFutureSender) MockFactory.createProxy(target);
+        Mock mock = (Mock) MockFactory.getMock(sender);
+        AsyncForwarder forwarder = new AsyncForwarder(16, AsyncForwarder.BLOCK);
+        mock.setAsyncForwarder(forwarder);
+
+        CompletableFuture late  = (CompletableFuture) sender.request("late");
+        CompletableFuture early = (CompletableFuture) sender.request("early");
+        assertEquals("early", early.get(10, TimeUnit.SECONDS));
+        assertFalse(late.isDone());
+
+        target.late.run();
+        assertEquals("late", late.get(10, TimeUnit.SECONDS));
+
+        mock.clear();
+        assertFalse(forwarder.isClosed());
+        mock.closeAsyncForwarder();
+        assertTrue(forwarder.isClosed());
+        assertEquals("sync", ((Future) sender.request("sync")).get());
+        assertFalse(sender.request("sync") instanceof CompletableFuture);
+    }
+
+    public void testCloseWhileSubmitting() throws Exception {
+        for(int round=0; round<20; round++){
+            final IMessageSender sender = (IMessageSender) MockFactory.createProxy(new GatedSender());
+            AsyncForwarder forwarder = new AsyncForwarder(1024, AsyncForwarder.BLOCK);
+            ((Mock) MockFactory.getMock(sender)).setAsyncForwarder(forwarder);
+
+            final List futures = Collections.synchronizedList(new ArrayList());
+            Thread[] threads = new Thread[4];
+            for(int i=0; i<threads.length; i++){
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        try{
+                            while(true){
+                                futures.add(sender.request("m"));
+                            }
+                        } catch(RejectedExecutionException e){
+                            // closed
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            Thread.sleep(1);
+            forwarder.close();
+            for(int i=0; i<threads.length; i++){
+                threads[i].join();
+            }
+
+            assertTrue(forwarder.awaitIdle(10000));
+            for(int i=0; i<futures.size(); i++){
+                assertEquals("re:m", ((CompletableFuture) futures.get(i)).get(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    public void testBlockedCallerKeepsInterruptStatus() throws Exception {
+        GatedSender target = new GatedSender();
+        IMessageSender sender = (IMessageSender) MockFactory.createProxy(target);
+        AsyncForwarder forwarder = new AsyncForwarder(2, AsyncForwarder.BLOCK);
+        ((Mock) MockFactory.getMock(sender)).setAsyncForwarder(forwarder);
+        try{
+            sender.send("m0");
+            assertTrue(target.started.await(10, TimeUnit.SECONDS));
+            sender.send("m1");
+            sender.send("m2");
+            Thread.currentThread().interrupt();
+            try{
+                sender.send("m3");
+                fail("Expected an interrupted caller to be refused");
+            } catch(Exception e){
+                assertTrue(e.getCause() instanceof InterruptedException);
+            }
+            assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            target.gate.countDown();
+            forwarder.close();
+        }
+    }
+
+    public interface IPlainFutureSender {
+        public Future request(String message);
+    }
+
+    public static class PlainFutureSender implements IPlainFutureSender {
+
+        protected final FutureTask late = newTask("late");
+
+        public Future request(String message) {
+            if("late".equals(message)){
+                return this.late;
+            }
+            FutureTask task = newTask(message);
+            task.run();
+            return task;
+        }
+
+        private static FutureTask newTask(String result) {
+            return new FutureTask(new Runnable() {
+                public void run() {
+                }
+            }, result);
+        }
+    }
+
+
+    public static class GatedSender implements IMessageSender {
+
+        protected final CountDownLatch started  = new CountDownLatch(1);
+        protected final CountDownLatch gate     = new CountDownLatch(1);
+        protected final List           received = Collections.synchronizedList(new ArrayList());
+
+        public void send(String message) {
+            this.started.countDown();
+            try{
+                this.gate.await();
+            } catch(InterruptedException e){
+                throw new IllegalStateException(e);
+            }
+            this.received.add(message);
+        }
+
+        public CompletableFuture request(String message) {
+            return CompletableFuture.completedFuture("re:" + message);
+        }
+    }
+
+    public static class ThreadRecordingSender implements IMessageSender {
+
+        protected final List received = Collections.synchronizedList(new ArrayList());
+
+        public void send(String message) {
+            this.received.add(Thread.currentThread().getName());
+        }
+
+        public CompletableFuture request(String message) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.DeterministicScheduler;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.itf.IScheduledScenario;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class DeterministicSchedulerTest extends TestCase {
+
+    /**
+     * Two tasks increment a shared counter non-atomically, calling a mock between the read and the write.
+     * Some interleavings lose an update.
+     */
+    protected IScheduledScenario lostUpdate = new IScheduledScenario() {
+        public void run(DeterministicScheduler scheduler) throws Throwable {
+            final IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+            ((Mock) MockFactory.getMock(target)).setScheduler(scheduler);
+
+            final int[] counter = new int[1];
+            Runnable increment = new Runnable() {
+                public void run() {
+                    target.invoke();
+                    int value = counter[0];
+                    target.invoke(value);
+                    counter[0] = value + 1;
+                }
+            };
+            scheduler.run(new Runnable[]{increment, increment});
+            assertEquals(2, counter[0]);
+        }
+    };
+
+    public void testExploreFindsFailingSeed() throws Throwable {
+        long failingSeed = -1;
+        try{
+            DeterministicScheduler.explore(0, 100, this.lostUpdate);
+            fail("Expected a lost update");
+        } catch(AssertionError error){
+            assertTrue(error.getMessage().startsWith("Scenario failed with seed "));
+            String seed = error.getMessage().substring("Scenario failed with seed ".length());
+            failingSeed = Long.parseLong(seed.substring(0, seed.indexOf(',')));
+        }
+
+        for(int i=0; i<20; i++){
+            assertTrue(runLostUpdate(new DeterministicScheduler(failingSeed)));
+        }
+    }
+
+    public void testReplayIsDeterministic() throws Throwable {
+        for(long seed=0; seed<20; seed++){
+            DeterministicScheduler first = new DeterministicScheduler(seed);
+            boolean firstFailed = runLostUpdate(first);
+            List schedule = first.getSchedule();
+            for(int i=0; i<10; i++){
+                DeterministicScheduler replay = new DeterministicScheduler(seed);
+                assertEquals(firstFailed, runLostUpdate(replay));
+                assertEquals(schedule, replay.getSchedule());
+            }
+        }
+    }
+
+    public void testUnscheduledThreadsDoNotYield() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setScheduler(new DeterministicScheduler(0));
+        target.invoke();
+        assertEquals(1, mock.getInvocations().size());
+    }
+
+    public void testStuckRunFails() throws Throwable {
+        DeterministicScheduler scheduler = new DeterministicScheduler(0);
+        scheduler.setStepTimeoutMillis(200);
+        final Object never = new Object();
+        final List threads = new java.util.Vector();
+        final boolean[] ranAfterAbort = new boolean[1];
+        Runnable blocking = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+                try{
+                    synchronized(never){
+                        never.wait();
+                    }
+                } catch(InterruptedException e){
+                    // interrupted when the run is aborted
+                }
+            }
+        };
+        Runnable waiting = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+                ranAfterAbort[0] = true;
+            }
+        };
+        try{
+            scheduler.run(new Runnable[]{blocking, waiting, blocking});
+            fail("Expected the run to get stuck");
+        } catch(AssertionError expected){
+            assertTrue(expected.getMessage().indexOf("Seed 0") > -1);
+        }
+
+        for(int i=0; i<threads.size(); i++){
+            Thread thread = (Thread) threads.get(i);
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals(1, threads.size());
+        assertFalse(ranAfterAbort[0]);
+    }
+
+    public void testRerunReplaysSeed() throws Throwable {
+        DeterministicScheduler scheduler = new DeterministicScheduler(3);
+        boolean failed = runLostUpdate(scheduler);
+        List schedule = scheduler.getSchedule();
+        for(int i=0; i<5; i++){
+            assertEquals(failed, runLostUpdate(scheduler));
+            assertEquals(schedule, scheduler.getSchedule());
+        }
+    }
+
+    private boolean runLostUpdate(DeterministicScheduler scheduler) throws Throwable {
+        try{
+            this.lostUpdate.run(scheduler);
+            return false;
+        } catch(AssertionError error){
+            return true;
+        }
+    }
+}
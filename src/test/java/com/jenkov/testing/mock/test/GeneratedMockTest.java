@@ -0,0 +1,124 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.itf.GenerateMock;
+import com.jenkov.testing.mock.itf.IGeneratedMock;
+import com.jenkov.testing.mock.itf.IIntAnswer;
+import com.jenkov.testing.mock.itf.IMock;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.SQLException;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+@GenerateMock({ITask.class})
+public class GeneratedMockTest extends TestCase {
+
+    public void testGeneratedMock() throws Exception {
+        IRepository repository = (IRepository) MockFactory.createProxy(IRepository.class);
+        assertTrue(repository instanceof IGeneratedMock);
+        Mock mock = (Mock) MockFactory.getMock(repository);
+
+        mock.addReturnValue("found");
+        mock.setAnswer(new MethodInvocation("count"), new IIntAnswer() {
+            public int answer(Object[] parameters) {
+                return 42;
+            }
+        });
+        assertEquals("found", repository.find(7));
+        assertEquals(42, repository.count());
+        repository.store("key", "value");
+        assertNull(repository.load(new String[]{"a", "b"}));
+        repository.close();
+
+        IMock generatedMock = (IMock) repository;
+        generatedMock.assertInvoked(new MethodInvocation("find", long.class, new Long(7)));
+        generatedMock.assertInvoked(new MethodInvocation("store", new Class[]{String.class, Object.class}, new Object[]{"key", "value"}));
+        generatedMock.assertInvokedLast(new MethodInvocation("close"));
+        assertEquals(5, generatedMock.getInvocations().size());
+
+        ITask task = (ITask) MockFactory.createProxy(ITask.class);
+        assertTrue(task instanceof IGeneratedMock);
+        MockFactory.getMock(task).addReturnValue("called");
+        assertEquals("called", task.call());
+
+        mock.addReturnValue("repository");
+        assertEquals("repository", repository.toString());
+        generatedMock.assertInvokedLast(new MethodInvocation("toString"));
+
+        assertFalse(MockFactory.createProxy(IInvocationTarget.class) instanceof IGeneratedMock);
+    }
+
+    public void testInterfaceFromChildClassLoader() throws Exception {
+        URL testClasses = GeneratedMockTest.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader childFirst = new URLClassLoader(new URL[]{testClasses}, IMock.class.getClassLoader()) {
+            protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if(!name.startsWith("com.jenkov.testing.mock.test.")){
+                    return super.loadClass(name, resolve);
+                }
+                Class loaded = findLoadedClass(name);
+                return loaded != null ? loaded : findClass(name);
+            }
+        };
+        Class repositoryClass = childFirst.loadClass(IRepository.class.getName());
+        assertNotSame(IRepository.class, repositoryClass);
+
+        Object repository = MockFactory.createProxy(repositoryClass);
+        assertTrue(repository instanceof IGeneratedMock);
+        assertTrue(repositoryClass.isInstance(repository));
+    }
+
+    public void testForwarding() throws Exception {
+        IRepository target = new IRepository() {
+            public Object find(long id) throws SQLException {
+                throw new SQLException("No row " + id);
+            }
+            public void store(String key, Object value) {
+            }
+            public int count() {
+                return 3;
+            }
+            public boolean contains(String key) {
+                return "key".equals(key);
+            }
+            public byte[] load(String... keys) {
+                return new byte[keys.length];
+            }
+            public void close() throws IOException {
+                throw new IOException("closed");
+            }
+            public String toString() {
+                return "target";
+            }
+        };
+        IRepository repository = (IRepository) MockFactory.createProxy(target);
+        assertTrue(repository instanceof IGeneratedMock);
+
+        assertEquals(3, repository.count());
+        assertTrue(repository.contains("key"));
+        assertEquals(2, repository.load(new String[]{"a", "b"}).length);
+        try{
+            repository.find(1);
+            fail("Expected SQLException");
+        } catch(SQLException e){
+            assertEquals("No row 1", e.getMessage());
+        }
+        try{
+            repository.close();
+            fail("Expected IOException");
+        } catch(IOException e){
+            assertEquals("closed", e.getMessage());
+        }
+        assertEquals("target", repository.toString());
+        assertEquals(target.hashCode(), repository.hashCode());
+        assertTrue(repository.equals(target));
+        assertEquals(8, MockFactory.getMock(repository).getInvocations().size());
+    }
+}
@@ -0,0 +1,13 @@
+package com.jenkov.testing.mock.test;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public interface IMessageSender {
+
+    public void              send(String message);
+    public CompletableFuture request(String message);
+}
@@ -0,0 +1,20 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.itf.GenerateMock;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+@GenerateMock
+public interface IRepository<T> extends Closeable {
+
+    public T       find(long id) throws SQLException;
+    public void    store(String key, T value);
+    public int     count();
+    public boolean contains(String key);
+    public byte[]  load(String... keys);
+}
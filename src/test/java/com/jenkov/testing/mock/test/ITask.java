@@ -0,0 +1,10 @@
+package com.jenkov.testing.mock.test;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public interface ITask {
+
+    public Object call() throws Exception;
+}
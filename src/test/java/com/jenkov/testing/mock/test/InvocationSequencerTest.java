@@ -0,0 +1,138 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.InvocationSequencer;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.impl.SequencedInvocation;
+import com.jenkov.testing.mock.itf.IMock;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class InvocationSequencerTest extends TestCase {
+
+    public void testCrossMockOrder() throws Exception {
+        InvocationSequencer sequencer = new InvocationSequencer();
+        IInvocationTarget transaction = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IInvocationTarget cache       = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock transactionMock = MockFactory.getMock(transaction);
+        IMock cacheMock       = MockFactory.getMock(cache);
+        ((Mock) transactionMock).setSequencer(sequencer);
+        ((Mock) cacheMock).setSequencer(sequencer);
+
+        transaction.invoke("begin");
+        cache.invoke("write");
+        transaction.invoke("commit");
+
+        assertTrue(sequencer.invokedBefore(transactionMock, new MethodInvocation("invoke", String.class, "begin"),
+                cacheMock, new MethodInvocation("invoke", String.class, "write")));
+        assertFalse(sequencer.invokedBefore(transactionMock, new MethodInvocation("invoke", String.class, "commit"),
+                cacheMock, new MethodInvocation("invoke", String.class, "write")));
+        try{
+            sequencer.assertInvokedBefore(transactionMock, new MethodInvocation("invoke", String.class, "commit"),
+                    cacheMock, new MethodInvocation("invoke", String.class, "write"));
+            fail("Expected AssertionError");
+        } catch(AssertionError error){
+            assertTrue(error.getMessage().indexOf("(#2) was not invoked before") > -1);
+        }
+
+        sequencer.assertInvokedInOrder(new IMock[]{transactionMock, cacheMock},
+                new MethodInvocation[]{new MethodInvocation("invoke", String.class, "begin"), new MethodInvocation("invoke", String.class)});
+        try{
+            sequencer.assertInvokedInOrder(new IMock[]{cacheMock, transactionMock},
+                    new MethodInvocation[]{new MethodInvocation("invoke", String.class), new MethodInvocation("invoke", String.class, "begin")});
+            fail("Expected AssertionError");
+        } catch(AssertionError error){
+            assertTrue(error.getMessage().startsWith("Method not invoked in order: invoke(java.lang.String<begin>)"));
+        }
+
+        List timeline = sequencer.getTimeline();
+        assertEquals(3, timeline.size());
+        assertSame(cacheMock, ((SequencedInvocation) timeline.get(1)).getMock());
+        assertEquals("#2 invoke(java.lang.String<commit>)", timeline.get(2).toString());
+
+        cacheMock.clear();
+        assertEquals(2, sequencer.getTimeline().size());
+    }
+
+    public void testSameInvocationIsNotBefore() throws Exception {
+        InvocationSequencer sequencer = new InvocationSequencer();
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+        ((Mock) mock).setSequencer(sequencer);
+
+        target.invoke("only");
+
+        MethodInvocation any  = new MethodInvocation("invoke", String.class);
+        MethodInvocation only = new MethodInvocation("invoke", String.class, "only");
+        assertFalse(sequencer.invokedBefore(mock, any, mock, only));
+        try{
+            sequencer.assertInvokedBefore(mock, any, mock, only);
+            fail("Expected AssertionError");
+        } catch(AssertionError error){
+            // expected, both match the same invocation
+        }
+    }
+
+    public void testRejoin() throws Exception {
+        InvocationSequencer first  = new InvocationSequencer();
+        InvocationSequencer second = new InvocationSequencer();
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+
+        mock.setSequencer(first);
+        target.invoke("a");
+        mock.setSequencer(first);
+        target.invoke("b");
+        assertEquals(2, first.getTimeline().size());
+        assertTrue(first.invokedBefore(mock, new MethodInvocation("invoke", String.class, "a"),
+                mock, new MethodInvocation("invoke", String.class, "b")));
+
+        mock.setSequencer(second);
+        target.invoke("c");
+        assertEquals(0, first.getTimeline().size());
+        assertEquals(1, second.getTimeline().size());
+
+        mock.setSequencer(null);
+        target.invoke("d");
+        assertEquals(0, second.getTimeline().size());
+    }
+
+    public void testConcurrentTimeline() throws Exception {
+        final InvocationSequencer sequencer = new InvocationSequencer(true);
+        final IInvocationTarget[] targets = new IInvocationTarget[4];
+        for(int i=0; i<targets.length; i++){
+            targets[i] = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+            ((Mock) MockFactory.getMock(targets[i])).setSequencer(sequencer);
+        }
+
+        Thread[] threads = new Thread[8];
+        for(int i=0; i<threads.length; i++){
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for(int j=0; j<1000; j++){
+                        targets[(thread + j) % targets.length].invoke(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for(int i=0; i<threads.length; i++){
+            threads[i].join();
+        }
+
+        List timeline = sequencer.getTimeline();
+        assertEquals(8000, timeline.size());
+        for(int i=0; i<timeline.size(); i++){
+            SequencedInvocation invocation = (SequencedInvocation) timeline.get(i);
+            assertEquals(i, invocation.getSequence());
+            assertTrue(invocation.getNanoTime() != 0);
+        }
+    }
+}
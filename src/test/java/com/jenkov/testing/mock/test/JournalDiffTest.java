@@ -0,0 +1,136 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.CompactInvocationJournal;
+import com.jenkov.testing.mock.impl.JournalDiff;
+import com.jenkov.testing.mock.impl.JournalDiffError;
+import com.jenkov.testing.mock.impl.MethodDescriptor;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.itf.IMock;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class JournalDiffTest extends TestCase {
+
+    protected MethodDescriptor descriptor = null;
+
+    protected void setUp() throws Exception {
+        this.descriptor = MethodDescriptor.forMethod(IInvocationTarget.class.getMethod("invoke", new Class[]{int.class}));
+    }
+
+    public void testMinimalEditDistance() throws Exception {
+        Random random = new Random(1);
+        for(int run=0; run<300; run++){
+            int[] expected = randomSequence(random, random.nextInt(30));
+            int[] actual   = randomSequence(random, random.nextInt(30));
+
+            JournalDiff diff = JournalDiff.compute(expectedInvocations(expected), journal(actual));
+            int lcs = lcsLength(expected, actual);
+            assertEquals(expected.length + actual.length - 2 * lcs, diff.getEditDistance());
+            assertEquals(diff.getEditDistance() == 0, diff.isEmpty());
+        }
+    }
+
+    public void testLargeJournal() throws Exception {
+        int[] expected = new int[1000000];
+        for(int i=0; i<expected.length; i++){
+            expected[i] = i;
+        }
+        int[] actual = (int[]) expected.clone();
+        actual[10]     = -1;
+        actual[500000] = -2;
+
+        JournalDiff diff = JournalDiff.compute(expectedInvocations(expected), journal(actual));
+        assertEquals(4, diff.getEditDistance());
+        assertEquals(4, diff.getEdits().size());
+
+        JournalDiff.Edit edit = (JournalDiff.Edit) diff.getEdits().get(0);
+        assertEquals(10, edit.getExpectedIndex());
+        assertEquals(10, edit.getActualIndex());
+        assertTrue(diff.toString().indexOf("invoke(int<-2>)") > -1);
+    }
+
+    public void testAssertInvocations() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+        target.invoke();
+        target.invoke("text");
+
+        List expected = new ArrayList();
+        expected.add(new MethodInvocation("invoke"));
+        expected.add(new MethodInvocation("invoke", String.class, "text"));
+        mock.assertInvocations(expected);
+
+        expected.add(new MethodInvocation("invoke", int.class));
+        try{
+            mock.assertInvocations(expected);
+            fail("Expected JournalDiffError");
+        } catch(JournalDiffError error){
+            assertTrue(error.getMessage().indexOf("missing at expected index 2") > -1);
+        }
+    }
+
+    public void testMessageAfterClear() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+        target.invoke();
+        target.invoke("unexpected");
+
+        List expected = new ArrayList();
+        expected.add(new MethodInvocation("invoke"));
+        JournalDiffError error = null;
+        try{
+            mock.assertInvocations(expected);
+            fail("Expected JournalDiffError");
+        } catch(JournalDiffError thrown){
+            error = thrown;
+        }
+        mock.clear();
+        expected.clear();
+        assertTrue(error.getMessage().indexOf("+ invoke(java.lang.String<unexpected>)") > -1);
+        assertTrue(error.getMessage().indexOf("(1 expected, 2 invoked)") > -1);
+    }
+
+    private int[] randomSequence(Random random, int length) {
+        int[] sequence = new int[length];
+        for(int i=0; i<length; i++){
+            sequence[i] = random.nextInt(4);
+        }
+        return sequence;
+    }
+
+    private List expectedInvocations(int[] values) {
+        List invocations = new ArrayList(values.length);
+        for(int i=0; i<values.length; i++){
+            invocations.add(new MethodInvocation("invoke", int.class, new Integer(values[i])));
+        }
+        return invocations;
+    }
+
+    private CompactInvocationJournal journal(int[] values) {
+        CompactInvocationJournal journal = new CompactInvocationJournal(values.length);
+        for(int i=0; i<values.length; i++){
+            journal.record(this.descriptor, new Object[]{new Integer(values[i])});
+        }
+        return journal;
+    }
+
+    private int lcsLength(int[] a, int[] b) {
+        int[][] lengths = new int[a.length + 1][b.length + 1];
+        for(int i=1; i<=a.length; i++){
+            for(int j=1; j<=b.length; j++){
+                lengths[i][j] = a[i-1] == b[j-1]
+                        ? lengths[i-1][j-1] + 1
+                        : Math.max(lengths[i-1][j], lengths[i][j-1]);
+            }
+        }
+        return lengths[a.length][b.length];
+    }
+}
@@ -3,6 +3,8 @@ package com.jenkov.testing.mock.test;
 import com.jenkov.testing.mock.impl.MethodInvocation;
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author Jakob Jenkov
  *         Copyright 2004 Jenkov Development
@@ -130,4 +132,30 @@ public class MethodInvocationTest extends TestCase{
         assertFalse(invocation2.matches(invocation1));
 
     }
+
+    public void testArrayParameters(){
+        MethodInvocation invocation1 = new MethodInvocation("write", new Class[]{byte[].class}, new Object[]{new byte[]{1, 2, 3}});
+        MethodInvocation invocation2 = new MethodInvocation("write", new Class[]{byte[].class}, new Object[]{new byte[]{1, 2, 3}});
+        assertTrue(invocation1.matches(invocation2));
+        assertTrue(invocation1.equals(invocation2));
+
+        invocation2 = new MethodInvocation("write", new Class[]{byte[].class}, new Object[]{new byte[]{1, 2, 4}});
+        assertFalse(invocation1.matches(invocation2));
+
+        invocation1 = new MethodInvocation("write", new Class[]{Object.class}, new Object[]{new int[]{1, 2}});
+        invocation2 = new MethodInvocation("write", new Class[]{Object.class}, new Object[]{new long[]{1, 2}});
+        assertFalse(invocation1.matches(invocation2));
+        assertFalse(invocation2.matches(invocation1));
+
+        invocation1 = new MethodInvocation("write", new Class[]{Object[].class}, new Object[]{new Object[]{"a", new int[]{1}, new String[]{"b"}}});
+        invocation2 = new MethodInvocation("write", new Class[]{Object[].class}, new Object[]{new Object[]{"a", new int[]{1}, new String[]{"b"}}});
+        assertTrue(invocation1.equals(invocation2));
+
+        invocation2 = new MethodInvocation("write", new Class[]{Object[].class}, new Object[]{new Object[]{"a", new int[]{2}, new String[]{"b"}}});
+        assertFalse(invocation1.equals(invocation2));
+
+        invocation1 = new MethodInvocation("write", new Class[]{ByteBuffer.class}, new Object[]{ByteBuffer.wrap(new byte[]{1, 2})});
+        invocation2 = new MethodInvocation("write", new Class[]{ByteBuffer.class}, new Object[]{ByteBuffer.allocateDirect(2).put(new byte[]{1, 2}).flip()});
+        assertTrue(invocation1.matches(invocation2));
+    }
 }
@@ -0,0 +1,123 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockContext;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.junit.MockContextRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class MockContextTest {
+
+    @Rule
+    public MockContextRule mocks = new MockContextRule();
+
+    @Test
+    public void testConfinement() throws Exception {
+        final IInvocationTarget target = (IInvocationTarget) mocks.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        assertSame(mocks.getContext(), MockContext.current());
+        assertTrue(mock.isConfined());
+
+        target.invoke("owner");
+        assertTrue(mock.isConfined());
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for(int i=0; i<1000; i++){
+                    target.invoke(i);
+                }
+            }
+        });
+        thread.start();
+        for(int i=0; i<1000; i++){
+            target.invoke();
+        }
+        thread.join();
+
+        assertFalse(mock.isConfined());
+        assertEquals(2001, mock.getInvocations().size());
+        assertTrue(mock.invoked(new MethodInvocation("invoke", String.class, "owner"), 0));
+    }
+
+    @Test(timeout = 10000)
+    public void testTimeout() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) mocks.createProxy(IInvocationTarget.class);
+        assertSame(Thread.currentThread(), mocks.getContext().getThread());
+        assertTrue(((Mock) MockFactory.getMock(target)).isConfined());
+        target.invoke("body");
+        assertEquals(1, mocks.getContext().size());
+    }
+
+    @Test
+    public void testInvocationsReadFromOtherThread() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) mocks.createProxy(IInvocationTarget.class);
+        final Mock mock = (Mock) MockFactory.getMock(target);
+        target.invoke("owner");
+        assertTrue(mock.isConfined());
+
+        final int[] size = new int[1];
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                size[0] = mock.getInvocations().size();
+            }
+        });
+        reader.start();
+        reader.join();
+
+        assertEquals(1, size[0]);
+        assertFalse(mock.isConfined());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) mocks.createProxy(IInvocationTarget.class);
+        target.invoke();
+        assertEquals(1, mocks.getContext().size());
+
+        mocks.getContext().reset();
+        assertEquals(0, MockFactory.getMock(target).getInvocations().size());
+    }
+
+    @Test
+    public void testFailedTestKeepsInvocations() throws Exception {
+        final MockContextRule rule = new MockContextRule();
+        final IInvocationTarget[] target = new IInvocationTarget[1];
+        final Object[] result = new Object[2];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try{
+                    rule.apply(new Statement() {
+                        public void evaluate() throws Throwable {
+                            target[0] = (IInvocationTarget) rule.createProxy(IInvocationTarget.class);
+                            target[0].invoke("failing");
+                            throw new AssertionError("failed");
+                        }
+                    }, Description.EMPTY).evaluate();
+                } catch(Throwable e){
+                    result[0] = e;
+                }
+                result[1] = MockContext.current();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals("failed", ((AssertionError) result[0]).getMessage());
+        assertNull(result[1]);
+        assertTrue(MockFactory.getMock(target[0]).invoked(new MethodInvocation("invoke", String.class, "failing")));
+    }
+}
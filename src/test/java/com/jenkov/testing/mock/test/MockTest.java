@@ -0,0 +1,710 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.AtMostInvokedExpectation;
+import com.jenkov.testing.mock.impl.ConcurrencyLimitInterceptor;
+import com.jenkov.testing.mock.impl.EveryNthSamplingPolicy;
+import com.jenkov.testing.mock.impl.FaultProfile;
+import com.jenkov.testing.mock.impl.Fingerprint;
+import com.jenkov.testing.mock.impl.InjectedFault;
+import com.jenkov.testing.mock.impl.InvocationAssertionError;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.impl.MockStats;
+import com.jenkov.testing.mock.impl.NeverInvokedExpectation;
+import com.jenkov.testing.mock.impl.NotNullConstraint;
+import com.jenkov.testing.mock.impl.NullInvocationJournal;
+import com.jenkov.testing.mock.impl.ParameterCapture;
+import com.jenkov.testing.mock.impl.ReservoirInvocationJournal;
+import com.jenkov.testing.mock.impl.ResponseTable;
+import com.jenkov.testing.mock.impl.ThrottlingInterceptor;
+import com.jenkov.testing.mock.impl.TokenBucketInterceptor;
+import com.jenkov.testing.mock.itf.IBooleanAnswer;
+import com.jenkov.testing.mock.itf.IDoubleAnswer;
+import com.jenkov.testing.mock.itf.IIntAnswer;
+import com.jenkov.testing.mock.itf.IInterceptor;
+import com.jenkov.testing.mock.itf.IInvocationChain;
+import com.jenkov.testing.mock.itf.ILongAnswer;
+import com.jenkov.testing.mock.itf.IMock;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class MockTest extends TestCase {
+
+    public void testJournal() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+
+        target.invoke();
+        target.invoke("text");
+        target.invoke(2);
+
+        assertTrue (mock.invoked(new MethodInvocation("invoke")));
+        assertTrue (mock.invoked(new MethodInvocation("invoke", String.class, "text")));
+        assertFalse(mock.invoked(new MethodInvocation("invoke", String.class, "other")));
+        assertTrue (mock.invoked(new MethodInvocation("invoke", int.class, new Integer(2)), 2));
+        assertTrue (mock.invokedLast(new MethodInvocation("invoke", int.class)));
+        assertTrue (mock.invokedBefore(new MethodInvocation("invoke"), new MethodInvocation("invoke", String.class)));
+
+        List invocations = mock.getInvocations();
+        assertEquals(3, invocations.size());
+        assertEquals(new MethodInvocation("invoke", new Class[]{String.class}, new Object[]{"text"}), invocations.get(1));
+
+        mock.clear();
+        assertEquals(0, mock.getInvocations().size());
+        assertFalse(mock.invoked(new MethodInvocation("invoke")));
+    }
+
+    public void testForwarding() throws Exception {
+        InvocationTarget  invocationTarget = new InvocationTarget();
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(invocationTarget);
+
+        assertEquals(new Long(5), target.invoke(new Long(5)));
+        target.invoke("text");
+        assertTrue(invocationTarget.invokeCalled("text"));
+        assertTrue(MockFactory.getMock(target).invoked(new MethodInvocation("invoke", Long.class)));
+    }
+
+    public void testSampling() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setSamplingPolicy(new EveryNthSamplingPolicy(10));
+
+        for(int i=0; i<1000; i++){
+            target.invoke(i);
+            target.invoke();
+        }
+
+        assertEquals(200,  mock.getInvocations().size());
+        assertEquals(1000, mock.getInvocationCount(new MethodInvocation("invoke", int.class)));
+        assertEquals(1000, mock.getInvocationCount(new MethodInvocation("invoke")));
+        assertTrue (mock.invoked(new MethodInvocation("invoke", int.class, new Integer(990))));
+        assertFalse(mock.invoked(new MethodInvocation("invoke", int.class, new Integer(991))));
+
+        mock.clear();
+        assertEquals(0, mock.getInvocationCount(new MethodInvocation("invoke")));
+    }
+
+    public void testReservoir() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        ReservoirInvocationJournal journal = new ReservoirInvocationJournal(50, 42);
+        mock.setJournal(journal);
+
+        for(int i=0; i<100000; i++){
+            target.invoke(i);
+        }
+
+        assertEquals(50,     journal.size());
+        assertEquals(100000, journal.getSeen());
+        assertEquals(100000, mock.getInvocationCount(new MethodInvocation("invoke", int.class)));
+
+        int previous = -1;
+        for(int i=0; i<journal.size(); i++){
+            int value = ((Integer) journal.get(i).getParameters()[0]).intValue();
+            assertTrue(value > previous);
+            previous = value;
+        }
+        assertTrue(previous > 50);
+    }
+
+    public void testExpectations() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setJournal(new NullInvocationJournal());
+        mock.addExpectation(new NeverInvokedExpectation(new MethodInvocation("invoke", String.class, "forbidden")));
+        mock.addExpectation(new AtMostInvokedExpectation(new MethodInvocation("invoke", int.class), 2));
+
+        target.invoke("allowed");
+        target.invoke(1);
+        target.invoke(2);
+        mock.assertExpectations();
+
+        try{
+            target.invoke(3);
+            fail("Expected AssertionError");
+        } catch(AssertionError expected){ }
+
+        try{
+            mock.assertExpectations();
+            fail("Expected AssertionError");
+        } catch(AssertionError expected){ }
+
+        mock.clear();
+        mock.assertExpectations();
+        try{
+            target.invoke("forbidden");
+            fail("Expected AssertionError");
+        } catch(AssertionError expected){ }
+        assertEquals(0, mock.getInvocations().size());
+    }
+
+    public void testAwaitInvoked() throws Exception {
+        final IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+
+        target.invoke("first");
+        assertTrue (mock.awaitInvoked(new MethodInvocation("invoke", String.class), 1, 0));
+        assertFalse(mock.awaitInvoked(new MethodInvocation("invoke", String.class), 2, 10));
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for(int i=0; i<100; i++){
+                    target.invoke(i);
+                }
+                target.invoke("second");
+            }
+        });
+        thread.start();
+
+        assertTrue(mock.awaitInvoked(new MethodInvocation("invoke", String.class), 2, 10000));
+        assertTrue(mock.invoked(new MethodInvocation("invoke", String.class, "second")));
+        assertEquals(100, mock.getInvocationCount(new MethodInvocation("invoke", int.class)));
+        thread.join();
+
+        final IInvocationTarget unrecorded = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock unrecordedMock = (Mock) MockFactory.getMock(unrecorded);
+        unrecordedMock.setJournal(new NullInvocationJournal());
+        unrecorded.invoke(1);
+        unrecorded.invoke(2);
+        assertTrue (unrecordedMock.awaitInvoked(new MethodInvocation("invoke", int.class), 2, 0));
+        assertFalse(unrecordedMock.awaitInvoked(new MethodInvocation("invoke", int.class), 3, 10));
+        Thread later = new Thread(new Runnable() {
+            public void run() {
+                unrecorded.invoke(3);
+            }
+        });
+        later.start();
+        assertTrue(unrecordedMock.awaitInvoked(new MethodInvocation("invoke", int.class), 3, 10000));
+        later.join();
+        try{
+            unrecordedMock.awaitInvoked(new MethodInvocation("invoke", int.class, new Integer(2)), 1, 0);
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException expected){
+            // expected
+        }
+    }
+
+    public void testInterceptors() throws Exception {
+        final StringBuffer trace = new StringBuffer();
+        InvocationTarget  invocationTarget = new InvocationTarget();
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(invocationTarget);
+        Mock mock = (Mock) MockFactory.getMock(target);
+
+        mock.addInterceptor(new IInterceptor() {
+            public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable {
+                trace.append("outer ");
+                return next.proceed(proxy, method, parameters);
+            }
+        });
+        mock.addInterceptor(new MethodInvocation("invoke", int.class), new IInterceptor() {
+            public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable {
+                trace.append("inner ");
+                Integer result = (Integer) next.proceed(proxy, method, parameters);
+                return new Integer(result.intValue() + 1);
+            }
+        });
+
+        assertEquals(6, target.invoke(5));
+        assertEquals("outer inner ", trace.toString());
+        assertTrue(invocationTarget.invokeCalled(5));
+
+        trace.setLength(0);
+        target.invoke("text");
+        assertEquals("outer ", trace.toString());
+        assertTrue(mock.invoked(new MethodInvocation("invoke", String.class, "text")));
+
+        mock.removeInterceptors();
+        assertEquals(5, target.invoke(5));
+    }
+
+    public void testParameterCapture() throws Exception {
+        DataOutput output = (DataOutput) MockFactory.createProxy(DataOutput.class);
+        Mock mock = (Mock) MockFactory.getMock(output);
+        mock.setParameterCapture(byte[].class, ParameterCapture.FINGERPRINT);
+
+        byte[] buffer = new byte[1024 * 1024];
+        for(int i=0; i<1000; i++){
+            Arrays.fill(buffer, (byte) i);
+            output.write(buffer);
+        }
+
+        List invocations = mock.getInvocations();
+        assertEquals(1000, invocations.size());
+        assertTrue(((MethodInvocation) invocations.get(0)).getParameters()[0] instanceof Fingerprint);
+
+        byte[] first = new byte[1024 * 1024];
+        assertTrue(mock.invoked(new MethodInvocation("write", byte[].class, first), 0));
+        assertFalse(mock.invoked(new MethodInvocation("write", byte[].class, first), 1));
+        assertTrue(mock.invoked(new MethodInvocation("write", byte[].class, buffer), 999));
+
+        mock.clear();
+        mock.setParameterCapture(byte[].class, ParameterCapture.COPY);
+        byte[] small = new byte[]{1, 2, 3};
+        output.write(small);
+        small[0] = 9;
+        output.write(small);
+        assertTrue(mock.invoked(new MethodInvocation("write", byte[].class, new byte[]{1, 2, 3}), 0));
+        assertTrue(mock.invoked(new MethodInvocation("write", byte[].class, new byte[]{9, 2, 3}), 1));
+
+        try{
+            mock.setParameterCapture(String.class, ParameterCapture.FINGERPRINT);
+            fail("Strings cannot be fingerprinted");
+        } catch(IllegalArgumentException expected){
+            // expected
+        }
+    }
+
+    public void testDeepStubs() throws Exception {
+        Connection connection = (Connection) MockFactory.createProxy(Connection.class);
+        Mock mock = (Mock) MockFactory.getMock(connection);
+        assertNull(connection.prepareStatement("select 1"));
+
+        mock.setDeepStubs(true);
+        PreparedStatement statement = connection.prepareStatement("select 1");
+        assertNotNull(statement);
+        assertSame(statement, connection.prepareStatement("select 2"));
+        assertNotNull(statement.executeQuery());
+        assertSame(statement.executeQuery(), statement.executeQuery());
+
+        IMock statementMock = mock.getChildMock(new MethodInvocation("prepareStatement", String.class));
+        assertSame(MockFactory.getMock(statement), statementMock);
+        assertTrue(statementMock.invoked(new MethodInvocation("executeQuery"), 0));
+        assertNotNull(statementMock.getChildMock(new MethodInvocation("executeQuery")));
+        assertNull(mock.getChildMock(new MethodInvocation("createStatement")));
+
+        mock.clear();
+        assertEquals(0, statementMock.getInvocations().size());
+        assertSame(statement, connection.prepareStatement("select 3"));
+    }
+
+    public void testFaultInjection() throws Exception {
+        List first  = faultIndexes(7);
+        List second = faultIndexes(7);
+        assertEquals(first, second);
+        assertFalse(first.equals(faultIndexes(8)));
+
+        /* Faults start at about 5% of the invocations, and last 3 invocations */
+        assertTrue(first.size() > 1000 && first.size() < 2000);
+        int run = 1;
+        for(int i=1; i<first.size(); i++){
+            if(((Integer) first.get(i)).intValue() == ((Integer) first.get(i-1)).intValue() + 1){
+                run++;
+            } else {
+                assertTrue(run % 3 == 0);
+                run = 1;
+            }
+        }
+    }
+
+    private List faultIndexes(long seed) throws Exception {
+        Connection connection = (Connection) MockFactory.createProxy(Connection.class);
+        Mock mock = (Mock) MockFactory.getMock(connection);
+        FaultProfile profile = new FaultProfile(SQLException.class, 0.05, seed);
+        profile.setBurstLength(3);
+        mock.addFault(new MethodInvocation("prepareStatement", String.class), profile);
+
+        List indexes = new ArrayList();
+        for(int i=0; i<10000; i++){
+            try{
+                connection.prepareStatement("select " + i);
+            } catch(SQLException e){
+                indexes.add(new Integer(i));
+            }
+            connection.commit();
+        }
+
+        List injected = mock.getInjectedFaults();
+        assertEquals(indexes.size(), injected.size());
+        for(int i=0; i<injected.size(); i++){
+            InjectedFault fault = (InjectedFault) injected.get(i);
+            int invocation = ((Integer) indexes.get(i)).intValue();
+            assertEquals(2 * invocation, fault.getJournalIndex());
+            assertEquals(new MethodInvocation("prepareStatement", String.class, "select " + invocation), fault.getMethodInvocation());
+            assertTrue(fault.getFault() instanceof SQLException);
+        }
+        return indexes;
+    }
+
+    public void testTokenBucket() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        TokenBucketInterceptor bucket = new TokenBucketInterceptor(10, 5, ThrottlingInterceptor.REJECT, 0, TimeUnit.SECONDS);
+        mock.addInterceptor(new MethodInvocation("invoke"), bucket);
+
+        int rejected = 0;
+        for(int i=0; i<20; i++){
+            try{
+                target.invoke();
+            } catch(RejectedExecutionException e){
+                rejected++;
+            }
+            target.invoke("not limited");
+        }
+        assertEquals(rejected, bucket.getRejected());
+        assertTrue(bucket.getAdmitted() >= 5 && bucket.getAdmitted() <= 6);
+        assertEquals(20, bucket.getAdmitted() + bucket.getRejected());
+
+        mock.removeInterceptors();
+        bucket = new TokenBucketInterceptor(1000, 1);
+        mock.addInterceptor(bucket);
+        long start = System.nanoTime();
+        for(int i=0; i<50; i++){
+            target.invoke();
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(50, bucket.getAdmitted());
+        assertTrue(bucket.getWaited() > 0);
+        assertTrue(bucket.getMaxWaitNanos() > 0);
+    }
+
+    public void testTokenBucketInterrupted() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        TokenBucketInterceptor bucket = new TokenBucketInterceptor(10, 1, ThrottlingInterceptor.DELAY, 150, TimeUnit.MILLISECONDS);
+        mock.addInterceptor(bucket);
+
+        target.invoke();
+        Thread.currentThread().interrupt();
+        try{
+            target.invoke();
+            fail("Expected RejectedExecutionException");
+        } catch(RejectedExecutionException e){
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertTrue(Thread.interrupted());
+        assertEquals(1, bucket.getRejected());
+
+        // the interrupted caller gave its slot back, so this caller waits one interval, not two
+        target.invoke();
+        assertEquals(2, bucket.getAdmitted());
+        assertEquals(1, bucket.getRejected());
+    }
+
+    public void testConcurrencyLimit() throws Exception {
+        final IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        ConcurrencyLimitInterceptor limit = new ConcurrencyLimitInterceptor(2, ThrottlingInterceptor.DELAY, 10, TimeUnit.MILLISECONDS);
+        final CountDownLatch release = new CountDownLatch(1);
+        mock.addInterceptor(limit);
+        mock.addInterceptor(new IInterceptor() {
+            public Object intercept(Object proxy, Method method, Object[] parameters, IInvocationChain next) throws Throwable {
+                release.await();
+                return next.proceed(proxy, method, parameters);
+            }
+        });
+
+        Thread[] threads = new Thread[2];
+        for(int i=0; i<threads.length; i++){
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    target.invoke();
+                }
+            });
+            threads[i].start();
+        }
+        while(limit.getInFlight() < 2){
+            Thread.yield();
+        }
+        try{
+            target.invoke();
+            fail("Expected RejectedExecutionException");
+        } catch(RejectedExecutionException expected){
+            // expected
+        }
+        release.countDown();
+        for(int i=0; i<threads.length; i++){
+            threads[i].join();
+        }
+        target.invoke();
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(3, limit.getAdmitted());
+        assertEquals(1, limit.getRejected());
+    }
+
+    public void testResponses() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        IMock mock = MockFactory.getMock(target);
+
+        for(int i=0; i<100000; i++){
+            mock.addResponse(new MethodInvocation("invoke", int.class, new Integer(i)), new Integer(i * 2));
+            mock.addResponse(new MethodInvocation("invoke", Long.class, new Long(i)), new Long(-i));
+        }
+        mock.addResponse(new MethodInvocation("invoke", Long.class, new Long(7)), null);
+        for(int i=0; i<100000; i+=997){
+            assertEquals(i * 2, target.invoke(i));
+        }
+        assertEquals(new Long(-42), target.invoke(new Long(42)));
+        assertNull(target.invoke(new Long(7)));
+
+        /* No response: fall back to the return values, then to the default value */
+        mock.addReturnValue(new Integer(5));
+        assertEquals(5, target.invoke(-1));
+        assertEquals(0, target.invoke(-1));
+
+        /* Exact responses are checked before constraint responses */
+        mock.addResponse(new MethodInvocation("invokeCalled", String.class, new NotNullConstraint()), Boolean.FALSE);
+        mock.addResponse(new MethodInvocation("invokeCalled", String.class, "exact"), Boolean.TRUE);
+        assertTrue(target.invokeCalled("exact"));
+        assertFalse(target.invokeCalled("other"));
+        assertTrue(target.invokeCalled((String) null));
+
+        mock.clear();
+        assertEquals(0, target.invoke(42));
+    }
+
+    public void testResponsesAddedConcurrently() throws Exception {
+        final ResponseTable table = new ResponseTable("invoke", new Class[]{int.class});
+        final int[] wrong = new int[1];
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                int key = 0;
+                while(!done.get()){
+                    key = (key + 7919) & 0xFFFF;
+                    Object response = table.get(new Object[]{Integer.valueOf(key)});
+                    if(response != ResponseTable.NO_RESPONSE && ((Integer) response).intValue() != key * 2){
+                        wrong[0]++;
+                    }
+                }
+            }
+        });
+        reader.start();
+        for(int i=0; i<=0xFFFF; i++){
+            table.put(new Object[]{Integer.valueOf(i)}, Integer.valueOf(i * 2));
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(0, wrong[0]);
+        assertEquals(0x10000, table.size());
+    }
+
+    public void testDebugOutput() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class, new Mock(true));
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try{
+            System.out.println("before");
+            target.invoke("text");
+            System.out.println("after");
+        } finally {
+            System.setOut(out);
+        }
+        String newLine = System.getProperty("line.separator");
+        assertEquals("before" + newLine + "invoked: invoke(java.lang.String<text>)" + newLine + "after" + newLine,
+                captured.toString());
+    }
+
+    public void testAnswers() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+
+        mock.setAnswer(new MethodInvocation("invoke", int.class), new IIntAnswer() {
+            public int answer(Object[] parameters) {
+                return ((Integer) parameters[0]).intValue() * 3;
+            }
+        });
+        mock.setAnswer(new MethodInvocation("invokeLong"), new ILongAnswer() {
+            public long answer(Object[] parameters) {
+                return 1L << 40;
+            }
+        });
+        mock.setAnswer(new MethodInvocation("invokeDouble"), new IDoubleAnswer() {
+            public double answer(Object[] parameters) {
+                return 2.5;
+            }
+        });
+        mock.setAnswer(new MethodInvocation("invokeBoolean"), new IBooleanAnswer() {
+            public boolean answer(Object[] parameters) {
+                return false;
+            }
+        });
+        /* An int answer does not apply to a method returning Long */
+        mock.setAnswer(new MethodInvocation("invoke", Long.class), new IIntAnswer() {
+            public int answer(Object[] parameters) {
+                return 1;
+            }
+        });
+
+        assertEquals(21, target.invoke(7));
+        assertEquals(1L << 40, target.invokeLong());
+        assertEquals(2.5, target.invokeDouble(), 0);
+        assertFalse(target.invokeBoolean());
+        assertNull(target.invoke(new Long(1)));
+        assertEquals(0, target.invokeInt());
+        assertTrue(mock.invoked(new MethodInvocation("invoke", int.class, new Integer(7)), 0));
+        assertEquals(6, mock.getInvocations().size());
+
+        mock.addResponse(new MethodInvocation("invoke", int.class, new Integer(7)), new Integer(-1));
+        assertEquals(-1, target.invoke(7));
+        assertEquals(24, target.invoke(8));
+    }
+
+    public void testInvokedTimes() throws Exception {
+        final IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setJournal(new NullInvocationJournal());
+        mock.countInvocations(new MethodInvocation("invoke", int.class, new Integer(7)));
+
+        Thread[] threads = new Thread[4];
+        for(int i=0; i<threads.length; i++){
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for(int j=0; j<1000; j++){
+                        target.invoke(j % 10);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for(int i=0; i<threads.length; i++){
+            threads[i].join();
+        }
+
+        assertEquals(0, mock.getInvocations().size());
+        mock.assertInvokedTimes(new MethodInvocation("invoke", int.class, new Integer(7)), 400);
+        mock.assertInvokedTimes(new MethodInvocation("invoke", int.class), 4000);
+        mock.assertInvokedAtLeast(new MethodInvocation("invoke", int.class, new Integer(7)), 400);
+        mock.assertInvokedAtMost(new MethodInvocation("invoke", int.class), 4000);
+        mock.assertInvokedTimes(new MethodInvocation("invoke"), 0);
+        try{
+            mock.assertInvokedAtMost(new MethodInvocation("invoke", int.class, new Integer(7)), 399);
+            fail("Expected AssertionError");
+        } catch(AssertionError error){
+            assertTrue(error.getMessage().startsWith("Method invoked 400 times, at most 399 expected"));
+        }
+
+        try{
+            mock.assertInvokedTimes(new MethodInvocation("invoke", int.class, new Integer(8)), 0);
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException expected){
+            // expected
+        }
+
+        mock.clear();
+        mock.assertInvokedTimes(new MethodInvocation("invoke", int.class, new Integer(7)), 0);
+    }
+
+    public void testStats() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(new InvocationTarget());
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setSamplingPolicy(new EveryNthSamplingPolicy(10));
+        mock.addReturnValues(new Object[]{"a", "b"});
+
+        for(int i=0; i<100; i++){
+            target.invoke(i);
+        }
+        target.invoke("text");
+
+        MockStats stats = mock.getStats();
+        assertEquals(101, stats.getInvocations());
+        assertEquals(2, stats.getMethods().length);
+        assertEquals(11, stats.getJournalSize());
+        assertEquals(90, stats.getDroppedInvocations());
+        assertEquals(-1, stats.getJournalBytes());
+        assertEquals(2, stats.getReturnValueQueueDepth());
+        assertEquals(101, stats.getForwardedInvocations());
+        assertTrue(stats.getMaxForwardingNanos() > 0);
+        assertTrue(stats.getForwardingNanos() >= stats.getMaxForwardingNanos());
+
+        ObjectName name = mock.registerMBean("testStats");
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(new Long(101), server.getAttribute(name, "Invocations"));
+            target.invoke();
+            assertEquals(new Long(102), server.getAttribute(name, "Invocations"));
+            assertEquals(3, ((long[]) server.getAttribute(name, "MethodInvocations")).length);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+
+        mock.clear();
+        assertEquals(0, mock.getStats().getForwardedInvocations());
+    }
+
+    public void testAssertionMessages() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        target.invoke("first");
+        target.invoke(3);
+        target.invoke("second");
+
+        try{
+            mock.assertInvoked(new MethodInvocation("invoke", String.class, "third"));
+            fail("Expected InvocationAssertionError");
+        } catch(InvocationAssertionError error){
+            assertEquals(InvocationAssertionError.NOT_INVOKED, error.getKind());
+            assertEquals(3, error.getCandidates().size());
+            assertEquals(0, error.getCandidatePositions()[0]);
+            assertEquals(2, error.getCandidatePositions()[1]);
+            assertEquals(1, error.getCandidatePositions()[2]);
+            assertEquals("Method not invoked: invoke(java.lang.String<third>)\n"
+                    + "Nearest invocations:\n"
+                    + "    #0 invoke(java.lang.String<first>)\n"
+                    + "    #2 invoke(java.lang.String<second>)\n"
+                    + "    #1 invoke(int<3>)", error.getMessage());
+        }
+
+        try{
+            mock.assertInvokedLast(new MethodInvocation("invoke", int.class, new Integer(3)));
+            fail("Expected InvocationAssertionError");
+        } catch(InvocationAssertionError error){
+            assertEquals(2, error.getActualPosition());
+            assertEquals(new MethodInvocation("invoke", String.class, "second"), error.getActual());
+            assertTrue(error.getMessage().endsWith("Last method invoked was: invoke(java.lang.String<second>)"));
+        }
+
+        try{
+            mock.assertInvokedBefore(new MethodInvocation("invoke", String.class, "second"), new MethodInvocation("invoke", int.class));
+            fail("Expected InvocationAssertionError");
+        } catch(InvocationAssertionError error){
+            assertEquals("Method invoke(java.lang.String<second>) (#2) was not invoked before invoke(int) (#1)", error.getMessage());
+        }
+
+        /* Probing the journal allocates nothing, also when the probe fails */
+        MethodInvocation probe   = new MethodInvocation("invoke", String.class, "second");
+        MethodInvocation missing = new MethodInvocation("invoke", String.class, "missing");
+        for(int i=0; i<20000; i++){
+            mock.invoked(probe);
+            mock.invoked(missing);
+            mock.invokedBefore(missing, probe);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId  = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        int found = 0;
+        for(int i=0; i<100000; i++){
+            if(mock.invoked(probe))   found++;
+            if(mock.invoked(missing)) found++;
+            if(mock.invokedLast(probe)) found++;
+            if(mock.invokedBefore(missing, probe)) found++;
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        assertEquals(200000, found);
+        assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+    }
+}
@@ -0,0 +1,112 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.Fingerprint;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.impl.OffHeapInvocationJournal;
+import com.jenkov.testing.mock.impl.ParameterCapture;
+import com.jenkov.testing.mock.itf.IParameterEncoder;
+import junit.framework.TestCase;
+
+import java.io.DataOutput;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class OffHeapInvocationJournalTest extends TestCase {
+
+    public void testMatches() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        OffHeapInvocationJournal journal = new OffHeapInvocationJournal(64);
+        mock.setJournal(journal);
+
+        for(int i=0; i<100; i++){
+            target.invoke(i);
+        }
+        target.invoke("text");
+        target.invoke(new Long(7));
+        target.invoke();
+
+        assertEquals(103, journal.size());
+        assertTrue (mock.invoked(new MethodInvocation("invoke", int.class, new Integer(42)), 42));
+        assertFalse(mock.invoked(new MethodInvocation("invoke", int.class, new Integer(42)), 43));
+        assertTrue (mock.invoked(new MethodInvocation("invoke", String.class, "text")));
+        assertFalse(mock.invoked(new MethodInvocation("invoke", String.class, "texts")));
+        assertTrue (mock.invoked(new MethodInvocation("invoke", Long.class, new Long(7))));
+        assertTrue (mock.invokedLast(new MethodInvocation("invoke")));
+        assertTrue (mock.invokedBefore(new MethodInvocation("invoke", String.class), new MethodInvocation("invoke", Long.class)));
+
+        assertEquals(new MethodInvocation("invoke", new Class[]{int.class}, new Object[]{new Integer(99)}), journal.get(99));
+        assertEquals(new MethodInvocation("invoke", new Class[]{String.class}, new Object[]{"text"}), journal.get(100));
+        assertTrue(journal.getTimestamp(0) <= journal.getTimestamp(102));
+
+        mock.clear();
+        assertEquals(0, journal.size());
+        target.invoke("again");
+        assertTrue(mock.invokedLast(new MethodInvocation("invoke", String.class, "again")));
+    }
+
+    public void testEncoder() throws Exception {
+        Comparator comparator = (Comparator) MockFactory.createProxy(Comparator.class);
+        Mock mock = (Mock) MockFactory.getMock(comparator);
+        OffHeapInvocationJournal journal = new OffHeapInvocationJournal();
+        journal.addEncoder(StringBuffer.class, new IParameterEncoder() {
+            public byte[] encode(Object parameter) {
+                return parameter.toString().getBytes();
+            }
+            public Object decode(byte[] data) {
+                return new StringBuffer(new String(data));
+            }
+        });
+        mock.setJournal(journal);
+
+        comparator.compare(new StringBuffer("a"), new Integer(1));
+
+        assertTrue (mock.invoked(new MethodInvocation("compare", new Class[]{Object.class, Object.class},
+                new Object[]{new StringBuffer("a"), new Integer(1)})));
+        assertFalse(mock.invoked(new MethodInvocation("compare", new Class[]{Object.class, Object.class},
+                new Object[]{new StringBuffer("b"), new Integer(1)})));
+        assertEquals("a", journal.get(0).getParameters()[0].toString());
+    }
+
+    public void testFingerprints() throws Exception {
+        DataOutput output = (DataOutput) MockFactory.createProxy(DataOutput.class);
+        Mock mock = (Mock) MockFactory.getMock(output);
+        OffHeapInvocationJournal journal = new OffHeapInvocationJournal();
+        mock.setJournal(journal);
+        mock.setParameterCapture(byte[].class, ParameterCapture.FINGERPRINT);
+
+        output.write(new byte[]{1, 2, 3});
+        mock.setParameterCapture(byte[].class, ParameterCapture.REFERENCE);
+        byte[] reused = new byte[]{4, 5, 6};
+        output.write(reused);
+
+        assertTrue (mock.invoked(new MethodInvocation("write", byte[].class, new byte[]{1, 2, 3}), 0));
+        assertTrue (mock.invoked(new MethodInvocation("write", byte[].class, ByteBuffer.wrap(new byte[]{1, 2, 3})), 0));
+        assertTrue (mock.invoked(new MethodInvocation("write", byte[].class, Fingerprint.of(new byte[]{1, 2, 3})), 0));
+        assertFalse(mock.invoked(new MethodInvocation("write", byte[].class, new byte[]{1, 2, 4}), 0));
+        assertTrue (mock.invoked(new MethodInvocation("write", byte[].class, new byte[]{4, 5, 6}), 1));
+        assertEquals(Fingerprint.of(new byte[]{1, 2, 3}), journal.get(0).getParameters()[0]);
+    }
+
+    public void testQueryBeforeTypeIsRecorded() throws Exception {
+        Comparator comparator = (Comparator) MockFactory.createProxy(Comparator.class);
+        Mock mock = (Mock) MockFactory.getMock(comparator);
+        mock.setJournal(new OffHeapInvocationJournal());
+
+        Object key = new Object();
+        MethodInvocation query = new MethodInvocation("compare", new Class[]{Object.class, Object.class},
+                new Object[]{key, key});
+
+        comparator.compare("a", "b");
+        assertFalse(mock.invoked(query));
+        comparator.compare(key, key);
+        assertTrue (mock.invoked(query));
+        assertTrue (mock.invoked(query, 1));
+    }
+}
@@ -0,0 +1,179 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import com.jenkov.testing.mock.impl.NullInvocationJournal;
+import com.jenkov.testing.mock.impl.ProxyEngine;
+import com.jenkov.testing.mock.itf.ILongAnswer;
+import com.sun.management.ThreadMXBean;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs against whichever <code>ProxyEngine</code> the JVM loads. The build runs it once against the
+ * class directory, and on JDK 17 and later once more against the multi-release jar, with the system property
+ * <code>butterfly.expectedProxyEngine</code> telling which engine the jar must provide.
+ *
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class ProxyEngineTest extends TestCase {
+
+    public interface IValues {
+        public long   add(int a, long b, double c, byte d, char e);
+        public String join(String[] parts, boolean reverse);
+        public void   fail() throws IOException;
+        public void   failUndeclared();
+    }
+
+    interface IHidden {
+        public int value();
+    }
+
+    protected List invocations = new ArrayList();
+
+    protected InvocationHandler handler = new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] parameters) throws Throwable {
+            invocations.add(method.getName());
+            if("add".equals(method.getName())){
+                return new Long(((Integer) parameters[0]).intValue() + ((Long) parameters[1]).longValue()
+                        + (long) ((Double) parameters[2]).doubleValue() + ((Byte) parameters[3]).byteValue()
+                        + ((Character) parameters[4]).charValue());
+            }
+            if("join".equals(method.getName())){
+                String[] parts = (String[]) parameters[0];
+                return ((Boolean) parameters[1]).booleanValue() ? parts[1] + parts[0] : parts[0] + parts[1];
+            }
+            if("fail".equals(method.getName()) || "failUndeclared".equals(method.getName())){
+                throw new IOException("failed");
+            }
+            if("hashCode".equals(method.getName())) return new Integer(42);
+            if("equals".equals(method.getName()))   return Boolean.valueOf(parameters[0] == proxy);
+            if("toString".equals(method.getName())) return "proxy";
+            if("value".equals(method.getName()))    return new Integer(7);
+            return null;
+        }
+    };
+
+    public void testEngine() throws Exception {
+        String expected = System.getProperty("butterfly.expectedProxyEngine");
+        if(expected != null){
+            assertEquals(expected, ProxyEngine.getName());
+        }
+
+        Object proxy = ProxyEngine.newProxyInstance(getClass().getClassLoader(), new Class[]{IValues.class}, this.handler);
+        if("hidden-class".equals(ProxyEngine.getName())){
+            assertEquals(Boolean.TRUE, Class.class.getMethod("isHidden", new Class[0]).invoke(proxy.getClass(), new Object[0]));
+        }
+        assertSame(this.handler, ProxyEngine.getInvocationHandler(proxy));
+    }
+
+    public void testDispatch() throws Exception {
+        IValues values = (IValues) ProxyEngine.newProxyInstance(getClass().getClassLoader(), new Class[]{IValues.class}, this.handler);
+
+        assertEquals(1 + 2 + 3 + 4 + 'a', values.add(1, 2, 3.5, (byte) 4, 'a'));
+        assertEquals("ba", values.join(new String[]{"a", "b"}, true));
+        assertEquals(42, values.hashCode());
+        assertEquals("proxy", values.toString());
+        assertTrue(values.equals(values));
+        assertEquals(5, this.invocations.size());
+
+        try{
+            values.fail();
+            fail("Expected IOException");
+        } catch(IOException expected){
+            assertEquals("failed", expected.getMessage());
+        }
+        try{
+            values.failUndeclared();
+            fail("Expected UndeclaredThrowableException");
+        } catch(UndeclaredThrowableException expected){
+            assertTrue(expected.getUndeclaredThrowable() instanceof IOException);
+        }
+    }
+
+    public void testNonPublicInterface() throws Exception {
+        IHidden hidden = (IHidden) ProxyEngine.newProxyInstance(getClass().getClassLoader(), new Class[]{IHidden.class}, this.handler);
+        assertEquals(7, hidden.value());
+        assertSame(this.handler, ProxyEngine.getInvocationHandler(hidden));
+
+        try{
+            ProxyEngine.getInvocationHandler(new Object());
+            fail("Expected IllegalArgumentException");
+        } catch(IllegalArgumentException expected){
+            // expected
+        }
+    }
+
+    public void testBulkCreation() throws Exception {
+        Class[] few = new Class[300];
+        for(int i=0; i<few.length; i++){
+            few[i] = i % 2 == 0 ? IInvocationTarget.class : Runnable.class;
+        }
+        Object[] mocks = MockFactory.createProxies(few);
+        assertEquals(300, mocks.length);
+        assertSame(mocks[0].getClass(), mocks[298].getClass());
+        assertSame(mocks[1].getClass(), mocks[299].getClass());
+        assertNotSame(MockFactory.getMock(mocks[0]), MockFactory.getMock(mocks[2]));
+
+        ((IInvocationTarget) mocks[0]).invoke();
+        ((Runnable) mocks[1]).run();
+        MockFactory.getMock(mocks[0]).assertInvoked(new MethodInvocation("invoke"));
+        MockFactory.getMock(mocks[1]).assertInvoked(new MethodInvocation("run"));
+        assertEquals(0, MockFactory.getMock(mocks[2]).getInvocations().size());
+
+        Class[] many = new Class[]{Runnable.class, Comparable.class, Iterable.class, AutoCloseable.class,
+                java.io.Closeable.class, Readable.class, Appendable.class, CharSequence.class,
+                java.util.Comparator.class, java.util.Iterator.class, java.util.Collection.class, List.class};
+        Class[][] interfaceSets = new Class[many.length * 3][];
+        for(int i=0; i<interfaceSets.length; i++){
+            interfaceSets[i] = new Class[]{many[i % many.length], com.jenkov.testing.mock.itf.IMock.class};
+        }
+        mocks = MockFactory.createProxies(interfaceSets);
+        for(int i=0; i<mocks.length; i++){
+            assertTrue(many[i % many.length].isInstance(mocks[i]));
+            assertSame(mocks[i % many.length].getClass(), mocks[i].getClass());
+        }
+        ((List) mocks[11]).size();
+        MockFactory.getMock(mocks[11]).assertInvoked(new MethodInvocation("size"));
+    }
+
+    public void testUnboxedAnswers() throws Exception {
+        IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.setJournal(new NullInvocationJournal());
+        mock.setAnswer(new MethodInvocation("invokeLong"), new ILongAnswer() {
+            public long answer(Object[] parameters) {
+                return 1L << 40;
+            }
+        });
+
+        long sum = 0;
+        for(int i=0; i<100000; i++){
+            sum += target.invokeLong();
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId  = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        for(int i=0; i<100000; i++){
+            sum += target.invokeLong();
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        assertEquals(200000L << 40, sum);
+        assertEquals(200000, mock.getInvocationCount(new MethodInvocation("invokeLong")));
+        if("hidden-class".equals(ProxyEngine.getName())){
+            /* Only the measurement itself may allocate */
+            assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+        }
+    }
+}
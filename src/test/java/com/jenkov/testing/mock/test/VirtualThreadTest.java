@@ -0,0 +1,89 @@
+package com.jenkov.testing.mock.test;
+
+import com.jenkov.testing.mock.impl.LatencyInterceptor;
+import com.jenkov.testing.mock.impl.MethodInvocation;
+import com.jenkov.testing.mock.impl.Mock;
+import com.jenkov.testing.mock.impl.MockFactory;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs 100.000 virtual threads against one mock, and checks with Java Flight Recorder that none of them
+ * pinned its carrier thread. Virtual threads are started via reflection, so the test compiles for Java 8.
+ * The build only runs this test in the java21 profile. Run on a JVM without virtual threads, the test
+ * reports that it was skipped.
+ *
+ * @author Jakob Jenkov
+ *         Copyright 2004 Jenkov Development
+ */
+public class VirtualThreadTest extends TestCase {
+
+    public static final int THREADS = 100000;
+
+    public void testNoPinning() throws Exception {
+        Method ofVirtual = null;
+        try{
+            ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+        } catch(NoSuchMethodException e){
+            System.err.println("VirtualThreadTest.testNoPinning skipped: virtual threads need Java 21 or later, running on "
+                    + System.getProperty("java.version"));
+            return;
+        }
+        Object builder = ofVirtual.invoke(null, new Object[0]);
+        Method start   = Class.forName("java.lang.Thread$Builder").getMethod("start", new Class[]{Runnable.class});
+
+        final IInvocationTarget target = (IInvocationTarget) MockFactory.createProxy(IInvocationTarget.class);
+        Mock mock = (Mock) MockFactory.getMock(target);
+        mock.addInterceptor(new MethodInvocation("invoke", int.class), new LatencyInterceptor(1, TimeUnit.MILLISECONDS));
+        for(int i=0; i<THREADS; i++){
+            mock.addReturnValue(new Integer(i));
+        }
+
+        Recording recording = new Recording();
+        recording.enable("jdk.VirtualThreadPinned").withoutThreshold().withStackTrace();
+        recording.start();
+
+        Thread[] threads = new Thread[THREADS];
+        for(int i=0; i<THREADS; i++){
+            final int value = i;
+            threads[i] = (Thread) start.invoke(builder, new Object[]{new Runnable() {
+                public void run() {
+                    target.invoke(value);
+                }
+            }});
+        }
+        for(int i=0; i<THREADS; i++){
+            threads[i].join();
+        }
+        assertTrue(mock.awaitInvoked(new MethodInvocation("invoke", int.class), THREADS, 10000));
+
+        recording.stop();
+        File file = File.createTempFile("virtual-thread-test", ".jfr");
+        try{
+            recording.dump(file.toPath());
+            List events = RecordingFile.readAllEvents(file.toPath());
+            int pinned = 0;
+            Iterator iterator = events.iterator();
+            while(iterator.hasNext()){
+                if("jdk.VirtualThreadPinned".equals(((RecordedEvent) iterator.next()).getEventType().getName())){
+                    pinned++;
+                }
+            }
+            assertEquals(0, pinned);
+        } finally {
+            recording.close();
+            file.delete();
+        }
+
+        assertEquals(THREADS, mock.getInvocations().size());
+        assertEquals(THREADS, mock.getInvocationCount(new MethodInvocation("invoke", int.class)));
+    }
+}